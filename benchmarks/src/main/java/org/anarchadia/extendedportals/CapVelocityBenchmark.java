@@ -0,0 +1,39 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.util.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Velocity capping applied to every entity sent through a gateway.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CapVelocityBenchmark {
+
+    private final Vector walking = new Vector(0.1D, -0.08D, 0.2D);
+    private final Vector launched = new Vector(900.0D, 40.0D, -650.0D);
+
+    @Benchmark
+    public Vector withinLimit() {
+        return Loader.capVelocity(walking);
+    }
+
+    @Benchmark
+    public Vector aboveLimit() {
+        return Loader.capVelocity(launched);
+    }
+}
@@ -0,0 +1,133 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Entity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One tick of the {@code poll} gateway trigger: every entity in the chunk of each loaded gateway is
+ * checked against it, as {@code pollLoadedPortalGateways} does over the dense {@link GatewayTable}.
+ * {@link #pollTickLocationMap()} walks the earlier {@code Map<Long, Location>} of gateways, and
+ * {@link #pollTickReadingBlocks()} is the variant before that, which also re-read and re-checked
+ * each gateway block every tick.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class GatewayPollBenchmark {
+
+    private static final int GATEWAY_Y = 80;
+
+    @Param({"16", "160"})
+    public int loadedGateways;
+
+    @Param({"50", "500"})
+    public int entitiesPerChunk;
+
+    private World world;
+    private final GatewayTable gateways = new GatewayTable();
+    private final Map<Long, Location> loadedPortalGateways = new HashMap<Long, Location>();
+
+    @Setup
+    public void setUp() {
+        StandIns.WorldContents contents = StandIns.world("world");
+        world = contents.getWorld();
+        Random random = new Random(42L);
+
+        for (int gateway = 0; gateway < loadedGateways; gateway++) {
+            int chunkX = 156 * (gateway + 1);
+            int chunkZ = -156 * (gateway + 1);
+            int gatewayX = (chunkX << 4) + PortalStructure.PORTAL_OFFSET_IN_CHUNK + PortalStructure.PORTAL_CENTER_OFFSET;
+            int gatewayZ = (chunkZ << 4) + PortalStructure.PORTAL_OFFSET_IN_CHUNK + PortalStructure.PORTAL_CENTER_OFFSET;
+
+            Entity[] entities = new Entity[entitiesPerChunk];
+            for (int index = 0; index < entitiesPerChunk; index++) {
+                entities[index] = StandIns.entity(new Location(
+                        world,
+                        (chunkX << 4) + random.nextDouble() * 16.0D,
+                        GATEWAY_Y - 10 + random.nextDouble() * 20.0D,
+                        (chunkZ << 4) + random.nextDouble() * 16.0D
+                ));
+            }
+
+            Chunk chunk = StandIns.chunk(world, chunkX, chunkZ, entities);
+            contents.put(chunk);
+            contents.put(StandIns.block(world, gatewayX, GATEWAY_Y, gatewayZ, Material.END_GATEWAY, chunk));
+            gateways.put(Loader.chunkKey(chunkX, chunkZ), gatewayX, GATEWAY_Y, gatewayZ);
+            loadedPortalGateways.put(Long.valueOf(Loader.chunkKey(chunkX, chunkZ)), new Location(world, gatewayX, GATEWAY_Y, gatewayZ));
+        }
+    }
+
+    @Benchmark
+    public int pollTick() {
+        int matches = 0;
+        for (int index = 0; index < gateways.size(); index++) {
+            int x = gateways.xAt(index);
+            int y = gateways.yAt(index);
+            int z = gateways.zAt(index);
+            for (Entity entity : world.getChunkAt(x >> 4, z >> 4).getEntities()) {
+                if (Loader.shouldTeleportEntity(entity, x, y, z)) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int pollTickLocationMap() {
+        int matches = 0;
+        for (Location gatewayLocation : loadedPortalGateways.values()) {
+            for (Entity entity : world.getChunkAt(gatewayLocation.getBlockX() >> 4, gatewayLocation.getBlockZ() >> 4).getEntities()) {
+                if (Loader.shouldTeleportEntity(entity, gatewayLocation)) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int pollTickReadingBlocks() {
+        int matches = 0;
+        for (Location gatewayLocation : loadedPortalGateways.values()) {
+            if (!world.isChunkLoaded(gatewayLocation.getBlockX() >> 4, gatewayLocation.getBlockZ() >> 4)) {
+                continue;
+            }
+
+            Block gatewayBlock = world.getBlockAt(gatewayLocation);
+            if (gatewayBlock.getType() != Material.END_GATEWAY) {
+                continue;
+            }
+
+            for (Entity entity : gatewayBlock.getChunk().getEntities()) {
+                if (Loader.shouldTeleportEntity(entity, gatewayLocation)) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,119 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Portal chunk lookups ({@code isPortalChunk}) and chunk key packing over the default layout,
+ * whose 20 rings give 1,600 portal chunks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PortalLayoutBenchmark {
+
+    private static final int CHUNKS = 1600;
+    private static final int WORLD_BORDER_CHUNKS = PortalLayout.MAX_RING + 1;
+
+    private PortalLayout layout;
+    private int[] portalXs;
+    private int[] portalZs;
+    private int[] randomXs;
+    private int[] randomZs;
+
+    @Setup
+    public void setUp() throws Exception {
+        Reader reader = new InputStreamReader(Loader.class.getResourceAsStream("/config.yml"), StandardCharsets.UTF_8);
+        try {
+            YamlConfiguration config = YamlConfiguration.loadConfiguration(reader);
+            layout = PortalLayout.fromConfig(config.getConfigurationSection("layout"), Logger.getAnonymousLogger());
+        } finally {
+            reader.close();
+        }
+
+        portalXs = new int[CHUNKS];
+        portalZs = new int[CHUNKS];
+        int count = 0;
+        for (int xIndex = 0; xIndex < layout.getRingCount() && count < CHUNKS; xIndex++) {
+            for (int zIndex = 0; zIndex < layout.getRingCount() && count < CHUNKS; zIndex++) {
+                for (int signs = 0; signs < 4 && count < CHUNKS; signs++) {
+                    portalXs[count] = layout.getOffsetX() + ((signs & 1) == 0 ? 1 : -1) * layout.getRing(xIndex);
+                    portalZs[count] = layout.getOffsetZ() + ((signs & 2) == 0 ? 1 : -1) * layout.getRing(zIndex);
+                    count++;
+                }
+            }
+        }
+
+        Random random = new Random(42L);
+        randomXs = new int[CHUNKS];
+        randomZs = new int[CHUNKS];
+        for (int index = 0; index < CHUNKS; index++) {
+            randomXs[index] = random.nextInt(2 * WORLD_BORDER_CHUNKS) - WORLD_BORDER_CHUNKS;
+            randomZs[index] = random.nextInt(2 * WORLD_BORDER_CHUNKS) - WORLD_BORDER_CHUNKS;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public int containsPortalChunks() {
+        int hits = 0;
+        for (int index = 0; index < CHUNKS; index++) {
+            if (layout.contains(portalXs[index], portalZs[index])) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public int containsRandomChunks() {
+        int hits = 0;
+        for (int index = 0; index < CHUNKS; index++) {
+            if (layout.contains(randomXs[index], randomZs[index])) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public long nearestSiteRandomChunks() {
+        long keys = 0L;
+        for (int index = 0; index < CHUNKS; index++) {
+            keys ^= layout.nearestSite(randomXs[index], randomZs[index]);
+        }
+        return keys;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public long chunkKeys() {
+        long keys = 0L;
+        for (int index = 0; index < CHUNKS; index++) {
+            keys ^= Loader.chunkKey(randomXs[index], randomZs[index]);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,180 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Entity;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lightweight in-memory stand-ins for the Bukkit world types the hot paths touch.
+ *
+ * <p>Each stand-in is a dynamic proxy answering the handful of methods the plugin calls from fixed
+ * values; everything else returns the type's default. Return values are boxed up front, so calls
+ * without arguments do not allocate. Calls with arguments allocate the proxy's argument array,
+ * which shows up as a small constant in the allocation rate.</p>
+ */
+final class StandIns {
+
+    private StandIns() {
+    }
+
+    static Entity entity(final Location location) {
+        final Map<String, Object> values = new HashMap<String, Object>();
+        values.put("isValid", Boolean.TRUE);
+        values.put("isDead", Boolean.FALSE);
+        values.put("isInsideVehicle", Boolean.FALSE);
+        values.put("getPassengers", Collections.<Entity>emptyList());
+        values.put("getLocation", location);
+        values.put("getWorld", location.getWorld());
+        return proxy(Entity.class, new FixedValues(values));
+    }
+
+    static Block block(World world, int x, int y, int z, Material type, final Chunk chunk) {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getWorld", world);
+        values.put("getX", Integer.valueOf(x));
+        values.put("getY", Integer.valueOf(y));
+        values.put("getZ", Integer.valueOf(z));
+        values.put("getType", type);
+        values.put("getChunk", chunk);
+        return proxy(Block.class, new FixedValues(values));
+    }
+
+    static Chunk chunk(World world, int chunkX, int chunkZ, Entity[] entities) {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getWorld", world);
+        values.put("getX", Integer.valueOf(chunkX));
+        values.put("getZ", Integer.valueOf(chunkZ));
+        values.put("getEntities", entities);
+        values.put("isLoaded", Boolean.TRUE);
+        return proxy(Chunk.class, new FixedValues(values));
+    }
+
+    /**
+     * A world whose only content is the blocks registered with {@link WorldContents#put}.
+     */
+    static WorldContents world(String name) {
+        return new WorldContents(name);
+    }
+
+    static final class WorldContents implements InvocationHandler {
+
+        private final String name;
+        private final Map<Long, Block> blocks = new HashMap<Long, Block>();
+        private final Map<Long, Chunk> chunks = new HashMap<Long, Chunk>();
+        private final World world;
+
+        private WorldContents(String name) {
+            this.name = name;
+            this.world = proxy(World.class, this);
+        }
+
+        World getWorld() {
+            return world;
+        }
+
+        void put(Block block) {
+            blocks.put(Long.valueOf(pack(block.getX(), block.getY(), block.getZ())), block);
+        }
+
+        void put(Chunk chunk) {
+            chunks.put(Long.valueOf(Loader.chunkKey(chunk.getX(), chunk.getZ())), chunk);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String methodName = method.getName();
+            if ("getName".equals(methodName)) {
+                return name;
+            }
+            if ("isChunkLoaded".equals(methodName)) {
+                return Boolean.TRUE;
+            }
+            if ("getChunkAt".equals(methodName) && args.length == 2) {
+                return chunks.get(Long.valueOf(Loader.chunkKey((Integer) args[0], (Integer) args[1])));
+            }
+            if ("getBlockAt".equals(methodName)) {
+                if (args.length == 1) {
+                    Location location = (Location) args[0];
+                    return blocks.get(Long.valueOf(pack(location.getBlockX(), location.getBlockY(), location.getBlockZ())));
+                }
+                return blocks.get(Long.valueOf(pack((Integer) args[0], (Integer) args[1], (Integer) args[2])));
+            }
+            return objectMethod(proxy, method, args);
+        }
+
+        private static long pack(int x, int y, int z) {
+            return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+        }
+    }
+
+    private static final class FixedValues implements InvocationHandler {
+
+        private final Map<String, Object> values;
+
+        private FixedValues(Map<String, Object> values) {
+            this.values = values;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            Object value = values.get(method.getName());
+            return value != null ? value : objectMethod(proxy, method, args);
+        }
+    }
+
+    private static Object objectMethod(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("equals".equals(name) && args != null && args.length == 1) {
+            return Boolean.valueOf(proxy == args[0]);
+        }
+        if ("hashCode".equals(name) && args == null) {
+            return Integer.valueOf(System.identityHashCode(proxy));
+        }
+        if ("toString".equals(name) && args == null) {
+            return proxy.getClass().getInterfaces()[0].getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+        }
+        return defaultValue(method.getReturnType());
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        }
+        if (type == int.class) {
+            return Integer.valueOf(0);
+        }
+        if (type == long.class) {
+            return Long.valueOf(0L);
+        }
+        if (type == double.class) {
+            return Double.valueOf(0.0D);
+        }
+        if (type == float.class) {
+            return Float.valueOf(0.0F);
+        }
+        if (type == short.class) {
+            return Short.valueOf((short) 0);
+        }
+        if (type == byte.class) {
+            return Byte.valueOf((byte) 0);
+        }
+        if (type == char.class) {
+            return Character.valueOf((char) 0);
+        }
+        return null;
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(StandIns.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
@@ -0,0 +1,90 @@
+package org.anarchadia.extendedportals;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Teleport cooldown bookkeeping ({@code beginTeleportCooldown} and the per-tick expiry) with a
+ * working set of live cooldowns, driven by a simulated clock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TeleportCooldownsBenchmark {
+
+    private static final long COOLDOWN_MS = 1500L;
+    private static final long TICK_MS = 50L;
+
+    @Param({"10000"})
+    public int entries;
+
+    private UUID[] entityIds;
+    private TeleportCooldowns cooldowns;
+    private TeleportCooldowns steadyState;
+    private int beginsPerTick;
+    private int cursor;
+    private long clock;
+    private int probe;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42L);
+        entityIds = new UUID[entries];
+        for (int index = 0; index < entries; index++) {
+            entityIds[index] = new UUID(random.nextLong(), random.nextLong());
+        }
+
+        cooldowns = new TeleportCooldowns(COOLDOWN_MS);
+        for (UUID entityId : entityIds) {
+            cooldowns.tryBegin(entityId, 0L);
+        }
+
+        // Enough new cooldowns per tick that the live set stays at the configured size.
+        beginsPerTick = (int) Math.max(1L, entries * TICK_MS / COOLDOWN_MS);
+        steadyState = new TeleportCooldowns(COOLDOWN_MS);
+        clock = 0L;
+        for (long tick = 0L; tick < 2L * COOLDOWN_MS / TICK_MS; tick++) {
+            steadyStateTick();
+        }
+    }
+
+    /**
+     * An entity that is still cooling down steps into a gateway again.
+     */
+    @Benchmark
+    public boolean rejectActiveCooldown() {
+        probe = (probe + 1) % entries;
+        return cooldowns.tryBegin(entityIds[probe], 1L);
+    }
+
+    /**
+     * One server tick at steady state: the clock advances, expired cooldowns are dropped and a
+     * tick's worth of new cooldowns start.
+     */
+    @Benchmark
+    public int steadyStateTick() {
+        clock += TICK_MS;
+        steadyState.expire(clock);
+        for (int index = 0; index < beginsPerTick; index++) {
+            steadyState.tryBegin(entityIds[cursor], clock);
+            cursor = (cursor + 1) % entries;
+        }
+        return steadyState.size();
+    }
+}
@@ -0,0 +1,139 @@
+package org.anarchadia.extendedportals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Upper bounds on scenario costs, stored as {@code <scenario>.<metric>=<limit>}. Every timing,
+ * allocation and block metric must have a limit; the other metrics are only reported.
+ */
+final class Budgets {
+
+    private static final String RECORD_COMMAND = "mvn verify -Dsimulation -Dsimulation.record=true";
+    private static final String[] HEADER = {
+            "# Upper bounds on the cost of each simulation scenario, as <scenario>.<metric>=<limit>.",
+            "# Timings are in microseconds per tick and allocations in bytes per tick or kilobytes per run,",
+            "# all measured on the reference machine. Re-record after an intended change in cost with:",
+            "#   " + RECORD_COMMAND
+    };
+    private static final String[] TIMING_METRICS = {"tickP99Micros"};
+    private static final String[] ALLOCATION_METRICS = {"allocatedBytesP99", "allocatedKilobytesTotal"};
+    private static final String[] BLOCK_METRICS = {"blockReads", "blockWrites"};
+    private static final double TIMING_HEADROOM = 3.0D;
+    private static final double ALLOCATION_HEADROOM = 1.5D;
+    private static final double BLOCK_HEADROOM = 1.1D;
+
+    private final Map<String, Long> limits = new TreeMap<String, Long>();
+
+    static Budgets load(File file) throws IOException {
+        Budgets budgets = new Budgets();
+        if (!file.isFile()) {
+            return budgets;
+        }
+
+        Properties properties = new Properties();
+        InputStream input = new FileInputStream(file);
+        try {
+            properties.load(new InputStreamReader(input, StandardCharsets.UTF_8));
+        } finally {
+            input.close();
+        }
+
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key).trim();
+            try {
+                budgets.limits.put(key, Long.valueOf(Long.parseLong(value)));
+            } catch (NumberFormatException exception) {
+                throw new IOException("Budget " + key + " in " + file + " is not a whole number: " + value);
+            }
+        }
+        return budgets;
+    }
+
+    /**
+     * Returns a message for every budgeted metric of the result that exceeds its limit or has none
+     * recorded, so a scenario without budgets fails instead of passing unchecked.
+     */
+    List<String> check(ScenarioResult result) {
+        List<String> problems = new ArrayList<String>();
+        checkAll(result, TIMING_METRICS, problems);
+        checkAll(result, ALLOCATION_METRICS, problems);
+        checkAll(result, BLOCK_METRICS, problems);
+        return problems;
+    }
+
+    /**
+     * Replaces the limits of the result's scenario with its measured costs plus headroom.
+     */
+    void record(ScenarioResult result) {
+        recordAll(result, TIMING_METRICS, TIMING_HEADROOM);
+        recordAll(result, ALLOCATION_METRICS, ALLOCATION_HEADROOM);
+        recordAll(result, BLOCK_METRICS, BLOCK_HEADROOM);
+    }
+
+    private void checkAll(ScenarioResult result, String[] metrics, List<String> problems) {
+        for (String metric : metrics) {
+            Long value = result.getMetrics().get(metric);
+            if (value == null) {
+                continue;
+            }
+
+            Long limit = limits.get(key(result, metric));
+            if (limit == null) {
+                problems.add(metric + " has no budget; record the budgets with " + RECORD_COMMAND);
+            } else if (value.longValue() > limit.longValue()) {
+                problems.add(metric + " is " + value + ", over its budget of " + limit);
+            }
+        }
+    }
+
+    private void recordAll(ScenarioResult result, String[] metrics, double headroom) {
+        for (String metric : metrics) {
+            Long value = result.getMetrics().get(metric);
+            if (value != null) {
+                limits.put(key(result, metric), Long.valueOf((long) Math.ceil(Math.max(1L, value.longValue()) * headroom)));
+            }
+        }
+    }
+
+    /**
+     * Writes the limits sorted by key, without the timestamp {@link Properties#store} adds, so
+     * re-recording only changes the lines whose limits moved.
+     */
+    void save(File file) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+            for (String line : HEADER) {
+                writer.write(line);
+                writer.write('\n');
+            }
+            for (Map.Entry<String, Long> limit : limits.entrySet()) {
+                writer.write(limit.getKey());
+                writer.write('=');
+                writer.write(limit.getValue().toString());
+                writer.write('\n');
+            }
+            writer.flush();
+        } finally {
+            output.close();
+        }
+    }
+
+    private static String key(ScenarioResult result, String metric) {
+        return result.getName() + "." + metric;
+    }
+}
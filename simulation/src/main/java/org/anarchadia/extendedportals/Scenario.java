@@ -0,0 +1,33 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * A scripted load pattern replayed against the plugin by a {@link Simulation}.
+ */
+abstract class Scenario {
+
+    private final String name;
+
+    Scenario(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Name used in the report and as the prefix of the scenario's budget keys.
+     */
+    final String getName() {
+        return name;
+    }
+
+    /**
+     * Adjusts the plugin configuration the scenario runs with; the shipped defaults otherwise.
+     */
+    void configure(YamlConfiguration config) {
+    }
+
+    /**
+     * Drives the simulation and records any expectation the plugin did not meet.
+     */
+    abstract void run(Simulation simulation);
+}
@@ -0,0 +1,37 @@
+package org.anarchadia.extendedportals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The measured costs of one scenario run and the expectations it failed.
+ */
+final class ScenarioResult {
+
+    private final String name;
+    private final Map<String, Long> metrics;
+    private final List<String> failures;
+
+    ScenarioResult(String name, Map<String, Long> metrics, List<String> failures) {
+        this.name = name;
+        this.metrics = Collections.unmodifiableMap(metrics);
+        this.failures = Collections.unmodifiableList(new ArrayList<String>(failures));
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Metrics by name, in report order.
+     */
+    Map<String, Long> getMetrics() {
+        return metrics;
+    }
+
+    List<String> getFailures() {
+        return failures;
+    }
+}
@@ -0,0 +1,368 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.EntityType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.anarchadia.extendedportals.PortalStructure.GATEWAY_SHELL_OFFSET;
+import static org.anarchadia.extendedportals.PortalStructure.GATEWAY_Y_OFFSET;
+import static org.anarchadia.extendedportals.PortalStructure.PORTAL_SIZE;
+
+/**
+ * The scenarios replayed by {@link SimulationMain}, all on the shipped default layout.
+ */
+final class Scenarios {
+
+    private static final int SETTLE_TICKS = 6000;
+
+    private Scenarios() {
+    }
+
+    static List<Scenario> all() {
+        return Arrays.asList(
+                new ChunkLoadStorm(),
+                new ItemFarmStream("event"),
+                new ItemFarmStream("poll"),
+                new ItemFarmStream("bounding-box"),
+                new FarRingRush(),
+                new StructureGriefing()
+        );
+    }
+
+    /**
+     * Every portal chunk of the inner rings loads with its neighbours within two ticks, as on a
+     * restart with players spread over the map; then all of them unload and load again.
+     */
+    private static final class ChunkLoadStorm extends Scenario {
+
+        private ChunkLoadStorm() {
+            super("chunk-load-storm");
+        }
+
+        @Override
+        void run(Simulation simulation) {
+            SimulatedWorld world = simulation.getSource();
+            List<int[]> sites = sites(simulation.getNetwork().getLayout(), 0, 3);
+            List<int[]> chunks = new ArrayList<int[]>();
+            for (int[] site : sites) {
+                for (int deltaX = -1; deltaX <= 1; deltaX++) {
+                    for (int deltaZ = -1; deltaZ <= 1; deltaZ++) {
+                        chunks.add(new int[]{site[0] + deltaX, site[1] + deltaZ});
+                    }
+                }
+            }
+
+            loadInTwoTicks(simulation, chunks);
+            simulation.check(simulation.runUntil(gatewaysActive(simulation, sites), SETTLE_TICKS),
+                    "only " + activeGateways(simulation, sites) + " of " + sites.size() + " gateways came up after the first load storm");
+            for (int[] site : sites) {
+                simulation.check(isIntact(simulation, site), "portal in chunk " + site[0] + ", " + site[1] + " was not built");
+            }
+
+            long writesBefore = simulation.getBlockWrites();
+            for (int[] chunk : chunks) {
+                world.unload(chunk[0], chunk[1]);
+            }
+            simulation.tick();
+            simulation.check(activeGateways(simulation, sites) == 0, "gateways stayed active after their chunks unloaded");
+
+            loadInTwoTicks(simulation, chunks);
+            simulation.check(simulation.runUntil(gatewaysActive(simulation, sites), SETTLE_TICKS),
+                    "only " + activeGateways(simulation, sites) + " of " + sites.size() + " gateways came up after the second load storm");
+            simulation.check(simulation.getBlockWrites() == writesBefore,
+                    "verifying intact portals again wrote " + (simulation.getBlockWrites() - writesBefore) + " blocks");
+        }
+
+        private static void loadInTwoTicks(Simulation simulation, List<int[]> chunks) {
+            for (int index = 0; index < chunks.size(); index++) {
+                if (index == chunks.size() / 2) {
+                    simulation.tick();
+                }
+                simulation.getSource().load(chunks.get(index)[0], chunks.get(index)[1]);
+            }
+            simulation.tick();
+        }
+    }
+
+    /**
+     * A farm drops items straight into one gateway, several per tick for ten seconds.
+     */
+    private static final class ItemFarmStream extends Scenario {
+
+        private static final int TICKS = 200;
+        private static final int ITEMS_PER_TICK = 8;
+
+        private final String triggerMode;
+
+        private ItemFarmStream(String triggerMode) {
+            super("item-farm-stream-" + triggerMode);
+            this.triggerMode = triggerMode;
+        }
+
+        @Override
+        void configure(YamlConfiguration config) {
+            config.set("gateway-trigger-mode", triggerMode);
+        }
+
+        @Override
+        void run(Simulation simulation) {
+            int[] site = sites(simulation.getNetwork().getLayout(), 0, 0).get(0);
+            List<int[]> sites = new ArrayList<int[]>();
+            sites.add(site);
+            simulation.getSource().load(site[0], site[1]);
+            simulation.check(simulation.runUntil(gatewaysActive(simulation, sites), SETTLE_TICKS), "the farm gateway never came up");
+
+            Location gateway = gateway(simulation, site);
+            int spawned = 0;
+            int arrived = 0;
+            for (int tick = 0; tick < TICKS; tick++) {
+                arrived += collectArrivals(simulation);
+                for (int item = 0; item < ITEMS_PER_TICK; item++) {
+                    simulation.spawn(simulation.getSource(), EntityType.DROPPED_ITEM,
+                            gateway.getBlockX() + 0.5D, gateway.getBlockY() + 0.25D, gateway.getBlockZ() + 0.5D);
+                    spawned++;
+                }
+                simulation.tick();
+            }
+
+            for (int tick = 0; tick < 40; tick++) {
+                arrived += collectArrivals(simulation);
+                simulation.tick();
+            }
+            arrived += collectArrivals(simulation);
+            simulation.check(arrived == spawned, arrived + " of " + spawned + " items came through the gateway");
+        }
+
+        private static int collectArrivals(Simulation simulation) {
+            List<SimulatedEntity> arrivals = new ArrayList<SimulatedEntity>(simulation.getDestination().getEntities());
+            for (SimulatedEntity entity : arrivals) {
+                entity.remove();
+            }
+            return arrivals.size();
+        }
+    }
+
+    /**
+     * Hundreds of players walk into the gateways of the two outermost rings in the same tick.
+     */
+    private static final class FarRingRush extends Scenario {
+
+        private static final int PLAYERS = 300;
+        private static final int APPROACH_BLOCKS = 3;
+
+        private FarRingRush() {
+            super("far-ring-rush");
+        }
+
+        @Override
+        void run(Simulation simulation) {
+            PortalLayout layout = simulation.getNetwork().getLayout();
+            List<int[]> sites = sites(layout, layout.getRingCount() - 2, layout.getRingCount() - 1);
+            for (int[] site : sites) {
+                simulation.getSource().load(site[0], site[1]);
+            }
+            simulation.check(simulation.runUntil(gatewaysActive(simulation, sites), SETTLE_TICKS), "the far-ring gateways never came up");
+
+            List<SimulatedEntity> players = new ArrayList<SimulatedEntity>();
+            List<Location> gateways = new ArrayList<Location>();
+            for (int index = 0; index < PLAYERS; index++) {
+                Location gateway = gateway(simulation, sites.get(index % sites.size()));
+                gateways.add(gateway);
+                players.add(simulation.spawn(simulation.getSource(), EntityType.PLAYER,
+                        gateway.getBlockX() + 0.5D, gateway.getBlockY(), gateway.getBlockZ() + APPROACH_BLOCKS + 0.5D));
+            }
+            simulation.tick();
+
+            for (int step = APPROACH_BLOCKS - 1; step >= 0; step--) {
+                for (int index = 0; index < PLAYERS; index++) {
+                    Location gateway = gateways.get(index);
+                    simulation.movePlayer(players.get(index), new Location(gateway.getWorld(),
+                            gateway.getBlockX() + 0.5D, gateway.getBlockY(), gateway.getBlockZ() + step + 0.5D));
+                }
+                simulation.tick();
+            }
+
+            final SimulatedWorld destination = simulation.getDestination();
+            simulation.check(simulation.runUntil(new Simulation.Condition() {
+                @Override
+                public boolean isMet() {
+                    return destination.getEntities().size() == PLAYERS;
+                }
+            }, SETTLE_TICKS), destination.getEntities().size() + " of " + PLAYERS + " players arrived");
+        }
+    }
+
+    /**
+     * Players break portal blocks and creepers blow up whole portals while the chunks stay loaded.
+     */
+    private static final class StructureGriefing extends Scenario {
+
+        private static final int TICKS = 100;
+        private static final int BREAKS_PER_TICK = 3;
+        private static final int EXPLOSION_INTERVAL = 25;
+        private static final int EXPLODED_BLOCKS = 6;
+
+        private StructureGriefing() {
+            super("structure-griefing");
+        }
+
+        @Override
+        void run(final Simulation simulation) {
+            SimulatedWorld world = simulation.getSource();
+            final List<int[]> sites = sites(simulation.getNetwork().getLayout(), 0, 1);
+            for (int[] site : sites) {
+                world.load(site[0], site[1]);
+            }
+            simulation.check(simulation.runUntil(gatewaysActive(simulation, sites), SETTLE_TICKS), "the griefed gateways never came up");
+
+            List<List<int[]>> structures = new ArrayList<List<int[]>>();
+            for (int[] site : sites) {
+                structures.add(managedPositions(simulation, site));
+            }
+
+            Random random = simulation.getRandom();
+            Location firstGateway = gateway(simulation, sites.get(0));
+            SimulatedEntity griefer = simulation.spawn(world, EntityType.PLAYER, firstGateway.getX(), firstGateway.getY() + 4.0D, firstGateway.getZ());
+            SimulatedEntity creeper = simulation.spawn(world, EntityType.CREEPER, firstGateway.getX(), firstGateway.getY() + 4.0D, firstGateway.getZ());
+            for (int tick = 0; tick < TICKS; tick++) {
+                for (int index = 0; index < BREAKS_PER_TICK; index++) {
+                    List<int[]> structure = structures.get(random.nextInt(structures.size()));
+                    int[] position = structure.get(random.nextInt(structure.size()));
+                    if (world.typeAt(position[0], position[1], position[2]) != Material.AIR) {
+                        simulation.breakBlock(world, position[0], position[1], position[2], griefer);
+                    }
+                }
+
+                if (tick % EXPLOSION_INTERVAL == 0) {
+                    List<int[]> structure = structures.get(random.nextInt(structures.size()));
+                    List<int[]> blast = new ArrayList<int[]>();
+                    for (int index = 0; index < EXPLODED_BLOCKS; index++) {
+                        blast.add(structure.get(random.nextInt(structure.size())));
+                    }
+                    simulation.explode(world, creeper, blast);
+                }
+                simulation.tick();
+            }
+
+            simulation.check(simulation.runUntil(new Simulation.Condition() {
+                @Override
+                public boolean isMet() {
+                    if (activeGateways(simulation, sites) != sites.size()) {
+                        return false;
+                    }
+                    for (int[] site : sites) {
+                        if (!isIntact(simulation, site)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            }, SETTLE_TICKS), "griefed portals were not all put back and reactivated");
+        }
+    }
+
+    /**
+     * Portal chunks whose X and Z ring indices both lie in the given range, in audit slot order.
+     */
+    static List<int[]> sites(PortalLayout layout, int fromRing, int toRing) {
+        List<int[]> sites = new ArrayList<int[]>();
+        for (long slot = 0L; slot < layout.getSiteSlotCount(); slot++) {
+            if (!layout.isSiteSlot(slot)) {
+                continue;
+            }
+
+            int chunkX = layout.getSiteChunkX(slot);
+            int chunkZ = layout.getSiteChunkZ(slot);
+            int ringX = ringIndex(layout, Math.abs(chunkX - layout.getOffsetX()));
+            int ringZ = ringIndex(layout, Math.abs(chunkZ - layout.getOffsetZ()));
+            if (ringX >= fromRing && ringX <= toRing && ringZ >= fromRing && ringZ <= toRing) {
+                sites.add(new int[]{chunkX, chunkZ});
+            }
+        }
+        return sites;
+    }
+
+    private static int ringIndex(PortalLayout layout, int distance) {
+        for (int index = 0; index < layout.getRingCount(); index++) {
+            if (layout.getRing(index) == distance) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static Simulation.Condition gatewaysActive(final Simulation simulation, final List<int[]> sites) {
+        return new Simulation.Condition() {
+            @Override
+            public boolean isMet() {
+                return activeGateways(simulation, sites) == sites.size();
+            }
+        };
+    }
+
+    private static int activeGateways(Simulation simulation, List<int[]> sites) {
+        int active = 0;
+        for (int[] site : sites) {
+            if (simulation.getNetwork().getLoadedGateways().contains(Loader.chunkKey(site[0], site[1]))) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    private static Location gateway(Simulation simulation, int[] site) {
+        int gatewayY = simulation.getNetwork().getLoadedGateways().getY(Loader.chunkKey(site[0], site[1]));
+        return new Location(simulation.getSource().getWorld(),
+                PortalStructure.getPortalStart(site[0]) + PortalStructure.PORTAL_CENTER_OFFSET,
+                gatewayY,
+                PortalStructure.getPortalStart(site[1]) + PortalStructure.PORTAL_CENTER_OFFSET);
+    }
+
+    /**
+     * Block positions, as {@code {x, y, z}}, of every block the verified portal of a site manages.
+     */
+    private static List<int[]> managedPositions(Simulation simulation, int[] site) {
+        List<int[]> positions = new ArrayList<int[]>();
+        int baseY = simulation.getNetwork().getRegistry().getBaseY(Loader.chunkKey(site[0], site[1]));
+        if (baseY == PortalRegistry.NO_ENTRY) {
+            return positions;
+        }
+
+        int startX = PortalStructure.getPortalStart(site[0]);
+        int startZ = PortalStructure.getPortalStart(site[1]);
+        for (int offsetX = 0; offsetX < PORTAL_SIZE; offsetX++) {
+            for (int offsetZ = 0; offsetZ < PORTAL_SIZE; offsetZ++) {
+                for (int offsetY = 0; offsetY <= GATEWAY_Y_OFFSET + GATEWAY_SHELL_OFFSET; offsetY++) {
+                    if (PortalStructure.getManagedMaterial(offsetX, offsetY, offsetZ) != null) {
+                        positions.add(new int[]{startX + offsetX, baseY + offsetY, startZ + offsetZ});
+                    }
+                }
+            }
+        }
+        return positions;
+    }
+
+    private static boolean isIntact(Simulation simulation, int[] site) {
+        List<int[]> positions = managedPositions(simulation, site);
+        if (positions.isEmpty()) {
+            return false;
+        }
+
+        int startX = PortalStructure.getPortalStart(site[0]);
+        int startZ = PortalStructure.getPortalStart(site[1]);
+        int baseY = simulation.getNetwork().getRegistry().getBaseY(Loader.chunkKey(site[0], site[1]));
+        for (int[] position : positions) {
+            Material expected = PortalStructure.getManagedMaterial(position[0] - startX, position[1] - baseY, position[2] - startZ);
+            if (simulation.getSource().typeAt(position[0], position[1], position[2]) != expected) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.EndPortalFrame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Block states of the simulated server: a material, plus the facing and eye of end portal frames,
+ * which are the only directional states the plugin writes.
+ */
+final class SimulatedBlockData implements InvocationHandler {
+
+    private final Material material;
+    private BlockFace facing = BlockFace.NORTH;
+    private boolean eye;
+
+    private SimulatedBlockData(Material material) {
+        this.material = material;
+    }
+
+    static BlockData create(Material material) {
+        SimulatedBlockData state = new SimulatedBlockData(material);
+        Class<?> type = material == Material.END_PORTAL_FRAME ? EndPortalFrame.class : BlockData.class;
+        return (BlockData) Proxy.newProxyInstance(SimulatedBlockData.class.getClassLoader(), new Class<?>[]{type}, state);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("getMaterial".equals(name)) {
+            return material;
+        }
+        if ("getFacing".equals(name)) {
+            return facing;
+        }
+        if ("setFacing".equals(name)) {
+            facing = (BlockFace) args[0];
+            return null;
+        }
+        if ("hasEye".equals(name)) {
+            return Boolean.valueOf(eye);
+        }
+        if ("setEye".equals(name)) {
+            eye = ((Boolean) args[0]).booleanValue();
+            return null;
+        }
+        if ("clone".equals(name)) {
+            BlockData copy = create(material);
+            SimulatedBlockData copyState = (SimulatedBlockData) Proxy.getInvocationHandler(copy);
+            copyState.facing = facing;
+            copyState.eye = eye;
+            return copy;
+        }
+        if ("matches".equals(name) || "equals".equals(name)) {
+            SimulatedBlockData other = of(args[0]);
+            return Boolean.valueOf(other != null && other.material == material && other.facing == facing && other.eye == eye);
+        }
+        if ("hashCode".equals(name) && args == null) {
+            return Integer.valueOf((material.hashCode() * 31 + facing.hashCode()) * 31 + (eye ? 1 : 0));
+        }
+        if ("getAsString".equals(name) || "toString".equals(name)) {
+            return material == Material.END_PORTAL_FRAME
+                    ? material.name() + "[facing=" + facing.name() + ",eye=" + eye + "]"
+                    : material.name();
+        }
+
+        throw new UnsupportedOperationException("BlockData." + name + " is not simulated");
+    }
+
+    private static SimulatedBlockData of(Object value) {
+        if (value == null || !Proxy.isProxyClass(value.getClass())) {
+            return null;
+        }
+
+        InvocationHandler handler = Proxy.getInvocationHandler(value);
+        return handler instanceof SimulatedBlockData ? (SimulatedBlockData) handler : null;
+    }
+}
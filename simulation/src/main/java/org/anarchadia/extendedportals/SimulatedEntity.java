@@ -0,0 +1,184 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.util.Vector;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An entity or player of the simulated server. It only moves when a scenario or a teleport moves
+ * it; there is no physics.
+ */
+final class SimulatedEntity implements InvocationHandler {
+
+    private final int entityId;
+    private final UUID uniqueId;
+    private final EntityType type;
+    private final Entity entity;
+    private SimulatedWorld world;
+    private Location location;
+    private Vector velocity = new Vector();
+    private boolean removed;
+
+    SimulatedEntity(int entityId, EntityType type, SimulatedWorld world, Location location) {
+        this.entityId = entityId;
+        this.uniqueId = new UUID(0L, entityId);
+        this.type = type;
+        this.world = world;
+        this.location = location.clone();
+        Class<?> proxyType = type == EntityType.PLAYER ? Player.class : Entity.class;
+        this.entity = (Entity) Proxy.newProxyInstance(SimulatedEntity.class.getClassLoader(), new Class<?>[]{proxyType}, this);
+    }
+
+    Entity getEntity() {
+        return entity;
+    }
+
+    boolean isPlayer() {
+        return type == EntityType.PLAYER;
+    }
+
+    boolean isValid() {
+        return !removed;
+    }
+
+    SimulatedWorld getSimulatedWorld() {
+        return world;
+    }
+
+    /**
+     * The live position; callers must not modify it.
+     */
+    Location location() {
+        return location;
+    }
+
+    void setVelocity(Vector velocity) {
+        this.velocity = velocity.clone();
+    }
+
+    void moveTo(SimulatedWorld target, Location destination) {
+        if (target != world) {
+            world.removeEntity(this);
+            target.addEntity(this);
+            world = target;
+        }
+        location = destination.clone();
+        location.setWorld(target.getWorld());
+    }
+
+    void remove() {
+        removed = true;
+        world.removeEntity(this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("getUniqueId".equals(name)) {
+            return uniqueId;
+        }
+        if ("getEntityId".equals(name)) {
+            return Integer.valueOf(entityId);
+        }
+        if ("getType".equals(name)) {
+            return type;
+        }
+        if ("getWorld".equals(name)) {
+            return world.getWorld();
+        }
+        if ("getLocation".equals(name)) {
+            if (args == null) {
+                return location.clone();
+            }
+            Location target = (Location) args[0];
+            if (target != null) {
+                target.setWorld(location.getWorld());
+                target.setX(location.getX());
+                target.setY(location.getY());
+                target.setZ(location.getZ());
+                target.setYaw(location.getYaw());
+                target.setPitch(location.getPitch());
+            }
+            return target;
+        }
+        if ("getX".equals(name)) {
+            return Double.valueOf(location.getX());
+        }
+        if ("getY".equals(name)) {
+            return Double.valueOf(location.getY());
+        }
+        if ("getZ".equals(name)) {
+            return Double.valueOf(location.getZ());
+        }
+        if ("isValid".equals(name) || "isOnline".equals(name)) {
+            return Boolean.valueOf(!removed);
+        }
+        if ("isDead".equals(name)) {
+            return Boolean.valueOf(removed);
+        }
+        if ("isInsideVehicle".equals(name)) {
+            return Boolean.FALSE;
+        }
+        if ("getPassengers".equals(name)) {
+            return Collections.<Entity>emptyList();
+        }
+        if ("getVelocity".equals(name)) {
+            return velocity.clone();
+        }
+        if ("setVelocity".equals(name)) {
+            setVelocity((Vector) args[0]);
+            return null;
+        }
+        if ("teleportAsync".equals(name)) {
+            return CompletableFuture.completedFuture(Boolean.valueOf(teleport((Location) args[0])));
+        }
+        if ("teleport".equals(name) && args[0] instanceof Location) {
+            return Boolean.valueOf(teleport((Location) args[0]));
+        }
+        if ("getName".equals(name)) {
+            return type.name().toLowerCase(Locale.ROOT) + "-" + entityId;
+        }
+        if ("sendMessage".equals(name)) {
+            return null;
+        }
+        if ("hasPermission".equals(name)) {
+            return Boolean.TRUE;
+        }
+        if ("equals".equals(name) && args != null && args.length == 1) {
+            return Boolean.valueOf(proxy == args[0]);
+        }
+        if ("hashCode".equals(name) && args == null) {
+            return Integer.valueOf(entityId);
+        }
+        if ("toString".equals(name) && args == null) {
+            return "SimulatedEntity{" + type + " " + entityId + "}";
+        }
+
+        throw new UnsupportedOperationException(type + "." + name + " is not simulated");
+    }
+
+    private boolean teleport(Location destination) {
+        if (removed || destination.getWorld() == null) {
+            return false;
+        }
+
+        SimulatedWorld target = world.getSimulation().findWorld(destination.getWorld());
+        if (target == null) {
+            return false;
+        }
+
+        target.load(destination.getBlockX() >> 4, destination.getBlockZ() >> 4);
+        moveTo(target, destination);
+        return true;
+    }
+}
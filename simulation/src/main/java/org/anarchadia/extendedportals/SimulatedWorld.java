@@ -0,0 +1,585 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.util.BoundingBox;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An in-memory world of the simulated server.
+ *
+ * <p>Terrain is flat: stone up to {@link #SURFACE_Y} in a normal world, nothing at all in the End.
+ * Only blocks that differ from the terrain are stored, per chunk, so chunks are cheap however many
+ * of them a scenario loads. Chunks keep their blocks while unloaded, like saved chunks, and
+ * asynchronous loads complete at the start of the next tick. Blocks read and written from plugin
+ * code are counted by the {@link Simulation}.</p>
+ */
+final class SimulatedWorld implements InvocationHandler {
+
+    static final int MIN_Y = -64;
+    static final int MAX_Y = 320;
+    static final int SURFACE_Y = 63;
+
+    private static final BlockData AIR = SimulatedBlockData.create(Material.AIR);
+    private static final BlockData STONE = SimulatedBlockData.create(Material.STONE);
+
+    private final Simulation simulation;
+    private final String name;
+    private final UUID id;
+    private final World.Environment environment;
+    private final int surfaceY;
+    private final World world;
+    private final Map<Long, SimulatedChunk> chunks = new HashMap<Long, SimulatedChunk>();
+    private final Set<Long> tickets = new HashSet<Long>();
+    private final Map<Long, CompletableFuture<Chunk>> pendingLoads = new LinkedHashMap<Long, CompletableFuture<Chunk>>();
+    private final List<SimulatedEntity> entities = new ArrayList<SimulatedEntity>();
+
+    SimulatedWorld(Simulation simulation, String name, World.Environment environment) {
+        this.simulation = simulation;
+        this.name = name;
+        this.id = UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8));
+        this.environment = environment;
+        this.surfaceY = environment == World.Environment.THE_END ? MIN_Y - 1 : SURFACE_Y;
+        this.world = (World) Proxy.newProxyInstance(SimulatedWorld.class.getClassLoader(), new Class<?>[]{World.class}, this);
+    }
+
+    World getWorld() {
+        return world;
+    }
+
+    Simulation getSimulation() {
+        return simulation;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isLoaded(int chunkX, int chunkZ) {
+        SimulatedChunk chunk = chunks.get(Long.valueOf(Loader.chunkKey(chunkX, chunkZ)));
+        return chunk != null && chunk.loaded;
+    }
+
+    int getLoadedChunkCount() {
+        int loaded = 0;
+        for (SimulatedChunk chunk : chunks.values()) {
+            if (chunk.loaded) {
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    int getTicketCount() {
+        return tickets.size();
+    }
+
+    /**
+     * Loads a chunk, generating it on first use, and fires its load event.
+     */
+    Chunk load(int chunkX, int chunkZ) {
+        Long key = Long.valueOf(Loader.chunkKey(chunkX, chunkZ));
+        SimulatedChunk chunk = chunks.get(key);
+        boolean generated = chunk == null;
+        if (generated) {
+            chunk = new SimulatedChunk(chunkX, chunkZ);
+            chunks.put(key, chunk);
+        }
+
+        if (!chunk.loaded) {
+            chunk.loaded = true;
+            simulation.callEvent(new ChunkLoadEvent(chunk.chunk, generated));
+        }
+        return chunk.chunk;
+    }
+
+    /**
+     * Unloads a chunk after firing its unload event, unless a plugin ticket holds it.
+     */
+    boolean unload(int chunkX, int chunkZ) {
+        Long key = Long.valueOf(Loader.chunkKey(chunkX, chunkZ));
+        SimulatedChunk chunk = chunks.get(key);
+        if (chunk == null || !chunk.loaded || tickets.contains(key)) {
+            return false;
+        }
+
+        simulation.callEvent(new ChunkUnloadEvent(chunk.chunk));
+        chunk.loaded = false;
+        return true;
+    }
+
+    /**
+     * Finishes the asynchronous loads requested during the previous tick.
+     */
+    void completePendingLoads() {
+        if (pendingLoads.isEmpty()) {
+            return;
+        }
+
+        List<Map.Entry<Long, CompletableFuture<Chunk>>> loads = new ArrayList<Map.Entry<Long, CompletableFuture<Chunk>>>(pendingLoads.entrySet());
+        pendingLoads.clear();
+        for (Map.Entry<Long, CompletableFuture<Chunk>> entry : loads) {
+            long key = entry.getKey().longValue();
+            Chunk chunk = load((int) (key >> 32), (int) key);
+            simulation.completeForPlugin(entry.getValue(), chunk);
+        }
+    }
+
+    Material typeAt(int x, int y, int z) {
+        return stateAt(x, y, z).getMaterial();
+    }
+
+    BlockData stateAt(int x, int y, int z) {
+        SimulatedChunk chunk = chunks.get(Long.valueOf(Loader.chunkKey(x >> 4, z >> 4)));
+        return chunk == null ? terrain(y) : chunk.get(x & 0xF, y, z & 0xF);
+    }
+
+    void setState(int x, int y, int z, BlockData state) {
+        Long key = Long.valueOf(Loader.chunkKey(x >> 4, z >> 4));
+        SimulatedChunk chunk = chunks.get(key);
+        if (chunk == null) {
+            chunk = new SimulatedChunk(x >> 4, z >> 4);
+            chunks.put(key, chunk);
+        }
+        chunk.set(x & 0xF, y, z & 0xF, state);
+    }
+
+    Block blockAt(int x, int y, int z) {
+        return (Block) Proxy.newProxyInstance(SimulatedWorld.class.getClassLoader(), new Class<?>[]{Block.class}, new SimulatedBlock(x, y, z));
+    }
+
+    void addEntity(SimulatedEntity entity) {
+        entities.add(entity);
+    }
+
+    void removeEntity(SimulatedEntity entity) {
+        entities.remove(entity);
+    }
+
+    List<SimulatedEntity> getEntities() {
+        return entities;
+    }
+
+    private BlockData terrain(int y) {
+        return y <= surfaceY ? STONE : AIR;
+    }
+
+    private List<Player> players() {
+        List<Player> players = new ArrayList<Player>();
+        for (SimulatedEntity entity : entities) {
+            if (entity.isPlayer() && entity.isValid()) {
+                players.add((Player) entity.getEntity());
+            }
+        }
+        return players;
+    }
+
+    private Entity[] entitiesInChunk(int chunkX, int chunkZ) {
+        List<Entity> found = new ArrayList<Entity>();
+        for (SimulatedEntity entity : entities) {
+            Location location = entity.location();
+            if (entity.isValid() && location.getBlockX() >> 4 == chunkX && location.getBlockZ() >> 4 == chunkZ) {
+                found.add(entity.getEntity());
+            }
+        }
+        return found.toArray(new Entity[0]);
+    }
+
+    private Collection<Entity> entitiesWithin(BoundingBox box) {
+        List<Entity> found = new ArrayList<Entity>();
+        for (SimulatedEntity entity : entities) {
+            Location location = entity.location();
+            if (entity.isValid() && box.contains(location.getX(), location.getY(), location.getZ())) {
+                found.add(entity.getEntity());
+            }
+        }
+        return found;
+    }
+
+    private CompletableFuture<Chunk> loadAsync(int chunkX, int chunkZ) {
+        if (isLoaded(chunkX, chunkZ)) {
+            return CompletableFuture.completedFuture(load(chunkX, chunkZ));
+        }
+
+        Long key = Long.valueOf(Loader.chunkKey(chunkX, chunkZ));
+        CompletableFuture<Chunk> future = pendingLoads.get(key);
+        if (future == null) {
+            future = new CompletableFuture<Chunk>();
+            pendingLoads.put(key, future);
+        }
+        return future;
+    }
+
+    private int highestY(int x, int z) {
+        SimulatedChunk chunk = chunks.get(Long.valueOf(Loader.chunkKey(x >> 4, z >> 4)));
+        return chunk == null ? Math.max(surfaceY, MIN_Y) : chunk.heights[(z & 0xF) << 4 | (x & 0xF)];
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String methodName = method.getName();
+        if ("getName".equals(methodName)) {
+            return name;
+        }
+        if ("getUID".equals(methodName)) {
+            return id;
+        }
+        if ("getEnvironment".equals(methodName)) {
+            return environment;
+        }
+        if ("getMinHeight".equals(methodName)) {
+            return Integer.valueOf(MIN_Y);
+        }
+        if ("getMaxHeight".equals(methodName)) {
+            return Integer.valueOf(MAX_Y);
+        }
+        if ("isChunkLoaded".equals(methodName) && args.length == 2) {
+            return Boolean.valueOf(isLoaded((Integer) args[0], (Integer) args[1]));
+        }
+        if ("getChunkAt".equals(methodName)) {
+            if (args.length == 1) {
+                Location location = args[0] instanceof Block ? ((Block) args[0]).getLocation() : (Location) args[0];
+                return load(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+            }
+            return load((Integer) args[0], (Integer) args[1]);
+        }
+        if ("getLoadedChunks".equals(methodName)) {
+            List<Chunk> loaded = new ArrayList<Chunk>();
+            for (SimulatedChunk chunk : chunks.values()) {
+                if (chunk.loaded) {
+                    loaded.add(chunk.chunk);
+                }
+            }
+            return loaded.toArray(new Chunk[0]);
+        }
+        if ("getChunkAtAsync".equals(methodName) && args[0] instanceof Integer) {
+            return loadAsync((Integer) args[0], (Integer) args[1]);
+        }
+        if ("getBlockAt".equals(methodName)) {
+            if (args.length == 1) {
+                Location location = (Location) args[0];
+                return blockAt(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+            }
+            return blockAt((Integer) args[0], (Integer) args[1], (Integer) args[2]);
+        }
+        if ("getHighestBlockYAt".equals(methodName) && args[0] instanceof Integer) {
+            return Integer.valueOf(highestY((Integer) args[0], (Integer) args[1]));
+        }
+        if ("addPluginChunkTicket".equals(methodName)) {
+            load((Integer) args[0], (Integer) args[1]);
+            return Boolean.valueOf(tickets.add(Long.valueOf(Loader.chunkKey((Integer) args[0], (Integer) args[1]))));
+        }
+        if ("removePluginChunkTicket".equals(methodName)) {
+            return Boolean.valueOf(tickets.remove(Long.valueOf(Loader.chunkKey((Integer) args[0], (Integer) args[1]))));
+        }
+        if ("removePluginChunkTickets".equals(methodName)) {
+            tickets.clear();
+            return null;
+        }
+        if ("getNearbyEntities".equals(methodName) && args[0] instanceof BoundingBox) {
+            return entitiesWithin((BoundingBox) args[0]);
+        }
+        if ("getPlayers".equals(methodName)) {
+            return players();
+        }
+        if ("getEntities".equals(methodName)) {
+            List<Entity> all = new ArrayList<Entity>();
+            for (SimulatedEntity entity : entities) {
+                all.add(entity.getEntity());
+            }
+            return all;
+        }
+        if ("equals".equals(methodName) && args != null && args.length == 1) {
+            return Boolean.valueOf(proxy == args[0]);
+        }
+        if ("hashCode".equals(methodName) && args == null) {
+            return Integer.valueOf(System.identityHashCode(proxy));
+        }
+        if ("toString".equals(methodName) && args == null) {
+            return "SimulatedWorld{" + name + "}";
+        }
+
+        throw new UnsupportedOperationException("World." + methodName + " is not simulated");
+    }
+
+    /**
+     * One chunk: the blocks that differ from the terrain and a height map over them.
+     */
+    private final class SimulatedChunk implements InvocationHandler {
+
+        private final int chunkX;
+        private final int chunkZ;
+        private final Map<Integer, BlockData> blocks = new HashMap<Integer, BlockData>();
+        private final int[] heights = new int[256];
+        private final Chunk chunk;
+        private boolean loaded;
+
+        private SimulatedChunk(int chunkX, int chunkZ) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            Arrays.fill(heights, Math.max(surfaceY, MIN_Y));
+            this.chunk = (Chunk) Proxy.newProxyInstance(SimulatedWorld.class.getClassLoader(), new Class<?>[]{Chunk.class}, this);
+        }
+
+        private BlockData get(int localX, int y, int localZ) {
+            BlockData state = blocks.get(Integer.valueOf(pack(localX, y, localZ)));
+            return state != null ? state : terrain(y);
+        }
+
+        private void set(int localX, int y, int localZ, BlockData state) {
+            Integer key = Integer.valueOf(pack(localX, y, localZ));
+            if (state.equals(terrain(y))) {
+                blocks.remove(key);
+            } else {
+                blocks.put(key, state);
+            }
+
+            int column = localZ << 4 | localX;
+            if (state.getMaterial() != Material.AIR) {
+                heights[column] = Math.max(heights[column], y);
+            } else if (heights[column] == y) {
+                int height = y - 1;
+                while (height > MIN_Y && get(localX, height, localZ).getMaterial() == Material.AIR) {
+                    height--;
+                }
+                heights[column] = height;
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String methodName = method.getName();
+            if ("getX".equals(methodName)) {
+                return Integer.valueOf(chunkX);
+            }
+            if ("getZ".equals(methodName)) {
+                return Integer.valueOf(chunkZ);
+            }
+            if ("getWorld".equals(methodName)) {
+                return world;
+            }
+            if ("isLoaded".equals(methodName)) {
+                return Boolean.valueOf(loaded);
+            }
+            if ("getBlock".equals(methodName)) {
+                return blockAt((chunkX << 4) + (Integer) args[0], (Integer) args[1], (chunkZ << 4) + (Integer) args[2]);
+            }
+            if ("getChunkSnapshot".equals(methodName)) {
+                return new SimulatedSnapshot(this).snapshot;
+            }
+            if ("getEntities".equals(methodName)) {
+                return entitiesInChunk(chunkX, chunkZ);
+            }
+            if ("equals".equals(methodName) && args != null && args.length == 1) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            if ("hashCode".equals(methodName) && args == null) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+            if ("toString".equals(methodName) && args == null) {
+                return "SimulatedChunk{" + name + " " + chunkX + ", " + chunkZ + "}";
+            }
+
+            throw new UnsupportedOperationException("Chunk." + methodName + " is not simulated");
+        }
+    }
+
+    /**
+     * An immutable copy of a chunk, safe to read from the simulated worker phase.
+     */
+    private final class SimulatedSnapshot implements InvocationHandler {
+
+        private final int chunkX;
+        private final int chunkZ;
+        private final Map<Integer, BlockData> blocks;
+        private final int[] heights;
+        private final boolean[] sectionsWithBlocks = new boolean[(MAX_Y - MIN_Y) >> 4];
+        private final Set<BlockData> palette = new HashSet<BlockData>();
+        private final ChunkSnapshot snapshot;
+
+        private SimulatedSnapshot(SimulatedChunk chunk) {
+            this.chunkX = chunk.chunkX;
+            this.chunkZ = chunk.chunkZ;
+            this.blocks = new HashMap<Integer, BlockData>(chunk.blocks);
+            this.heights = chunk.heights.clone();
+            palette.add(AIR);
+            if (surfaceY >= MIN_Y) {
+                palette.add(STONE);
+                for (int section = 0; section <= (surfaceY - MIN_Y) >> 4; section++) {
+                    sectionsWithBlocks[section] = true;
+                }
+            }
+            for (Map.Entry<Integer, BlockData> entry : blocks.entrySet()) {
+                palette.add(entry.getValue());
+                if (entry.getValue().getMaterial() != Material.AIR) {
+                    sectionsWithBlocks[entry.getKey().intValue() >> 12] = true;
+                }
+            }
+            this.snapshot = (ChunkSnapshot) Proxy.newProxyInstance(SimulatedWorld.class.getClassLoader(), new Class<?>[]{ChunkSnapshot.class}, this);
+        }
+
+        private BlockData get(int localX, int y, int localZ) {
+            simulation.countBlockRead();
+            BlockData state = blocks.get(Integer.valueOf(pack(localX, y, localZ)));
+            return state != null ? state : terrain(y);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String methodName = method.getName();
+            if ("getX".equals(methodName)) {
+                return Integer.valueOf(chunkX);
+            }
+            if ("getZ".equals(methodName)) {
+                return Integer.valueOf(chunkZ);
+            }
+            if ("getWorldName".equals(methodName)) {
+                return name;
+            }
+            if ("getBlockType".equals(methodName)) {
+                return get((Integer) args[0], (Integer) args[1], (Integer) args[2]).getMaterial();
+            }
+            if ("getBlockData".equals(methodName)) {
+                return get((Integer) args[0], (Integer) args[1], (Integer) args[2]);
+            }
+            if ("getHighestBlockYAt".equals(methodName)) {
+                return Integer.valueOf(heights[(Integer) args[1] << 4 | (Integer) args[0]]);
+            }
+            if ("isSectionEmpty".equals(methodName)) {
+                int section = (Integer) args[0];
+                return Boolean.valueOf(section < 0 || section >= sectionsWithBlocks.length || !sectionsWithBlocks[section]);
+            }
+            if ("contains".equals(methodName)) {
+                return Boolean.valueOf(palette.contains(args[0]));
+            }
+            if ("equals".equals(methodName) && args != null && args.length == 1) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            if ("hashCode".equals(methodName) && args == null) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+            if ("toString".equals(methodName) && args == null) {
+                return "SimulatedSnapshot{" + name + " " + chunkX + ", " + chunkZ + "}";
+            }
+
+            throw new UnsupportedOperationException("ChunkSnapshot." + methodName + " is not simulated");
+        }
+    }
+
+    /**
+     * A block handle, created per lookup like the server's own.
+     */
+    private final class SimulatedBlock implements InvocationHandler {
+
+        private final int x;
+        private final int y;
+        private final int z;
+
+        private SimulatedBlock(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String methodName = method.getName();
+            if ("getType".equals(methodName)) {
+                simulation.countBlockRead();
+                return stateAt(x, y, z).getMaterial();
+            }
+            if ("getBlockData".equals(methodName)) {
+                simulation.countBlockRead();
+                return stateAt(x, y, z);
+            }
+            if ("isEmpty".equals(methodName)) {
+                simulation.countBlockRead();
+                return Boolean.valueOf(stateAt(x, y, z).getMaterial() == Material.AIR);
+            }
+            if ("setBlockData".equals(methodName)) {
+                simulation.countBlockWrite();
+                setState(x, y, z, (BlockData) args[0]);
+                return null;
+            }
+            if ("setType".equals(methodName)) {
+                simulation.countBlockWrite();
+                setState(x, y, z, SimulatedBlockData.create((Material) args[0]));
+                return null;
+            }
+            if ("getX".equals(methodName)) {
+                return Integer.valueOf(x);
+            }
+            if ("getY".equals(methodName)) {
+                return Integer.valueOf(y);
+            }
+            if ("getZ".equals(methodName)) {
+                return Integer.valueOf(z);
+            }
+            if ("getWorld".equals(methodName)) {
+                return world;
+            }
+            if ("getChunk".equals(methodName)) {
+                return load(x >> 4, z >> 4);
+            }
+            if ("getLocation".equals(methodName) && args == null) {
+                return new Location(world, x, y, z);
+            }
+            if ("getRelative".equals(methodName)) {
+                if (args[0] instanceof BlockFace) {
+                    BlockFace face = (BlockFace) args[0];
+                    int distance = args.length == 2 ? (Integer) args[1] : 1;
+                    return blockAt(x + face.getModX() * distance, y + face.getModY() * distance, z + face.getModZ() * distance);
+                }
+                return blockAt(x + (Integer) args[0], y + (Integer) args[1], z + (Integer) args[2]);
+            }
+            if ("equals".equals(methodName) && args != null && args.length == 1) {
+                if (args[0] == null || !Proxy.isProxyClass(args[0].getClass())) {
+                    return Boolean.FALSE;
+                }
+                InvocationHandler other = Proxy.getInvocationHandler(args[0]);
+                return Boolean.valueOf(other instanceof SimulatedBlock && ((SimulatedBlock) other).matches(SimulatedWorld.this, x, y, z));
+            }
+            if ("hashCode".equals(methodName) && args == null) {
+                return Integer.valueOf((x * 31 + y) * 31 + z);
+            }
+            if ("toString".equals(methodName) && args == null) {
+                return "SimulatedBlock{" + name + " " + x + ", " + y + ", " + z + "}";
+            }
+
+            throw new UnsupportedOperationException("Block." + methodName + " is not simulated");
+        }
+
+        private boolean matches(SimulatedWorld otherWorld, int otherX, int otherY, int otherZ) {
+            return SimulatedWorld.this == otherWorld && x == otherX && y == otherY && z == otherZ;
+        }
+    }
+
+    private static int pack(int localX, int y, int localZ) {
+        return (y - MIN_Y) << 8 | localZ << 4 | localX;
+    }
+}
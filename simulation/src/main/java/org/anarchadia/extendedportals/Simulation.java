@@ -0,0 +1,709 @@
+package org.anarchadia.extendedportals;
+
+import com.sun.management.ThreadMXBean;
+import io.papermc.paper.event.entity.EntityInsideBlockEvent;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.plugin.InvalidDescriptionException;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One run of the plugin on a deterministic single-threaded stand-in server.
+ *
+ * <p>The real {@link Loader} is enabled against two in-memory worlds and driven tick by tick. Each
+ * tick completes the chunk loads requested during the previous one, fires the entity-inside-block
+ * events of entities standing in gateways, runs the due main-thread tasks and then the due
+ * asynchronous tasks. Asynchronous tasks run on the same thread in a separate phase, during which
+ * the server reports that it is off the main thread, so work handed back to the main thread lands
+ * on the next tick as it would on a real server.</p>
+ *
+ * <p>Only time spent in plugin code is measured: event handlers, scheduled tasks and completion
+ * callbacks, including the stand-in calls they make. Per tick, the time and the bytes allocated are
+ * recorded, along with the blocks the plugin reads and writes.</p>
+ */
+final class Simulation {
+
+    static final String SOURCE_WORLD = "world";
+    static final String DESTINATION_WORLD = "world_the_end";
+
+    private static final long SEED = 0x45505349L;
+    private static final int MAX_ASYNC_ROUNDS = 10000;
+    private static final Comparator<Listening> BY_PRIORITY = new Comparator<Listening>() {
+        @Override
+        public int compare(Listening first, Listening second) {
+            return first.handler.priority().compareTo(second.handler.priority());
+        }
+    };
+
+    private static final ServerHandler SERVER_HANDLER = new ServerHandler();
+    private static final Server SERVER = (Server) Proxy.newProxyInstance(Simulation.class.getClassLoader(), new Class<?>[]{Server.class}, SERVER_HANDLER);
+
+    private final Scenario scenario;
+    private final File dataFolder;
+    private final Random random = new Random(SEED);
+    private final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final long threadId = Thread.currentThread().getId();
+    private final SimulatedWorld source;
+    private final SimulatedWorld destination;
+    private final List<Listening> listeners = new ArrayList<Listening>();
+    private final List<Task> tasks = new ArrayList<Task>();
+    private final Object scheduler = Proxy.newProxyInstance(Simulation.class.getClassLoader(), new Class<?>[]{BukkitScheduler.class}, new SchedulerHandler());
+    private final Object pluginManager = Proxy.newProxyInstance(Simulation.class.getClassLoader(), new Class<?>[]{PluginManager.class}, new PluginManagerHandler());
+    private final TickSamples tickNanos = new TickSamples();
+    private final TickSamples tickBytes = new TickSamples();
+    private final List<String> failures = new ArrayList<String>();
+
+    private Loader plugin;
+    private long currentTick;
+    private boolean asyncPhase;
+    private int nextTaskId = 1;
+    private int nextEntityId = 1;
+    private int pluginDepth;
+    private long enteredAtNanos;
+    private long enteredAtBytes;
+    private long pendingNanos;
+    private long pendingBytes;
+    private long blockReads;
+    private long blockWrites;
+
+    private Simulation(Scenario scenario, File dataFolder) {
+        this.scenario = scenario;
+        this.dataFolder = dataFolder;
+        this.source = new SimulatedWorld(this, SOURCE_WORLD, World.Environment.NORMAL);
+        this.destination = new SimulatedWorld(this, DESTINATION_WORLD, World.Environment.THE_END);
+    }
+
+    /**
+     * Runs a scenario from a clean data folder and returns what it cost.
+     */
+    static ScenarioResult run(Scenario scenario, File workDirectory) throws IOException, ReflectiveOperationException, InvalidDescriptionException {
+        File dataFolder = new File(workDirectory, scenario.getName());
+        deleteRecursively(dataFolder);
+        if (!dataFolder.mkdirs()) {
+            throw new IOException("Could not create " + dataFolder);
+        }
+
+        Simulation simulation = new Simulation(scenario, dataFolder);
+        installServer(simulation);
+        try {
+            simulation.enable();
+            scenario.run(simulation);
+            simulation.setEnabled(false);
+            return simulation.result();
+        } finally {
+            SERVER_HANDLER.simulation = null;
+        }
+    }
+
+    SimulatedWorld getSource() {
+        return source;
+    }
+
+    SimulatedWorld getDestination() {
+        return destination;
+    }
+
+    Loader getPlugin() {
+        return plugin;
+    }
+
+    PortalNetwork getNetwork() {
+        return plugin.getNetworks().get(0);
+    }
+
+    Random getRandom() {
+        return random;
+    }
+
+    long getCurrentTick() {
+        return currentTick;
+    }
+
+    long getBlockWrites() {
+        return blockWrites;
+    }
+
+    /**
+     * Records a failed expectation; the scenario keeps running so its costs are still reported.
+     */
+    void check(boolean condition, String message) {
+        if (!condition) {
+            failures.add(message);
+        }
+    }
+
+    void ticks(int count) {
+        for (int index = 0; index < count; index++) {
+            tick();
+        }
+    }
+
+    /**
+     * Ticks until the condition holds, at most {@code maxTicks} times, and returns whether it did.
+     */
+    boolean runUntil(Condition condition, int maxTicks) {
+        for (int index = 0; index < maxTicks; index++) {
+            if (condition.isMet()) {
+                return true;
+            }
+            tick();
+        }
+        return condition.isMet();
+    }
+
+    void tick() {
+        source.completePendingLoads();
+        destination.completePendingLoads();
+        fireInsideBlockEvents(source);
+        fireInsideBlockEvents(destination);
+        runDueTasks(false);
+
+        asyncPhase = true;
+        try {
+            for (int round = 0; round < MAX_ASYNC_ROUNDS && runDueTasks(true); round++) {
+                // Asynchronous tasks may start further asynchronous tasks.
+            }
+        } finally {
+            asyncPhase = false;
+        }
+
+        tickNanos.add(pendingNanos);
+        tickBytes.add(pendingBytes);
+        pendingNanos = 0L;
+        pendingBytes = 0L;
+        currentTick++;
+    }
+
+    SimulatedEntity spawn(SimulatedWorld world, EntityType type, double x, double y, double z) {
+        SimulatedEntity entity = new SimulatedEntity(nextEntityId++, type, world, new Location(world.getWorld(), x, y, z));
+        world.addEntity(entity);
+        return entity;
+    }
+
+    /**
+     * Moves a player the way a client movement packet would, firing the move event first.
+     */
+    void movePlayer(SimulatedEntity player, Location to) {
+        Location from = player.location().clone();
+        PlayerMoveEvent event = new PlayerMoveEvent((Player) player.getEntity(), from, to.clone());
+        callEvent(event);
+        if (!event.isCancelled()) {
+            player.moveTo(findWorld(event.getTo().getWorld()), event.getTo());
+        }
+    }
+
+    void breakBlock(SimulatedWorld world, int x, int y, int z, SimulatedEntity player) {
+        BlockBreakEvent event = new BlockBreakEvent(world.blockAt(x, y, z), (Player) player.getEntity());
+        callEvent(event);
+        if (!event.isCancelled()) {
+            world.setState(x, y, z, SimulatedBlockData.create(Material.AIR));
+        }
+    }
+
+    /**
+     * Blows up the given positions, each given as {@code {x, y, z}}, from an entity.
+     */
+    void explode(SimulatedWorld world, SimulatedEntity cause, List<int[]> positions) {
+        List<Block> blocks = new ArrayList<Block>();
+        for (int[] position : positions) {
+            blocks.add(world.blockAt(position[0], position[1], position[2]));
+        }
+
+        EntityExplodeEvent event = new EntityExplodeEvent(cause.getEntity(), cause.location().clone(), blocks, 1.0F);
+        callEvent(event);
+        if (event.isCancelled()) {
+            return;
+        }
+
+        for (Block block : event.blockList()) {
+            world.setState(block.getX(), block.getY(), block.getZ(), SimulatedBlockData.create(Material.AIR));
+        }
+    }
+
+    SimulatedWorld findWorld(World world) {
+        if (world == source.getWorld()) {
+            return source;
+        }
+        return world == destination.getWorld() ? destination : null;
+    }
+
+    void countBlockRead() {
+        if (pluginDepth > 0) {
+            blockReads++;
+        }
+    }
+
+    void countBlockWrite() {
+        if (pluginDepth > 0) {
+            blockWrites++;
+        }
+    }
+
+    /**
+     * Dispatches an event to the registered handlers in priority order, timing each handler.
+     */
+    void callEvent(Event event) {
+        for (int index = 0; index < listeners.size(); index++) {
+            Listening listening = listeners.get(index);
+            if (!listening.eventType.isInstance(event)) {
+                continue;
+            }
+            if (listening.handler.ignoreCancelled() && event instanceof Cancellable && ((Cancellable) event).isCancelled()) {
+                continue;
+            }
+
+            enterPlugin();
+            try {
+                listening.method.invoke(listening.listener, event);
+            } catch (IllegalAccessException exception) {
+                throw new IllegalStateException("Could not call " + listening.method, exception);
+            } catch (InvocationTargetException exception) {
+                throw new IllegalStateException("Handler " + listening.method + " failed on " + event.getEventName(), exception.getCause());
+            } finally {
+                exitPlugin();
+            }
+        }
+    }
+
+    /**
+     * Completes a future whose callbacks were registered by the plugin, timing the callbacks.
+     */
+    <T> void completeForPlugin(CompletableFuture<T> future, T value) {
+        enterPlugin();
+        try {
+            future.complete(value);
+        } finally {
+            exitPlugin();
+        }
+    }
+
+    private void enable() throws IOException, ReflectiveOperationException, InvalidDescriptionException {
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(new InputStreamReader(resource("config.yml"), StandardCharsets.UTF_8));
+        config.set("metrics-interval-seconds", Integer.valueOf(0));
+        scenario.configure(config);
+        config.save(new File(dataFolder, "config.yml"));
+
+        PluginDescriptionFile description;
+        InputStream pluginYaml = resource("plugin.yml");
+        try {
+            description = new PluginDescriptionFile(pluginYaml);
+        } finally {
+            pluginYaml.close();
+        }
+
+        ClassLoader classLoader = Loader.class.getClassLoader();
+        if (!(classLoader instanceof SimulationClassLoader)) {
+            throw new IllegalStateException("The plugin must be loaded by the simulation's class loader; run SimulationMain");
+        }
+        ((SimulationClassLoader) classLoader).prepare(SERVER, description, dataFolder, new File(dataFolder, "ExtendedPortals.jar"));
+        plugin = new Loader();
+        plugin.getLogger().setLevel(Level.WARNING);
+        setEnabled(true);
+    }
+
+    private void setEnabled(boolean enabled) throws ReflectiveOperationException {
+        Method setEnabled = JavaPlugin.class.getDeclaredMethod("setEnabled", boolean.class);
+        setEnabled.setAccessible(true);
+        try {
+            setEnabled.invoke(plugin, Boolean.valueOf(enabled));
+        } catch (InvocationTargetException exception) {
+            throw new IllegalStateException("Could not " + (enabled ? "enable" : "disable") + " the plugin", exception.getCause());
+        }
+    }
+
+    private ScenarioResult result() {
+        Map<String, Long> metrics = new LinkedHashMap<String, Long>();
+        metrics.put("ticks", Long.valueOf(currentTick));
+        metrics.put("tickP50Micros", Long.valueOf(tickNanos.quantile(0.50D) / 1000L));
+        metrics.put("tickP99Micros", Long.valueOf(tickNanos.quantile(0.99D) / 1000L));
+        metrics.put("tickMaxMicros", Long.valueOf(tickNanos.quantile(1.00D) / 1000L));
+        metrics.put("allocatedBytesP99", Long.valueOf(tickBytes.quantile(0.99D)));
+        metrics.put("allocatedKilobytesTotal", Long.valueOf(tickBytes.total() / 1024L));
+        metrics.put("blockReads", Long.valueOf(blockReads));
+        metrics.put("blockWrites", Long.valueOf(blockWrites));
+        metrics.put("teleports", Long.valueOf(plugin.getMetrics().teleports.sum()));
+        return new ScenarioResult(scenario.getName(), metrics, failures);
+    }
+
+    private void fireInsideBlockEvents(SimulatedWorld world) {
+        List<SimulatedEntity> entities = new ArrayList<SimulatedEntity>(world.getEntities());
+        for (SimulatedEntity entity : entities) {
+            Location location = entity.location();
+            int x = location.getBlockX();
+            int y = location.getBlockY();
+            int z = location.getBlockZ();
+            if (entity.isValid() && entity.getSimulatedWorld() == world && world.typeAt(x, y, z) == Material.END_GATEWAY) {
+                callEvent(new EntityInsideBlockEvent(entity.getEntity(), world.blockAt(x, y, z)));
+            }
+        }
+    }
+
+    /**
+     * Runs the due tasks of one kind, in the order they were scheduled, and returns whether any ran.
+     */
+    private boolean runDueTasks(boolean async) {
+        List<Task> due = new ArrayList<Task>();
+        for (Task task : tasks) {
+            if (task.async == async && !task.cancelled && task.nextRun <= currentTick) {
+                due.add(task);
+            }
+        }
+
+        for (Task task : due) {
+            if (task.cancelled) {
+                continue;
+            }
+
+            if (task.period > 0L) {
+                task.nextRun += task.period;
+            } else {
+                task.cancelled = true;
+            }
+
+            enterPlugin();
+            try {
+                task.runnable.run();
+            } finally {
+                exitPlugin();
+            }
+        }
+
+        for (int index = tasks.size() - 1; index >= 0; index--) {
+            if (tasks.get(index).cancelled) {
+                tasks.remove(index);
+            }
+        }
+        return !due.isEmpty();
+    }
+
+    private Object schedule(Runnable runnable, long delay, long period, boolean async) {
+        long earliest = async && delay <= 0L ? currentTick : currentTick + Math.max(1L, delay);
+        Task task = new Task(nextTaskId++, runnable, earliest, period, async);
+        tasks.add(task);
+        return task.handle;
+    }
+
+    private void enterPlugin() {
+        if (pluginDepth++ == 0) {
+            enteredAtBytes = threads.getThreadAllocatedBytes(threadId);
+            enteredAtNanos = System.nanoTime();
+        }
+    }
+
+    private void exitPlugin() {
+        if (--pluginDepth == 0) {
+            pendingNanos += System.nanoTime() - enteredAtNanos;
+            pendingBytes += threads.getThreadAllocatedBytes(threadId) - enteredAtBytes;
+        }
+    }
+
+    private void register(Listener listener) {
+        for (Method method : listener.getClass().getDeclaredMethods()) {
+            EventHandler handler = method.getAnnotation(EventHandler.class);
+            if (handler == null || method.getParameterTypes().length != 1 || !Event.class.isAssignableFrom(method.getParameterTypes()[0])) {
+                continue;
+            }
+
+            method.setAccessible(true);
+            listeners.add(new Listening(listener, method, handler));
+        }
+        Collections.sort(listeners, BY_PRIORITY);
+    }
+
+    private List<Player> onlinePlayers() {
+        List<Player> players = new ArrayList<Player>(source.getWorld().getPlayers());
+        players.addAll(destination.getWorld().getPlayers());
+        return players;
+    }
+
+    private static InputStream resource(String name) throws IOException {
+        InputStream stream = Loader.class.getClassLoader().getResourceAsStream(name);
+        if (stream == null) {
+            throw new IOException("The class path has no plugin " + name + "; build the plugin first.");
+        }
+        return stream;
+    }
+
+    private static void installServer(Simulation simulation) throws ReflectiveOperationException {
+        Field field = Bukkit.class.getDeclaredField("server");
+        field.setAccessible(true);
+        if (field.get(null) == null) {
+            field.set(null, SERVER);
+        }
+        SERVER_HANDLER.simulation = simulation;
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+
+    /**
+     * A condition polled between ticks by {@link #runUntil}.
+     */
+    interface Condition {
+
+        boolean isMet();
+    }
+
+    private static final class Listening {
+
+        private final Listener listener;
+        private final Method method;
+        private final EventHandler handler;
+        private final Class<?> eventType;
+
+        private Listening(Listener listener, Method method, EventHandler handler) {
+            this.listener = listener;
+            this.method = method;
+            this.handler = handler;
+            this.eventType = method.getParameterTypes()[0];
+        }
+    }
+
+    private static final class Task implements InvocationHandler {
+
+        private final int id;
+        private final Runnable runnable;
+        private final long period;
+        private final boolean async;
+        private final Object handle;
+        private long nextRun;
+        private boolean cancelled;
+
+        private Task(int id, Runnable runnable, long nextRun, long period, boolean async) {
+            this.id = id;
+            this.runnable = runnable;
+            this.nextRun = nextRun;
+            this.period = period;
+            this.async = async;
+            this.handle = Proxy.newProxyInstance(Simulation.class.getClassLoader(), new Class<?>[]{BukkitTask.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("cancel".equals(name)) {
+                cancelled = true;
+                return null;
+            }
+            if ("isCancelled".equals(name)) {
+                return Boolean.valueOf(cancelled);
+            }
+            if ("getTaskId".equals(name)) {
+                return Integer.valueOf(id);
+            }
+            if ("isSync".equals(name)) {
+                return Boolean.valueOf(!async);
+            }
+            if ("equals".equals(name) && args != null && args.length == 1) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            if ("hashCode".equals(name) && args == null) {
+                return Integer.valueOf(id);
+            }
+            if ("toString".equals(name) && args == null) {
+                return "SimulatedTask{" + id + "}";
+            }
+
+            throw new UnsupportedOperationException("BukkitTask." + name + " is not simulated");
+        }
+    }
+
+    private final class SchedulerHandler implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (args != null && args.length >= 2 && args[1] instanceof Runnable) {
+                Runnable runnable = (Runnable) args[1];
+                long delay = args.length >= 3 ? ((Long) args[2]).longValue() : 0L;
+                long period = args.length >= 4 ? ((Long) args[3]).longValue() : 0L;
+                if ("runTask".equals(name) || "runTaskLater".equals(name) || "runTaskTimer".equals(name)) {
+                    return schedule(runnable, delay, period, false);
+                }
+                if ("runTaskAsynchronously".equals(name) || "runTaskLaterAsynchronously".equals(name) || "runTaskTimerAsynchronously".equals(name)) {
+                    return schedule(runnable, delay, period, true);
+                }
+            }
+            if ("cancelTasks".equals(name)) {
+                for (Task task : tasks) {
+                    task.cancelled = true;
+                }
+                return null;
+            }
+            if ("equals".equals(name) && args != null && args.length == 1) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            if ("hashCode".equals(name) && args == null) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+
+            throw new UnsupportedOperationException("BukkitScheduler." + name + " is not simulated");
+        }
+    }
+
+    private final class PluginManagerHandler implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("registerEvents".equals(name)) {
+                register((Listener) args[0]);
+                return null;
+            }
+            if ("callEvent".equals(name)) {
+                callEvent((Event) args[0]);
+                return null;
+            }
+            if ("getPlugin".equals(name)) {
+                return plugin != null && plugin.getName().equalsIgnoreCase((String) args[0]) ? plugin : null;
+            }
+            if ("isPluginEnabled".equals(name)) {
+                return Boolean.valueOf(plugin != null && plugin.isEnabled());
+            }
+            if ("equals".equals(name) && args != null && args.length == 1) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            if ("hashCode".equals(name) && args == null) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+
+            throw new UnsupportedOperationException("PluginManager." + name + " is not simulated");
+        }
+    }
+
+    /**
+     * The server singleton, answering for whichever simulation is running.
+     */
+    private static final class ServerHandler implements InvocationHandler {
+
+        private final Logger logger = Logger.getLogger("Simulation");
+        private volatile Simulation simulation;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("getLogger".equals(name)) {
+                return logger;
+            }
+            if ("getName".equals(name)) {
+                return "SimulatedServer";
+            }
+            if ("getVersion".equals(name) || "getBukkitVersion".equals(name) || "getMinecraftVersion".equals(name)) {
+                return "1.20.4";
+            }
+            if ("equals".equals(name) && args != null && args.length == 1) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            if ("hashCode".equals(name) && args == null) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            }
+            if ("toString".equals(name) && args == null) {
+                return "SimulatedServer";
+            }
+
+            Simulation current = simulation;
+            if (current == null) {
+                throw new IllegalStateException("Server." + name + " called outside a simulation");
+            }
+            if ("getScheduler".equals(name)) {
+                return current.scheduler;
+            }
+            if ("getPluginManager".equals(name)) {
+                return current.pluginManager;
+            }
+            if ("getWorlds".equals(name)) {
+                return Arrays.asList(current.source.getWorld(), current.destination.getWorld());
+            }
+            if ("getWorld".equals(name)) {
+                for (World world : Arrays.asList(current.source.getWorld(), current.destination.getWorld())) {
+                    if (args[0].equals(world.getName()) || args[0].equals(world.getUID())) {
+                        return world;
+                    }
+                }
+                return null;
+            }
+            if ("createBlockData".equals(name) && args.length == 1 && args[0] instanceof Material) {
+                return SimulatedBlockData.create((Material) args[0]);
+            }
+            if ("isPrimaryThread".equals(name)) {
+                return Boolean.valueOf(!current.asyncPhase);
+            }
+            if ("getAverageTickTime".equals(name)) {
+                return Double.valueOf(20.0D);
+            }
+            if ("getCurrentTick".equals(name)) {
+                return Integer.valueOf((int) current.currentTick);
+            }
+            if ("getOnlinePlayers".equals(name)) {
+                return current.onlinePlayers();
+            }
+            if ("getPluginCommand".equals(name)) {
+                return null;
+            }
+            if ("getEntity".equals(name)) {
+                for (SimulatedWorld world : Arrays.asList(current.source, current.destination)) {
+                    for (SimulatedEntity entity : world.getEntities()) {
+                        Entity candidate = entity.getEntity();
+                        if (candidate.getUniqueId().equals(args[0])) {
+                            return candidate;
+                        }
+                    }
+                }
+                return null;
+            }
+
+            throw new UnsupportedOperationException("Server." + name + " is not simulated");
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.anarchadia.extendedportals;
+
+import io.papermc.paper.plugin.configuration.PluginMeta;
+import io.papermc.paper.plugin.provider.classloader.ConfiguredPluginClassLoader;
+import io.papermc.paper.plugin.provider.classloader.PluginClassLoaderGroup;
+import org.bukkit.Server;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.logging.Logger;
+
+/**
+ * The plugin class loader of the stand-in server. It loads the plugin's package, simulation
+ * included, from the class path itself, so the plugin is created with its public constructor and
+ * initialized by its class loader the way the server's plugin loading does it.
+ *
+ * <p>The simulation shares the loader so it can reach the plugin's package-private state. Every
+ * other class, and this one, comes from the parent.</p>
+ */
+final class SimulationClassLoader extends URLClassLoader implements ConfiguredPluginClassLoader {
+
+    private static final String PLUGIN_PACKAGE = "org.anarchadia.extendedportals.";
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private Server server;
+    private PluginDescriptionFile description;
+    private File dataFolder;
+    private File file;
+    private JavaPlugin plugin;
+
+    private SimulationClassLoader(URL[] urls, ClassLoader parent) {
+        super(urls, parent);
+    }
+
+    /**
+     * Creates a loader over the class path of this JVM.
+     */
+    static SimulationClassLoader ofClassPath(ClassLoader parent) throws MalformedURLException {
+        String[] entries = System.getProperty("java.class.path").split(File.pathSeparator);
+        URL[] urls = new URL[entries.length];
+        for (int index = 0; index < entries.length; index++) {
+            urls[index] = new File(entries[index]).toURI().toURL();
+        }
+        return new SimulationClassLoader(urls, parent);
+    }
+
+    /**
+     * Sets what the next plugin created from this loader is initialized with.
+     */
+    synchronized void prepare(Server server, PluginDescriptionFile description, File dataFolder, File file) {
+        this.server = server;
+        this.description = description;
+        this.dataFolder = dataFolder;
+        this.file = file;
+        this.plugin = null;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!name.startsWith(PLUGIN_PACKAGE) || name.startsWith(SimulationClassLoader.class.getName())) {
+            return super.loadClass(name, resolve);
+        }
+
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded == null) {
+                loaded = findClass(name);
+            }
+            if (resolve) {
+                resolveClass(loaded);
+            }
+            return loaded;
+        }
+    }
+
+    @Override
+    public Class<?> loadClass(String name, boolean resolve, boolean checkGlobal, boolean checkLibraries) throws ClassNotFoundException {
+        return loadClass(name, resolve);
+    }
+
+    @Override
+    public synchronized PluginMeta getConfiguration() {
+        return description;
+    }
+
+    /**
+     * Called by the plugin's constructor. Hands the plugin its server, description and folders
+     * through the shortest {@code init} method the API declares whose parameters it can fill.
+     */
+    @Override
+    public synchronized void init(JavaPlugin plugin) {
+        if (description == null) {
+            throw new IllegalStateException("The plugin was created before the simulation prepared its loader");
+        }
+
+        Method init = null;
+        Object[] arguments = null;
+        for (Method method : JavaPlugin.class.getDeclaredMethods()) {
+            if (method.getName().equals("init")) {
+                Object[] candidate = argumentsFor(method.getParameterTypes());
+                if (candidate != null && (init == null || candidate.length < arguments.length)) {
+                    init = method;
+                    arguments = candidate;
+                }
+            }
+        }
+        if (init == null) {
+            throw new IllegalStateException("JavaPlugin has no init method the simulation can call");
+        }
+
+        init.setAccessible(true);
+        try {
+            init.invoke(plugin, arguments);
+        } catch (IllegalAccessException exception) {
+            throw new IllegalStateException("Could not initialize the plugin", exception);
+        } catch (InvocationTargetException exception) {
+            throw new IllegalStateException("Could not initialize the plugin", exception.getCause());
+        }
+        this.plugin = plugin;
+    }
+
+    @Override
+    public synchronized JavaPlugin getPlugin() {
+        return plugin;
+    }
+
+    @Override
+    public PluginClassLoaderGroup getGroup() {
+        return null;
+    }
+
+    /**
+     * Returns the arguments for an init method with the given parameters, or null if one of them
+     * is not something the server would pass. Files are passed in order: data folder, then jar.
+     */
+    @SuppressWarnings("deprecation")
+    private Object[] argumentsFor(Class<?>[] parameters) {
+        Object[] available = {server, description, this, new JavaPluginLoader(server), Logger.getLogger(description.getName())};
+        File[] files = {dataFolder, file};
+        int nextFile = 0;
+        Object[] arguments = new Object[parameters.length];
+        for (int index = 0; index < parameters.length; index++) {
+            if (parameters[index] == File.class) {
+                if (nextFile == files.length) {
+                    return null;
+                }
+                arguments[index] = files[nextFile++];
+                continue;
+            }
+
+            for (Object value : available) {
+                if (parameters[index].isInstance(value)) {
+                    arguments[index] = value;
+                    break;
+                }
+            }
+            if (arguments[index] == null) {
+                return null;
+            }
+        }
+        return arguments;
+    }
+}
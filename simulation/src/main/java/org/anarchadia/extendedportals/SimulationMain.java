@@ -0,0 +1,94 @@
+package org.anarchadia.extendedportals;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs every scenario, prints what each one cost and fails when a scenario broke an expectation,
+ * went over its budget or has no budget. With {@code -Dsimulation.record=true} the budgets are
+ * rewritten from this run instead of being checked.
+ *
+ * <p>The scenarios run inside a {@link SimulationClassLoader}, so this class first loads itself
+ * again through one and hands over to that copy.</p>
+ */
+public final class SimulationMain {
+
+    private SimulationMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: SimulationMain <budgets.properties> <work directory>");
+            System.exit(2);
+            return;
+        }
+
+        if (!(SimulationMain.class.getClassLoader() instanceof SimulationClassLoader)) {
+            runInPluginClassLoader(args);
+            return;
+        }
+
+        File budgetsFile = new File(args[0]);
+        File workDirectory = new File(args[1]);
+        boolean record = Boolean.getBoolean("simulation.record");
+        Budgets budgets = Budgets.load(budgetsFile);
+
+        List<String> problems = new ArrayList<String>();
+        for (Scenario scenario : Scenarios.all()) {
+            ScenarioResult result = Simulation.run(scenario, workDirectory);
+            report(result);
+            for (String failure : result.getFailures()) {
+                problems.add(result.getName() + ": " + failure);
+            }
+
+            if (record) {
+                budgets.record(result);
+            } else {
+                for (String exceeded : budgets.check(result)) {
+                    problems.add(result.getName() + ": " + exceeded);
+                }
+            }
+        }
+
+        if (record) {
+            budgets.save(budgetsFile);
+            System.out.println("Recorded budgets to " + budgetsFile);
+        }
+
+        if (!problems.isEmpty()) {
+            System.err.println();
+            System.err.println(problems.size() + " simulation problem(s):");
+            for (String problem : problems) {
+                System.err.println("  " + problem);
+            }
+            System.exit(1);
+        }
+    }
+
+    private static void runInPluginClassLoader(String[] args) throws Exception {
+        SimulationClassLoader classLoader = SimulationClassLoader.ofClassPath(SimulationMain.class.getClassLoader());
+        Thread.currentThread().setContextClassLoader(classLoader);
+        try {
+            classLoader.loadClass(SimulationMain.class.getName()).getMethod("main", String[].class).invoke(null, (Object) args);
+        } catch (InvocationTargetException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        } finally {
+            classLoader.close();
+        }
+    }
+
+    private static void report(ScenarioResult result) {
+        StringBuilder line = new StringBuilder(result.getName()).append(':');
+        for (Map.Entry<String, Long> metric : result.getMetrics().entrySet()) {
+            line.append(' ').append(metric.getKey()).append('=').append(metric.getValue());
+        }
+        System.out.println(line);
+    }
+}
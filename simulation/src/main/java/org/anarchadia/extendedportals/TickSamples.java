@@ -0,0 +1,43 @@
+package org.anarchadia.extendedportals;
+
+import java.util.Arrays;
+
+/**
+ * One value per simulated tick, kept in full so exact percentiles can be taken at the end.
+ */
+final class TickSamples {
+
+    private long[] values = new long[1024];
+    private int size;
+    private long total;
+
+    void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+        total += value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long total() {
+        return total;
+    }
+
+    /**
+     * The smallest sample that at least the given fraction of samples do not exceed.
+     */
+    long quantile(double fraction) {
+        if (size == 0) {
+            return 0L;
+        }
+
+        long[] sorted = Arrays.copyOf(values, size);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(fraction * size);
+        return sorted[Math.min(size, Math.max(1, rank)) - 1];
+    }
+}
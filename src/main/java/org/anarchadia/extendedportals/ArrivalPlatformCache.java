@@ -0,0 +1,180 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.World;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.UUID;
+
+/**
+ * Remembers which arrival platforms in a network's destination world are known to be intact so
+ * repeat arrivals can skip re-checking them.
+ *
+ * <p>Platforms are keyed by destination chunk; the value packs the arrival height and the platform
+ * center inside that chunk. An entry is dropped as soon as a watched block change lands inside its
+ * volume. The table is persisted next to the portal registry and is tied to the destination
+ * world's UUID, so a regenerated world starts from an empty cache. Methods lock the cache because
+ * block changes may be reported from several region threads.</p>
+ */
+final class ArrivalPlatformCache implements BlockChangeWatcher {
+
+    private static final int FILE_MAGIC = 0x45504150; // "EPAP"
+    private static final int FILE_VERSION = 2;
+    private static final int NONE = Integer.MIN_VALUE;
+
+    private final StateFile file;
+    private final int radius;
+    private final int clearanceHeight;
+    private final boolean returnGateways;
+    private final LongIntMap platforms = new LongIntMap();
+
+    private UUID worldId;
+    private boolean dirty;
+
+    ArrivalPlatformCache(File file, int radius, int clearanceHeight, boolean returnGateways) {
+        this.file = new StateFile(file);
+        this.radius = radius;
+        this.clearanceHeight = clearanceHeight;
+        this.returnGateways = returnGateways;
+    }
+
+    synchronized boolean isPrepared(World world, int x, int y, int z) {
+        if (platforms.isEmpty() || !world.getUID().equals(worldId)) {
+            return false;
+        }
+
+        return platforms.get(Loader.chunkKey(x >> 4, z >> 4), NONE) == pack(x, y, z);
+    }
+
+    synchronized void markPrepared(World world, int x, int y, int z) {
+        UUID id = world.getUID();
+        if (!id.equals(worldId)) {
+            platforms.clear();
+            worldId = id;
+        }
+
+        platforms.put(Loader.chunkKey(x >> 4, z >> 4), pack(x, y, z));
+        dirty = true;
+    }
+
+    @Override
+    public synchronized void onBlockChanged(World world, int x, int y, int z) {
+        if (platforms.isEmpty() || !world.getUID().equals(worldId)) {
+            return;
+        }
+
+        long key = Loader.chunkKey(x >> 4, z >> 4);
+        int packed = platforms.get(key, NONE);
+        if (packed == NONE) {
+            return;
+        }
+
+        int centerX = (x & ~0xF) | ((packed >> 4) & 0xF);
+        int centerZ = (z & ~0xF) | (packed & 0xF);
+        int arrivalY = packed >> 8;
+        if (Math.abs(x - centerX) <= radius
+                && Math.abs(z - centerZ) <= radius
+                && y >= arrivalY - 1
+                && y < arrivalY + clearanceHeight) {
+            platforms.remove(key);
+            dirty = true;
+        }
+    }
+
+    synchronized int size() {
+        return platforms.size();
+    }
+
+    synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    synchronized void load() throws IOException {
+        if (!file.getFile().isFile()) {
+            return;
+        }
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.getFile().toPath())));
+        try {
+            if (input.readInt() != FILE_MAGIC) {
+                throw new IOException("Not an arrival platform cache file: " + file.getFile());
+            }
+
+            int version = input.readInt();
+            if (version != FILE_VERSION && version != 1) {
+                throw new IOException("Unsupported arrival platform cache version " + version + " in " + file.getFile());
+            }
+
+            // Platforms built with a different return gateway setting are re-checked on arrival.
+            boolean savedReturnGateways = version >= 2 && input.readBoolean();
+            if (savedReturnGateways != returnGateways) {
+                return;
+            }
+
+            worldId = new UUID(input.readLong(), input.readLong());
+            int count = input.readInt();
+            for (int index = 0; index < count; index++) {
+                long key = input.readLong();
+                platforms.put(key, input.readInt());
+            }
+        } finally {
+            input.close();
+        }
+
+        dirty = false;
+    }
+
+    synchronized byte[] snapshot() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(29 + platforms.size() * 12);
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+            output.writeBoolean(returnGateways);
+            output.writeLong(worldId != null ? worldId.getMostSignificantBits() : 0L);
+            output.writeLong(worldId != null ? worldId.getLeastSignificantBits() : 0L);
+            output.writeInt(platforms.size());
+            for (int slot = 0; slot < platforms.capacity(); slot++) {
+                if (!platforms.isOccupied(slot)) {
+                    continue;
+                }
+
+                output.writeLong(platforms.keyAt(slot));
+                output.writeInt(platforms.valueAt(slot));
+            }
+        } catch (IOException exception) {
+            throw new IllegalStateException("In-memory platform cache serialization failed", exception);
+        }
+
+        dirty = false;
+        byte[] snapshot = bytes.toByteArray();
+        file.taken(snapshot);
+        return snapshot;
+    }
+
+    void save() throws IOException {
+        write(snapshot());
+    }
+
+    void write(byte[] data) throws IOException {
+        try {
+            file.write(data);
+        } catch (IOException exception) {
+            markDirty();
+            throw exception;
+        }
+    }
+
+    private synchronized void markDirty() {
+        dirty = true;
+    }
+
+    private static int pack(int x, int y, int z) {
+        return (y << 8) | ((x & 0xF) << 4) | (z & 0xF);
+    }
+}
@@ -0,0 +1,110 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFormEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+
+import java.util.List;
+
+/**
+ * Fans out world block changes to every registered {@link BlockChangeWatcher}. The watcher list
+ * may change while events are dispatched, so it is walked by iterator over a copy-on-write list.
+ */
+final class BlockChangeListener implements Listener {
+
+    private final List<BlockChangeWatcher> watchers;
+
+    BlockChangeListener(List<BlockChangeWatcher> watchers) {
+        this.watchers = watchers;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        notifyWatchers(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        notifyWatchers(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBurn(BlockBurnEvent event) {
+        notifyWatchers(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockForm(BlockFormEvent event) {
+        notifyWatchers(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFade(BlockFadeEvent event) {
+        notifyWatchers(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFromTo(BlockFromToEvent event) {
+        notifyWatchers(event.getToBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        notifyWatchers(event.getBlock());
+        notifyWatchers(event.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        notifyWatchers(event.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityChangeBlock(EntityChangeBlockEvent event) {
+        notifyWatchers(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonExtend(BlockPistonExtendEvent event) {
+        notifyPistonMove(event.getBlock(), event.getBlocks(), event.getDirection());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonRetract(BlockPistonRetractEvent event) {
+        notifyPistonMove(event.getBlock(), event.getBlocks(), event.getDirection());
+    }
+
+    private void notifyPistonMove(Block piston, List<Block> movedBlocks, BlockFace direction) {
+        notifyWatchers(piston.getRelative(direction));
+        for (Block block : movedBlocks) {
+            notifyWatchers(block);
+            notifyWatchers(block.getRelative(direction));
+            notifyWatchers(block.getRelative(direction.getOppositeFace()));
+        }
+    }
+
+    private void notifyWatchers(List<Block> blocks) {
+        for (Block block : blocks) {
+            notifyWatchers(block);
+        }
+    }
+
+    private void notifyWatchers(Block block) {
+        for (BlockChangeWatcher watcher : watchers) {
+            watcher.onBlockChanged(block.getWorld(), block.getX(), block.getY(), block.getZ());
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.World;
+
+/**
+ * Receives the positions of blocks changed by players, explosions, pistons, fluids and entities.
+ */
+interface BlockChangeWatcher {
+
+    void onBlockChanged(World world, int x, int y, int z);
+}
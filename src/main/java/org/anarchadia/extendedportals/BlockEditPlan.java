@@ -0,0 +1,139 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.Directional;
+
+import java.util.Arrays;
+
+/**
+ * A set of desired block states that is diffed against the world and written in one pass.
+ *
+ * <p>Entries are applied grouped by chunk section, so each chunk is resolved once and every write
+ * to a section lands in the same tick; the server then sends those changes to clients as a single
+ * section update. Positions that already hold the desired state are skipped, which also makes a
+ * dry run ({@code apply(world, true)}) report exactly how many writes a real run would make.</p>
+ */
+final class BlockEditPlan {
+
+    private int[] xs;
+    private int[] ys;
+    private int[] zs;
+    private BlockData[] states;
+    private int[] order;
+    private int size;
+
+    BlockEditPlan(int expectedSize) {
+        int capacity = Math.max(expectedSize, 4);
+        xs = new int[capacity];
+        ys = new int[capacity];
+        zs = new int[capacity];
+        states = new BlockData[capacity];
+        order = new int[capacity];
+    }
+
+    void set(int x, int y, int z, BlockData state) {
+        if (size == xs.length) {
+            int capacity = size * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            zs = Arrays.copyOf(zs, capacity);
+            states = Arrays.copyOf(states, capacity);
+            order = Arrays.copyOf(order, capacity);
+        }
+
+        xs[size] = x;
+        ys[size] = y;
+        zs[size] = z;
+        states[size] = state;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        Arrays.fill(states, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Writes every entry that differs from the world, one chunk section at a time.
+     *
+     * @param dryRun only count the differences without touching the world
+     * @return the number of blocks written, or that would have been written
+     */
+    int apply(World world, boolean dryRun) {
+        sortBySection();
+
+        int writes = 0;
+        Chunk chunk = null;
+        for (int position = 0; position < size; position++) {
+            int index = order[position];
+            int chunkX = xs[index] >> 4;
+            int chunkZ = zs[index] >> 4;
+            if (chunk == null || chunk.getX() != chunkX || chunk.getZ() != chunkZ) {
+                chunk = world.getChunkAt(chunkX, chunkZ);
+            }
+
+            Block block = chunk.getBlock(xs[index] & 0xF, ys[index], zs[index] & 0xF);
+            BlockData desired = states[index];
+            if (matches(block, desired)) {
+                continue;
+            }
+
+            writes++;
+            if (!dryRun) {
+                block.setBlockData(desired, false);
+            }
+        }
+
+        return writes;
+    }
+
+    private static boolean matches(Block block, BlockData desired) {
+        if (block.getType() != desired.getMaterial()) {
+            return false;
+        }
+
+        return !(desired instanceof Directional) || block.getBlockData().equals(desired);
+    }
+
+    private void sortBySection() {
+        for (int index = 0; index < size; index++) {
+            order[index] = index;
+        }
+
+        for (int position = 1; position < size; position++) {
+            int index = order[position];
+            int previous = position - 1;
+            while (previous >= 0 && compareSections(order[previous], index) > 0) {
+                order[previous + 1] = order[previous];
+                previous--;
+            }
+            order[previous + 1] = index;
+        }
+    }
+
+    private int compareSections(int first, int second) {
+        int result = compare(xs[first] >> 4, xs[second] >> 4);
+        if (result == 0) {
+            result = compare(zs[first] >> 4, zs[second] >> 4);
+        }
+        if (result == 0) {
+            result = compare(ys[first] >> 4, ys[second] >> 4);
+        }
+        return result;
+    }
+
+    private static int compare(int first, int second) {
+        return first < second ? -1 : (first == second ? 0 : 1);
+    }
+}
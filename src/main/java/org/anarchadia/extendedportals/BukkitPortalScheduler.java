@@ -0,0 +1,89 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * {@link PortalScheduler} for single-threaded servers, backed by the Bukkit scheduler.
+ */
+final class BukkitPortalScheduler implements PortalScheduler {
+
+    private final Plugin plugin;
+
+    BukkitPortalScheduler(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean isRegionThreaded() {
+        return false;
+    }
+
+    @Override
+    public PortalTask runTimer(Runnable task, long delayTicks, long periodTicks) {
+        return wrap(Bukkit.getScheduler().runTaskTimer(plugin, task, delayTicks, periodTicks));
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, task);
+    }
+
+    @Override
+    public PortalTask runAsyncTimer(Runnable task, long delayTicks, long periodTicks) {
+        return wrap(Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, task, delayTicks, periodTicks));
+    }
+
+    @Override
+    public void runAtChunk(World world, int chunkX, int chunkZ, Runnable task) {
+        if (Bukkit.isPrimaryThread()) {
+            task.run();
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+    }
+
+    @Override
+    public void runAtChunkLater(World world, int chunkX, int chunkZ, Runnable task, long delayTicks) {
+        Bukkit.getScheduler().runTaskLater(plugin, task, delayTicks);
+    }
+
+    @Override
+    public PortalTask runAtChunkTimer(World world, int chunkX, int chunkZ, Runnable task, long delayTicks, long periodTicks) {
+        return runTimer(task, delayTicks, periodTicks);
+    }
+
+    @Override
+    public void runForEntity(final Entity entity, final Runnable task, long delayTicks) {
+        if (delayTicks <= 0L && Bukkit.isPrimaryThread()) {
+            task.run();
+            return;
+        }
+
+        Bukkit.getScheduler().runTaskLater(plugin, new Runnable() {
+            @Override
+            public void run() {
+                if (entity.isValid()) {
+                    task.run();
+                }
+            }
+        }, Math.max(0L, delayTicks));
+    }
+
+    @Override
+    public boolean ownsEntity(Entity entity) {
+        return Bukkit.isPrimaryThread();
+    }
+
+    private static PortalTask wrap(final BukkitTask task) {
+        return new PortalTask() {
+            @Override
+            public void cancel() {
+                task.cancel();
+            }
+        };
+    }
+}
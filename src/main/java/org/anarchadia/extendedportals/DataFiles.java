@@ -0,0 +1,38 @@
+package org.anarchadia.extendedportals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Helpers for the small binary state files kept in the plugin data folder.
+ */
+final class DataFiles {
+
+    private DataFiles() {
+    }
+
+    /**
+     * Replaces a file with new contents through a synced temporary file, so a crash mid-write
+     * never leaves a truncated file behind.
+     */
+    static void writeAtomically(File file, byte[] data) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(temporary);
+        try {
+            output.write(data);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,201 @@
+package org.anarchadia.extendedportals;
+
+/**
+ * The destination chunks of one network that are kept loaded with a plugin chunk ticket because
+ * entities keep arriving in them.
+ *
+ * <p>At most {@code capacity} chunks are held. Every arrival moves its chunk to the front of a
+ * least-recently-used list; a new chunk arriving while the list is full pushes out the one at the
+ * back, and the periodic sweep lets go of chunks nobody arrived in for the idle time. Entries live
+ * in fixed slots threaded into the list by index and found through a {@link LongIntMap}, so an
+ * arrival neither boxes nor allocates. Adding tickets is left to the caller; chunks that leave are
+ * handed to the {@link Release}. Methods lock the residency because region threads on Folia
+ * record arrivals concurrently.</p>
+ */
+final class DestinationResidency {
+
+    private static final int NONE = -1;
+
+    /**
+     * Lets go of the ticket of a chunk that is no longer resident.
+     */
+    interface Release {
+
+        void release(long chunkKey);
+    }
+
+    private final int capacity;
+    private final long idleMillis;
+    private final Release release;
+    private final LongIntMap slots;
+    private final long[] keys;
+    private final long[] lastUsed;
+    private final int[] previous;
+    private final int[] next;
+    private int head = NONE;
+    private int tail = NONE;
+    private int size;
+
+    /**
+     * @param capacity   chunks held at most; 0 holds none
+     * @param idleMillis how long a chunk stays without arrivals; 0 keeps it until pushed out
+     */
+    DestinationResidency(int capacity, long idleMillis, Release release) {
+        this.capacity = Math.max(0, capacity);
+        this.idleMillis = Math.max(0L, idleMillis);
+        this.release = release;
+        this.slots = new LongIntMap(this.capacity);
+        this.keys = new long[this.capacity];
+        this.lastUsed = new long[this.capacity];
+        this.previous = new int[this.capacity];
+        this.next = new int[this.capacity];
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getIdleMillis() {
+        return idleMillis;
+    }
+
+    /**
+     * Records an arrival in a chunk and returns whether it was already resident. Unless the
+     * capacity is 0, a chunk that was not is made resident and the caller must add its ticket.
+     */
+    synchronized boolean touch(long chunkKey, long now) {
+        int slot = slots.get(chunkKey, NONE);
+        if (slot != NONE) {
+            lastUsed[slot] = now;
+            unlink(slot);
+            linkFirst(slot);
+            return true;
+        }
+
+        if (capacity == 0) {
+            return false;
+        }
+
+        if (size == capacity) {
+            slot = tail;
+            long evicted = keys[slot];
+            unlink(slot);
+            slots.remove(evicted);
+            release.release(evicted);
+        } else {
+            slot = size++;
+        }
+
+        keys[slot] = chunkKey;
+        lastUsed[slot] = now;
+        slots.put(chunkKey, slot);
+        linkFirst(slot);
+        return false;
+    }
+
+    synchronized boolean isResident(long chunkKey) {
+        return slots.containsKey(chunkKey);
+    }
+
+    synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * Releases the chunks nobody arrived in for the idle time and returns how many there were.
+     */
+    synchronized int expire(long now) {
+        if (idleMillis == 0L) {
+            return 0;
+        }
+
+        int expired = 0;
+        while (tail != NONE && now - lastUsed[tail] >= idleMillis) {
+            long key = keys[tail];
+            remove(tail);
+            release.release(key);
+            expired++;
+        }
+        return expired;
+    }
+
+    /**
+     * Releases every resident chunk.
+     */
+    synchronized void releaseAll() {
+        while (tail != NONE) {
+            long key = keys[tail];
+            remove(tail);
+            release.release(key);
+        }
+    }
+
+    /**
+     * Forgets every resident chunk without releasing it, for when all of the plugin's tickets in
+     * the destination world are dropped at once.
+     */
+    synchronized void clear() {
+        slots.clear();
+        head = NONE;
+        tail = NONE;
+        size = 0;
+    }
+
+    private void remove(int slot) {
+        unlink(slot);
+        slots.remove(keys[slot]);
+        freeSlot(slot);
+    }
+
+    /**
+     * Keeps the used slots packed at the front by moving the last one into the freed slot.
+     */
+    private void freeSlot(int slot) {
+        int last = --size;
+        if (slot == last) {
+            return;
+        }
+
+        keys[slot] = keys[last];
+        lastUsed[slot] = lastUsed[last];
+        previous[slot] = previous[last];
+        next[slot] = next[last];
+        slots.put(keys[slot], slot);
+        if (previous[slot] == NONE) {
+            head = slot;
+        } else {
+            next[previous[slot]] = slot;
+        }
+        if (next[slot] == NONE) {
+            tail = slot;
+        } else {
+            previous[next[slot]] = slot;
+        }
+    }
+
+    private void linkFirst(int slot) {
+        previous[slot] = NONE;
+        next[slot] = head;
+        if (head == NONE) {
+            tail = slot;
+        } else {
+            previous[head] = slot;
+        }
+        head = slot;
+    }
+
+    private void unlink(int slot) {
+        int before = previous[slot];
+        int after = next[slot];
+        if (before == NONE) {
+            head = after;
+        } else {
+            next[before] = after;
+        }
+        if (after == NONE) {
+            tail = before;
+        } else {
+            previous[after] = before;
+        }
+    }
+}
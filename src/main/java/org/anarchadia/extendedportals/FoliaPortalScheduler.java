@@ -0,0 +1,102 @@
+package org.anarchadia.extendedportals;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * {@link PortalScheduler} for Folia, backed by the global, region, entity and async schedulers.
+ */
+final class FoliaPortalScheduler implements PortalScheduler {
+
+    private static final long MILLIS_PER_TICK = 50L;
+
+    private final Plugin plugin;
+
+    FoliaPortalScheduler(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean isRegionThreaded() {
+        return true;
+    }
+
+    @Override
+    public PortalTask runTimer(Runnable task, long delayTicks, long periodTicks) {
+        return wrap(Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, consumer(task), Math.max(1L, delayTicks), periodTicks));
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        Bukkit.getAsyncScheduler().runNow(plugin, consumer(task));
+    }
+
+    @Override
+    public PortalTask runAsyncTimer(Runnable task, long delayTicks, long periodTicks) {
+        return wrap(Bukkit.getAsyncScheduler().runAtFixedRate(
+                plugin,
+                consumer(task),
+                Math.max(1L, delayTicks) * MILLIS_PER_TICK,
+                periodTicks * MILLIS_PER_TICK,
+                TimeUnit.MILLISECONDS
+        ));
+    }
+
+    @Override
+    public void runAtChunk(World world, int chunkX, int chunkZ, Runnable task) {
+        if (Bukkit.isOwnedByCurrentRegion(world, chunkX, chunkZ)) {
+            task.run();
+        } else {
+            Bukkit.getRegionScheduler().execute(plugin, world, chunkX, chunkZ, task);
+        }
+    }
+
+    @Override
+    public void runAtChunkLater(World world, int chunkX, int chunkZ, Runnable task, long delayTicks) {
+        Bukkit.getRegionScheduler().runDelayed(plugin, world, chunkX, chunkZ, consumer(task), Math.max(1L, delayTicks));
+    }
+
+    @Override
+    public PortalTask runAtChunkTimer(World world, int chunkX, int chunkZ, Runnable task, long delayTicks, long periodTicks) {
+        return wrap(Bukkit.getRegionScheduler().runAtFixedRate(plugin, world, chunkX, chunkZ, consumer(task), Math.max(1L, delayTicks), periodTicks));
+    }
+
+    @Override
+    public void runForEntity(Entity entity, Runnable task, long delayTicks) {
+        if (delayTicks <= 0L && Bukkit.isOwnedByCurrentRegion(entity)) {
+            task.run();
+            return;
+        }
+
+        entity.getScheduler().execute(plugin, task, null, Math.max(1L, delayTicks));
+    }
+
+    @Override
+    public boolean ownsEntity(Entity entity) {
+        return Bukkit.isOwnedByCurrentRegion(entity);
+    }
+
+    private static Consumer<ScheduledTask> consumer(final Runnable task) {
+        return new Consumer<ScheduledTask>() {
+            @Override
+            public void accept(ScheduledTask scheduledTask) {
+                task.run();
+            }
+        };
+    }
+
+    private static PortalTask wrap(final ScheduledTask task) {
+        return new PortalTask() {
+            @Override
+            public void cancel() {
+                task.cancel();
+            }
+        };
+    }
+}
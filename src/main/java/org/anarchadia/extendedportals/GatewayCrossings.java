@@ -0,0 +1,265 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.entity.Entity;
+
+/**
+ * The entities that went through gateways during one tick, grouped by gateway, so each gateway's
+ * destination is looked up, loaded and prepared once for all of them.
+ *
+ * <p>Batches and entries live in parallel arrays reused from tick to tick. A batch is found by its
+ * gateway's chunk key through a {@link LongIntMap}, chained to the other batches with the same key
+ * from other networks, and lists its entries as a chain of entry indexes. Each entry keeps the
+ * entity's facing and capped velocity from the moment it crossed. A batch is sent from a pooled
+ * {@link Batch} buffer, handed back once its teleports have started, so sending allocates nothing
+ * once the pool has grown to the busiest tick. Only the main thread of a single-threaded server
+ * uses it.</p>
+ */
+final class GatewayCrossings {
+
+    private static final int NONE = -1;
+    private static final int INITIAL_BATCHES = 8;
+    private static final int INITIAL_ENTRIES = 16;
+    private static final int INITIAL_POOLED_BATCHES = 4;
+
+    /**
+     * Values kept per entry: yaw, pitch and the three velocity components.
+     */
+    private static final int MOTION_STRIDE = 5;
+
+    private final LongIntMap batchIndexes = new LongIntMap();
+    private PortalNetwork[] batchNetworks = new PortalNetwork[INITIAL_BATCHES];
+    private int[] batchPositions = new int[INITIAL_BATCHES * 3];
+    private int[] batchFirst = new int[INITIAL_BATCHES];
+    private int[] batchLast = new int[INITIAL_BATCHES];
+    private int[] batchSizes = new int[INITIAL_BATCHES];
+    private int[] batchNextWithKey = new int[INITIAL_BATCHES];
+    private int batchCount;
+
+    private Entity[] entities = new Entity[INITIAL_ENTRIES];
+    private double[] motion = new double[INITIAL_ENTRIES * MOTION_STRIDE];
+    private int[] entryNext = new int[INITIAL_ENTRIES];
+    private int entryCount;
+
+    private Batch[] pool = new Batch[INITIAL_POOLED_BATCHES];
+    private int pooled;
+
+    /**
+     * One gateway's entities in crossing order, with {@link #MOTION_STRIDE} motion values each,
+     * kept until the teleports that read them have started.
+     */
+    static final class Batch {
+
+        private PortalNetwork network;
+        private int gatewayX;
+        private int gatewayY;
+        private int gatewayZ;
+        private Entity[] entities = new Entity[INITIAL_ENTRIES];
+        private double[] motion = new double[INITIAL_ENTRIES * MOTION_STRIDE];
+        private int size;
+
+        PortalNetwork getNetwork() {
+            return network;
+        }
+
+        int getGatewayX() {
+            return gatewayX;
+        }
+
+        int getGatewayY() {
+            return gatewayY;
+        }
+
+        int getGatewayZ() {
+            return gatewayZ;
+        }
+
+        int size() {
+            return size;
+        }
+
+        Entity entityAt(int index) {
+            return entities[index];
+        }
+
+        float yawAt(int index) {
+            return (float) motion[index * MOTION_STRIDE];
+        }
+
+        float pitchAt(int index) {
+            return (float) motion[index * MOTION_STRIDE + 1];
+        }
+
+        double velocityXAt(int index) {
+            return motion[index * MOTION_STRIDE + 2];
+        }
+
+        double velocityYAt(int index) {
+            return motion[index * MOTION_STRIDE + 3];
+        }
+
+        double velocityZAt(int index) {
+            return motion[index * MOTION_STRIDE + 4];
+        }
+    }
+
+    /**
+     * Adds an entity to the batch of its gateway, opening the batch on the gateway's first crossing
+     * this tick.
+     */
+    void add(PortalNetwork network, int gatewayX, int gatewayY, int gatewayZ, Entity entity,
+             float yaw, float pitch, double velocityX, double velocityY, double velocityZ) {
+        int batch = findBatch(network, gatewayX, gatewayY, gatewayZ);
+        if (entryCount == entities.length) {
+            growEntries();
+        }
+
+        int entry = entryCount++;
+        int offset = entry * MOTION_STRIDE;
+        entities[entry] = entity;
+        motion[offset] = yaw;
+        motion[offset + 1] = pitch;
+        motion[offset + 2] = velocityX;
+        motion[offset + 3] = velocityY;
+        motion[offset + 4] = velocityZ;
+        entryNext[entry] = NONE;
+        if (batchFirst[batch] == NONE) {
+            batchFirst[batch] = entry;
+        } else {
+            entryNext[batchLast[batch]] = entry;
+        }
+        batchLast[batch] = entry;
+        batchSizes[batch]++;
+    }
+
+    int batchCount() {
+        return batchCount;
+    }
+
+    boolean isEmpty() {
+        return batchCount == 0;
+    }
+
+    /**
+     * Copies a batch into a buffer from the pool, to be handed back with {@link #release} once
+     * the teleports have read it.
+     */
+    Batch take(int batch) {
+        Batch taken;
+        if (pooled == 0) {
+            taken = new Batch();
+        } else {
+            taken = pool[--pooled];
+            pool[pooled] = null;
+        }
+
+        int size = batchSizes[batch];
+        if (taken.entities.length < size) {
+            int capacity = Math.max(size, taken.entities.length * 2);
+            taken.entities = new Entity[capacity];
+            taken.motion = new double[capacity * MOTION_STRIDE];
+        }
+
+        taken.network = batchNetworks[batch];
+        taken.gatewayX = batchPositions[batch * 3];
+        taken.gatewayY = batchPositions[batch * 3 + 1];
+        taken.gatewayZ = batchPositions[batch * 3 + 2];
+        taken.size = size;
+        int index = 0;
+        for (int entry = batchFirst[batch]; entry != NONE; entry = entryNext[entry]) {
+            taken.entities[index] = entities[entry];
+            System.arraycopy(motion, entry * MOTION_STRIDE, taken.motion, index * MOTION_STRIDE, MOTION_STRIDE);
+            index++;
+        }
+        return taken;
+    }
+
+    /**
+     * Returns a buffer to the pool, letting go of its entities.
+     */
+    void release(Batch batch) {
+        for (int index = 0; index < batch.size; index++) {
+            batch.entities[index] = null;
+        }
+        batch.network = null;
+        batch.size = 0;
+        if (pooled == pool.length) {
+            Batch[] grown = new Batch[pool.length * 2];
+            System.arraycopy(pool, 0, grown, 0, pooled);
+            pool = grown;
+        }
+        pool[pooled++] = batch;
+    }
+
+    void clear() {
+        batchIndexes.clear();
+        for (int batch = 0; batch < batchCount; batch++) {
+            batchNetworks[batch] = null;
+        }
+        for (int entry = 0; entry < entryCount; entry++) {
+            entities[entry] = null;
+        }
+        batchCount = 0;
+        entryCount = 0;
+    }
+
+    private int findBatch(PortalNetwork network, int gatewayX, int gatewayY, int gatewayZ) {
+        long key = Loader.chunkKey(gatewayX >> 4, gatewayZ >> 4);
+        int first = batchIndexes.get(key, NONE);
+        for (int batch = first; batch != NONE; batch = batchNextWithKey[batch]) {
+            if (batchNetworks[batch] == network && batchPositions[batch * 3] == gatewayX
+                    && batchPositions[batch * 3 + 1] == gatewayY && batchPositions[batch * 3 + 2] == gatewayZ) {
+                return batch;
+            }
+        }
+
+        if (batchCount == batchNetworks.length) {
+            growBatches();
+        }
+        int batch = batchCount++;
+        batchNetworks[batch] = network;
+        batchPositions[batch * 3] = gatewayX;
+        batchPositions[batch * 3 + 1] = gatewayY;
+        batchPositions[batch * 3 + 2] = gatewayZ;
+        batchFirst[batch] = NONE;
+        batchLast[batch] = NONE;
+        batchSizes[batch] = 0;
+        batchNextWithKey[batch] = first;
+        batchIndexes.put(key, batch);
+        return batch;
+    }
+
+    private void growBatches() {
+        int capacity = batchNetworks.length * 2;
+        PortalNetwork[] grownNetworks = new PortalNetwork[capacity];
+        int[] grownPositions = new int[capacity * 3];
+        int[] grownFirst = new int[capacity];
+        int[] grownLast = new int[capacity];
+        int[] grownSizes = new int[capacity];
+        int[] grownNextWithKey = new int[capacity];
+        System.arraycopy(batchNetworks, 0, grownNetworks, 0, batchCount);
+        System.arraycopy(batchPositions, 0, grownPositions, 0, batchCount * 3);
+        System.arraycopy(batchFirst, 0, grownFirst, 0, batchCount);
+        System.arraycopy(batchLast, 0, grownLast, 0, batchCount);
+        System.arraycopy(batchSizes, 0, grownSizes, 0, batchCount);
+        System.arraycopy(batchNextWithKey, 0, grownNextWithKey, 0, batchCount);
+        batchNetworks = grownNetworks;
+        batchPositions = grownPositions;
+        batchFirst = grownFirst;
+        batchLast = grownLast;
+        batchSizes = grownSizes;
+        batchNextWithKey = grownNextWithKey;
+    }
+
+    private void growEntries() {
+        int capacity = entities.length * 2;
+        Entity[] grownEntities = new Entity[capacity];
+        double[] grownMotion = new double[capacity * MOTION_STRIDE];
+        int[] grownNext = new int[capacity];
+        System.arraycopy(entities, 0, grownEntities, 0, entryCount);
+        System.arraycopy(motion, 0, grownMotion, 0, entryCount * MOTION_STRIDE);
+        System.arraycopy(entryNext, 0, grownNext, 0, entryCount);
+        entities = grownEntities;
+        motion = grownMotion;
+        entryNext = grownNext;
+    }
+}
@@ -0,0 +1,133 @@
+package org.anarchadia.extendedportals;
+
+import io.papermc.paper.event.entity.EntityInsideBlockEvent;
+import io.papermc.paper.event.entity.EntityMoveEvent;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntitySpawnEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+
+/**
+ * Queues entities that touch a loaded network gateway, used by {@link GatewayTriggerMode#EVENT}.
+ *
+ * <p>Nothing is teleported from inside the events themselves; the entries are drained by the
+ * plugin's per-tick task, or on Folia by the entity's own scheduler a tick later, so entities are
+ * never moved in the middle of their own movement. Players and other living entities report their
+ * moves, which are swept for gateways along their path. Entities without move events, such as
+ * projectiles, primed TNT and items, become candidates of the gateway in the chunk they spawn in,
+ * and that task follows them until they leave it.</p>
+ */
+final class GatewayEntryListener implements Listener {
+
+    private final Loader plugin;
+
+    GatewayEntryListener(Loader plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityInsideBlock(EntityInsideBlockEvent event) {
+        Block block = event.getBlock();
+        if (block.getType() != Material.END_GATEWAY) {
+            return;
+        }
+
+        if (plugin.isLoadedGateway(block.getWorld(), block.getX(), block.getY(), block.getZ())) {
+            plugin.queueGatewayEntry(event.getEntity(), block.getWorld(), block.getX(), block.getY(), block.getZ(), false);
+        }
+    }
+
+    /**
+     * Checks the path of a player's move against the gateways it passes, so a player flying
+     * several blocks per tick cannot pass through a gateway without ending the move inside it.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        if (event.hasChangedBlock()) {
+            sweepMove(event.getPlayer(), event.getFrom(), event.getTo(), true);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityMove(EntityMoveEvent event) {
+        if (event.hasChangedBlock()) {
+            sweepMove(event.getEntity(), event.getFrom(), event.getTo(), false);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntitySpawn(EntitySpawnEvent event) {
+        Entity entity = event.getEntity();
+        if (!(entity instanceof LivingEntity)) {
+            plugin.trackGatewayCandidate(entity);
+        }
+    }
+
+    /**
+     * Checks a move against the gateway of every portal chunk it passes over. However long the
+     * move, only the layout's ring columns are visited, and in each only the chunks the path
+     * crosses. Only players pre-warm destinations.
+     */
+    private void sweepMove(Entity entity, Location from, Location to, boolean prewarm) {
+        PortalNetwork network = plugin.findNetwork(to.getWorld());
+        if (network == null) {
+            return;
+        }
+
+        if (from.getWorld() != to.getWorld()) {
+            from = to;
+        }
+        PortalLayout layout = network.getLayout();
+        double deltaX = to.getX() - from.getX();
+        double deltaZ = to.getZ() - from.getZ();
+        int maxChunkX = Math.max(from.getBlockX(), to.getBlockX()) >> 4;
+        for (int chunkX = layout.nextRingChunkX(Math.min(from.getBlockX(), to.getBlockX()) >> 4); chunkX <= maxChunkX; chunkX = layout.nextRingChunkX(chunkX + 1)) {
+            double first = 0.0D;
+            double last = 1.0D;
+            if (deltaX != 0.0D) {
+                double west = ((chunkX << 4) - from.getX()) / deltaX;
+                double east = ((chunkX << 4) + 16 - from.getX()) / deltaX;
+                first = Math.max(first, Math.min(west, east));
+                last = Math.min(last, Math.max(west, east));
+            }
+
+            double firstZ = from.getZ() + deltaZ * first;
+            double lastZ = from.getZ() + deltaZ * last;
+            int maxChunkZ = Location.locToBlock(Math.max(firstZ, lastZ)) >> 4;
+            for (int chunkZ = layout.nextRingChunkZ(Location.locToBlock(Math.min(firstZ, lastZ)) >> 4); chunkZ <= maxChunkZ; chunkZ = layout.nextRingChunkZ(chunkZ + 1)) {
+                if (sweepChunk(entity, from, to, chunkX, chunkZ, prewarm)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues the entity if the move crossed the chunk's gateway, or pre-warms its destination if
+     * asked to and the entity ended near it, and returns whether the entity was queued.
+     */
+    private boolean sweepChunk(Entity entity, Location from, Location to, int chunkX, int chunkZ, boolean prewarm) {
+        int gatewayY = plugin.findChunkGatewayY(to.getWorld(), chunkX, chunkZ);
+        if (gatewayY == GatewayTable.NO_GATEWAY) {
+            return false;
+        }
+
+        int gatewayX = PortalStructure.getPortalStart(chunkX) + PortalStructure.PORTAL_CENTER_OFFSET;
+        int gatewayZ = PortalStructure.getPortalStart(chunkZ) + PortalStructure.PORTAL_CENTER_OFFSET;
+        if (GatewayTrail.crosses(from.getX(), from.getY(), from.getZ(), to.getX(), to.getY(), to.getZ(), gatewayX, gatewayY, gatewayZ)) {
+            boolean passedThrough = !GatewayTrail.isInside(to.getX(), to.getY(), to.getZ(), gatewayX, gatewayY, gatewayZ);
+            plugin.queueGatewayEntry(entity, to.getWorld(), gatewayX, gatewayY, gatewayZ, passedThrough);
+            return true;
+        }
+        if (prewarm && plugin.getPrewarmRadius() > 0 && plugin.isWithinPrewarmRadius(to, gatewayX, gatewayY, gatewayZ)) {
+            plugin.prewarmDestination(to.getWorld(), gatewayX, gatewayZ);
+        }
+        return false;
+    }
+}
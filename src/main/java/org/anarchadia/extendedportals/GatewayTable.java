@@ -0,0 +1,138 @@
+package org.anarchadia.extendedportals;
+
+import java.util.Arrays;
+
+/**
+ * The loaded, verified gateways of one network's source world, keyed by chunk.
+ *
+ * <p>Gateway block positions are kept as dense {@code x, y, z} triples in one {@code int} array,
+ * indexed by a {@link LongIntMap} from chunk key to position index. Removal moves the last gateway
+ * into the hole, so the triples stay packed and polling walks them by index with no boxing,
+ * iterator or {@code Location}. No world is referenced; the network's bound source world is the
+ * only one the positions belong to. Each gateway also carries the {@link GatewayTrail} its poll
+ * uses. Methods lock the table because region threads on Folia activate and drop gateways
+ * concurrently.</p>
+ */
+final class GatewayTable {
+
+    static final int NO_GATEWAY = Integer.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final LongIntMap indexes = new LongIntMap();
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[] positions = new int[INITIAL_CAPACITY * 3];
+    private GatewayTrail[] trails = new GatewayTrail[INITIAL_CAPACITY];
+    private int size;
+
+    synchronized void put(long chunkKey, int x, int y, int z) {
+        int index = indexes.get(chunkKey, -1);
+        if (index < 0) {
+            if (size == keys.length) {
+                grow();
+            }
+            index = size++;
+            keys[index] = chunkKey;
+            trails[index] = new GatewayTrail();
+            indexes.put(chunkKey, index);
+        }
+
+        int offset = index * 3;
+        positions[offset] = x;
+        positions[offset + 1] = y;
+        positions[offset + 2] = z;
+    }
+
+    synchronized boolean remove(long chunkKey) {
+        int index = indexes.get(chunkKey, -1);
+        if (index < 0) {
+            return false;
+        }
+
+        indexes.remove(chunkKey);
+        int last = --size;
+        if (index != last) {
+            keys[index] = keys[last];
+            trails[index] = trails[last];
+            System.arraycopy(positions, last * 3, positions, index * 3, 3);
+            indexes.put(keys[index], index);
+        }
+        trails[last] = null;
+        return true;
+    }
+
+    synchronized boolean contains(long chunkKey) {
+        return indexes.containsKey(chunkKey);
+    }
+
+    /**
+     * Returns the gateway block height of a loaded portal chunk, or {@link #NO_GATEWAY}.
+     */
+    synchronized int getY(long chunkKey) {
+        int index = indexes.get(chunkKey, -1);
+        return index < 0 ? NO_GATEWAY : positions[index * 3 + 1];
+    }
+
+    /**
+     * Whether a loaded gateway sits at exactly this block.
+     */
+    synchronized boolean isGateway(int x, int y, int z) {
+        int index = indexes.get(Loader.chunkKey(x >> 4, z >> 4), -1);
+        if (index < 0) {
+            return false;
+        }
+
+        int offset = index * 3;
+        return positions[offset] == x && positions[offset + 1] == y && positions[offset + 2] == z;
+    }
+
+    synchronized void clear() {
+        indexes.clear();
+        Arrays.fill(trails, 0, size, null);
+        size = 0;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Position accessors by dense index, below {@link #size()}. A removal while walking moves the
+     * last gateway into the removed one's index, so a walk may skip or repeat that gateway once.
+     */
+    synchronized int xAt(int index) {
+        return positions[index * 3];
+    }
+
+    synchronized int yAt(int index) {
+        return positions[index * 3 + 1];
+    }
+
+    synchronized int zAt(int index) {
+        return positions[index * 3 + 2];
+    }
+
+    synchronized GatewayTrail trailAt(int index) {
+        return trails[index];
+    }
+
+    /**
+     * Returns the trail of a loaded portal chunk's gateway, or {@code null}.
+     */
+    synchronized GatewayTrail getTrail(long chunkKey) {
+        int index = indexes.get(chunkKey, -1);
+        return index < 0 ? null : trails[index];
+    }
+
+    private void grow() {
+        long[] grownKeys = new long[keys.length * 2];
+        int[] grownPositions = new int[positions.length * 2];
+        GatewayTrail[] grownTrails = new GatewayTrail[trails.length * 2];
+        System.arraycopy(keys, 0, grownKeys, 0, size);
+        System.arraycopy(positions, 0, grownPositions, 0, size * 3);
+        System.arraycopy(trails, 0, grownTrails, 0, size);
+        keys = grownKeys;
+        positions = grownPositions;
+        trails = grownTrails;
+    }
+}
@@ -0,0 +1,190 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+
+/**
+ * Where the entities around one polled gateway were on the previous poll, so a fast entity that
+ * went through the gateway block between two polls is still caught.
+ *
+ * <p>Positions are kept as dense {@code x, y, z} triples indexed by entity id through a
+ * {@link LongIntMap}. An entity stays in the trail only while the poll keeps seeing it near the
+ * gateway: after each poll the entities that were not seen are handed to the caller once, to test
+ * where they went, and dropped, so removed and departed entities never outlive a poll. In event
+ * mode the trail instead holds the gateway's candidates, the entities without move events that
+ * spawned in its chunk. A trail is only touched by the thread that owns its gateway's chunk.</p>
+ */
+final class GatewayTrail {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final LongIntMap indexes = new LongIntMap();
+    private final Location scratch = new Location(null, 0.0D, 0.0D, 0.0D);
+    private Entity[] entities = new Entity[INITIAL_CAPACITY];
+    private double[] positions = new double[INITIAL_CAPACITY * 3];
+    private boolean[] seen = new boolean[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Location reused to read entity positions without allocating.
+     */
+    Location getScratch() {
+        return scratch;
+    }
+
+    /**
+     * Starts a poll: every entity is unseen until {@link #track} sees it again.
+     */
+    void beginPoll() {
+        for (int index = 0; index < size; index++) {
+            seen[index] = false;
+        }
+    }
+
+    /**
+     * Records an entity seen near the gateway and returns whether it is inside the gateway block or
+     * went through it since the previous poll.
+     */
+    boolean track(Entity entity, double x, double y, double z, int gatewayX, int gatewayY, int gatewayZ) {
+        long id = entity.getEntityId();
+        int index = indexes.get(id, -1);
+        boolean crossed;
+        if (index < 0) {
+            if (size == entities.length) {
+                grow();
+            }
+            index = size++;
+            indexes.put(id, index);
+            crossed = isInside(x, y, z, gatewayX, gatewayY, gatewayZ);
+        } else {
+            int offset = index * 3;
+            crossed = crosses(positions[offset], positions[offset + 1], positions[offset + 2], x, y, z, gatewayX, gatewayY, gatewayZ);
+        }
+
+        int offset = index * 3;
+        entities[index] = entity;
+        positions[offset] = x;
+        positions[offset + 1] = y;
+        positions[offset + 2] = z;
+        seen[index] = true;
+        return crossed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isSeen(int index) {
+        return seen[index];
+    }
+
+    Entity entityAt(int index) {
+        return entities[index];
+    }
+
+    double xAt(int index) {
+        return positions[index * 3];
+    }
+
+    double yAt(int index) {
+        return positions[index * 3 + 1];
+    }
+
+    double zAt(int index) {
+        return positions[index * 3 + 2];
+    }
+
+    /**
+     * Records where a tracked entity is now, for the next crossing test.
+     */
+    void moveTo(int index, double x, double y, double z) {
+        int offset = index * 3;
+        positions[offset] = x;
+        positions[offset + 1] = y;
+        positions[offset + 2] = z;
+    }
+
+    /**
+     * Drops an entity, moving the last one into its index. Walk downwards when removing while
+     * iterating.
+     */
+    void removeAt(int index) {
+        indexes.remove(entities[index].getEntityId());
+        int last = --size;
+        if (index != last) {
+            entities[index] = entities[last];
+            seen[index] = seen[last];
+            System.arraycopy(positions, last * 3, positions, index * 3, 3);
+            indexes.put(entities[index].getEntityId(), index);
+        }
+        entities[last] = null;
+    }
+
+    void clear() {
+        indexes.clear();
+        for (int index = 0; index < size; index++) {
+            entities[index] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Whether a position lies in the gateway block, the test a slow entity has always had to pass.
+     */
+    static boolean isInside(double x, double y, double z, int gatewayX, int gatewayY, int gatewayZ) {
+        return floor(x) == gatewayX && floor(y) == gatewayY && floor(z) == gatewayZ;
+    }
+
+    /**
+     * Whether the straight path between two positions touches the gateway block: the slab test,
+     * narrowing the part of the path inside the block one axis at a time.
+     */
+    static boolean crosses(double fromX, double fromY, double fromZ, double toX, double toY, double toZ,
+                           int gatewayX, int gatewayY, int gatewayZ) {
+        if (isInside(toX, toY, toZ, gatewayX, gatewayY, gatewayZ)) {
+            return true;
+        }
+
+        double deltaX = toX - fromX;
+        double deltaY = toY - fromY;
+        double deltaZ = toZ - fromZ;
+        double enter = Math.max(Math.max(slabEnter(fromX, deltaX, gatewayX), slabEnter(fromY, deltaY, gatewayY)), Math.max(slabEnter(fromZ, deltaZ, gatewayZ), 0.0D));
+        double exit = Math.min(Math.min(slabExit(fromX, deltaX, gatewayX), slabExit(fromY, deltaY, gatewayY)), Math.min(slabExit(fromZ, deltaZ, gatewayZ), 1.0D));
+        return enter < exit;
+    }
+
+    /**
+     * Fraction of the path at which it enters the block's slab on one axis. A path parallel to the
+     * slab is inside it everywhere or nowhere.
+     */
+    private static double slabEnter(double start, double delta, int blockMin) {
+        if (delta == 0.0D) {
+            return start >= blockMin && start < blockMin + 1.0D ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        return Math.min((blockMin - start) / delta, (blockMin + 1.0D - start) / delta);
+    }
+
+    private static double slabExit(double start, double delta, int blockMin) {
+        if (delta == 0.0D) {
+            return start >= blockMin && start < blockMin + 1.0D ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+        }
+        return Math.max((blockMin - start) / delta, (blockMin + 1.0D - start) / delta);
+    }
+
+    private static int floor(double value) {
+        int truncated = (int) value;
+        return value < truncated ? truncated - 1 : truncated;
+    }
+
+    private void grow() {
+        Entity[] grownEntities = new Entity[entities.length * 2];
+        double[] grownPositions = new double[positions.length * 2];
+        boolean[] grownSeen = new boolean[seen.length * 2];
+        System.arraycopy(entities, 0, grownEntities, 0, size);
+        System.arraycopy(positions, 0, grownPositions, 0, size * 3);
+        System.arraycopy(seen, 0, grownSeen, 0, size);
+        entities = grownEntities;
+        positions = grownPositions;
+        seen = grownSeen;
+    }
+}
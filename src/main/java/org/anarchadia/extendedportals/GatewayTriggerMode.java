@@ -0,0 +1,40 @@
+package org.anarchadia.extendedportals;
+
+import java.util.Locale;
+
+/**
+ * Strategies for noticing entities that step into a loaded network gateway.
+ */
+enum GatewayTriggerMode {
+
+    /**
+     * Entities are queued by block-collision and movement events and handled on the next tick.
+     * Entities without movement events are followed from their spawn in a gateway's chunk.
+     */
+    EVENT,
+
+    /**
+     * Each loaded gateway queries the entities within a few blocks of its block once per tick.
+     */
+    BOUNDING_BOX,
+
+    /**
+     * Each loaded gateway checks every entity in its chunk once per tick.
+     */
+    POLL;
+
+    static GatewayTriggerMode fromConfig(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        String normalized = value.trim().toUpperCase(Locale.ROOT).replace('-', '_');
+        for (GatewayTriggerMode mode : values()) {
+            if (mode.name().equals(normalized)) {
+                return mode;
+            }
+        }
+
+        return null;
+    }
+}
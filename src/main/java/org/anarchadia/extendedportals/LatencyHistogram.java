@@ -0,0 +1,95 @@
+package org.anarchadia.extendedportals;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket latency histogram with power-of-two nanosecond buckets.
+ *
+ * <p>Bucket {@code i} counts samples below {@code 2^i} ns that did not fit a lower bucket; the last
+ * bucket takes everything above. Recording is a bit scan and two striped counter increments, so it
+ * is safe from any thread and does not allocate once the counters have warmed up.</p>
+ */
+final class LatencyHistogram {
+
+    static final int BUCKET_COUNT = 40;
+
+    private final String name;
+    private final String description;
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder totalNanos = new LongAdder();
+
+    LatencyHistogram(String name, String description) {
+        this.name = name;
+        this.description = description;
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            buckets[index] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        long sample = Math.max(0L, nanos);
+        buckets[Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(sample))].increment();
+        totalNanos.add(sample);
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, a value taken from {@link System#nanoTime()}.
+     */
+    void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    /**
+     * Copies the bucket counts; concurrent recordings may or may not be included.
+     */
+    long[] snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            counts[index] = buckets[index].sum();
+        }
+        return counts;
+    }
+
+    long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * Upper bound, in nanoseconds, of the samples counted in a bucket.
+     */
+    static long upperBoundNanos(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * Estimates a quantile from bucket counts as the upper bound of the bucket it falls in.
+     */
+    static long quantileNanos(long[] counts, double quantile) {
+        long total = 0L;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0L;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return upperBoundNanos(bucket);
+            }
+        }
+
+        return upperBoundNanos(counts.length - 1);
+    }
+}
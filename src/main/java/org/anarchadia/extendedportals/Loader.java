@@ -2,523 +2,2009 @@ package org.anarchadia.extendedportals;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.HeightMap;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
-import org.bukkit.block.Block;
-import org.bukkit.block.BlockFace;
-import org.bukkit.block.data.Directional;
-import org.bukkit.block.data.type.EndPortalFrame;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerTeleportEvent;
 import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.util.BoundingBox;
 import org.bukkit.util.Vector;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+import static org.anarchadia.extendedportals.PortalStructure.GATEWAY_Y_OFFSET;
+import static org.anarchadia.extendedportals.PortalStructure.PORTAL_CENTER_OFFSET;
 
 /**
- * Generates and maintains the fixed overworld portal network.
+ * Generates and maintains the configured portal networks.
  */
 public final class Loader extends JavaPlugin implements Listener {
 
-    private static final String OVERWORLD_NAME = "world";
-    private static final String END_WORLD_NAME = "world_the_end";
-    private static final int PORTAL_SIZE = 5;
-    private static final int PORTAL_OFFSET_IN_CHUNK = 7;
-    private static final int PORTAL_CENTER_OFFSET = PORTAL_SIZE / 2;
-    private static final int PORTAL_CLEARANCE_HEIGHT = 3;
-    private static final int GATEWAY_Y_OFFSET = 10;
-    private static final int GATEWAY_SHELL_OFFSET = 2;
-    private static final int END_PLATFORM_RADIUS = 2;
-    private static final int END_CLEARANCE_HEIGHT = 4;
+    private static final String DEFAULT_NETWORK_NAME = "overworld";
+    private static final String DEFAULT_SOURCE_WORLD = "world";
+    private static final String DEFAULT_DESTINATION_WORLD = "world_the_end";
+    private static final String NETWORKS_DIRECTORY = "networks";
+    private static final int ARRIVAL_PLATFORM_RADIUS = 2;
+    private static final int ARRIVAL_CLEARANCE_HEIGHT = 4;
+    private static final int ARRIVAL_EDIT_CAPACITY = (2 * ARRIVAL_PLATFORM_RADIUS + 1) * (2 * ARRIVAL_PLATFORM_RADIUS + 1) * (ARRIVAL_CLEARANCE_HEIGHT + 1);
+    private static final int REGION_COOLDOWN_STRIPES = 16;
+    private static final int RETURN_GATEWAY_OFFSET = ARRIVAL_PLATFORM_RADIUS;
     private static final double MAX_TELEPORT_VELOCITY = 200.0D;
-    private static final long TELEPORT_COOLDOWN_MS = 1500L;
-
-    private final Set<Integer> portalChunks = Collections.unmodifiableSet(new HashSet<Integer>(Arrays.asList(
-            156,     // Coordinates: 2500
-            312,     // Coordinates: 5000
-            625,     // Coordinates: 10000
-            1250,    // Coordinates: 20000
-            1875,    // Coordinates: 30000
-            3125,    // Coordinates: 50000
-            6250,    // Coordinates: 100000
-            12500,   // Coordinates: 200000
-            31250,   // Coordinates: 500000
-            62500,   // Coordinates: 1000000
-            125000,  // Coordinates: 2000000
-            250000,  // Coordinates: 4000000
-            312500,  // Coordinates: 5000000
-            625000,  // Coordinates: 10000000
-            937500,  // Coordinates: 15000000
-            1250000, // Coordinates: 20000000
-            1562500, // Coordinates: 25000000
-            1812500, // Coordinates: 29000000
-            1843750, // Coordinates: 29500000
-            1874995  // Coordinates: 29999920
-    )));
-    private final Map<Long, Location> loadedPortalGateways = new HashMap<Long, Location>();
-    private final Map<UUID, Long> teleportCooldowns = new HashMap<UUID, Long>();
-
-    private long nextCooldownCleanupAt;
-    private boolean warnedAboutMissingEndWorld;
+    private static final int BOUNDING_BOX_SWEEP_RADIUS = 8;
+    private static final long PREWARM_HOLD_MS = 10000L;
+    private static final long PREWARM_SWEEP_INTERVAL_MS = 1000L;
+    private static final long REGISTRY_SAVE_INTERVAL_TICKS = 20L * 60L * 5L;
+    private static final String LEGACY_REGISTRY_FILE_NAME = "portals.dat";
+    private static final String LEGACY_PLATFORM_CACHE_FILE_NAME = "platforms.dat";
+    private static final String METRICS_PROMETHEUS_FILE_NAME = "metrics.prom";
+    private static final String METRICS_JSON_FILE_NAME = "metrics.json";
+    private static final String JOURNAL_DIRECTORY = "journal";
+    private static final long JOURNAL_FLUSH_INTERVAL_TICKS = 20L;
+    private static final int QUEUED_ENTRY_STRIDE = 4;
+    private static final Pattern NETWORK_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+    /**
+     * Replaced, never modified: read from every region thread on Folia, swapped by a reload.
+     */
+    private volatile List<PortalNetwork> networks = Collections.emptyList();
+    private final MaintenanceQueue maintenanceQueue = new MaintenanceQueue();
+    private final PortalMetrics metrics = new PortalMetrics();
+    private final List<Entity> queuedGatewayEntrants = new ArrayList<Entity>();
+    private final List<PortalNetwork> queuedGatewayNetworks = new ArrayList<PortalNetwork>();
+    private int[] queuedGatewayPositions = new int[16 * QUEUED_ENTRY_STRIDE];
+    private final GatewayCrossings gatewayCrossings = new GatewayCrossings();
+    private final VelocityRestoreQueue velocityRestores = new VelocityRestoreQueue();
+    private final BlockEditPlan arrivalEdits = new BlockEditPlan(ARRIVAL_EDIT_CAPACITY);
+    /**
+     * Copied on write: networks added or removed by a reload bring their arrival platform caches.
+     */
+    private final List<BlockChangeWatcher> blockChangeWatchers = new CopyOnWriteArrayList<BlockChangeWatcher>();
+
+    /**
+     * Copied on write: read from every region thread on Folia, replaced only when worlds load and unload.
+     */
+    private volatile Map<World, PortalNetwork> networksBySource = Collections.emptyMap();
+    private PortalScheduler scheduler;
+    /**
+     * Replaced when a configuration reload changes the cooldown.
+     */
+    private volatile StripedTeleportCooldowns teleportCooldowns;
+    private PortalBlocks portalBlocks;
+    private GatewayTriggerMode triggerMode;
+    private int prewarmRadius;
+    private int residencyCapacity;
+    private long residencyIdleMillis;
+    private boolean returnGateways;
+    private long maintenanceBudgetNanos;
+    private long metricsIntervalTicks;
+    private PortalTask metricsTask;
+    private volatile TeleportJournal journal;
+    private PortalTask journalTask;
+    private boolean journalEnabled;
+    private int journalBufferEntries;
+    private long journalMaxFileBytes;
+    private long journalRotateMillis;
+    private int journalKeepFiles;
+    private long teleportCooldownMillis;
+    private int auditConcurrency;
+    private double auditMaxMspt;
+    private long nextPrewarmSweepAt;
 
     @Override
     public void onEnable() {
+        saveDefaultConfig();
+        loadSettings();
+        networks = Collections.unmodifiableList(readNetworks());
+
+        scheduler = PortalScheduler.create(this);
+        teleportCooldowns = createTeleportCooldowns();
+        if (scheduler.isRegionThreaded()) {
+            getLogger().info("Running on a region-threaded server; portal work runs on the region owning each chunk.");
+        }
+
+        portalBlocks = new PortalBlocks();
+        if (!networks.isEmpty()) {
+            adoptLegacyStateFiles(networks.get(0));
+        }
+
+        blockChangeWatchers.clear();
+        for (PortalNetwork network : networks) {
+            loadNetworkState(network);
+            blockChangeWatchers.add(network.getArrivalPlatforms());
+        }
+        blockChangeWatchers.add(new PortalIntegrityWatcher(this, portalBlocks));
+
         getServer().getPluginManager().registerEvents(this, this);
-        trackLoadedPortalChunks();
-        getServer().getScheduler().runTaskTimer(this, new Runnable() {
+        getServer().getPluginManager().registerEvents(new BlockChangeListener(blockChangeWatchers), this);
+        if (triggerMode == GatewayTriggerMode.EVENT) {
+            getServer().getPluginManager().registerEvents(new GatewayEntryListener(this), this);
+        }
+        if (returnGateways) {
+            getServer().getPluginManager().registerEvents(new ReturnGatewayListener(this), this);
+        }
+
+        PluginCommand command = getCommand("extendedportals");
+        if (command != null) {
+            PortalCommand executor = new PortalCommand(this);
+            command.setExecutor(executor);
+            command.setTabCompleter(executor);
+        }
+
+        for (World world : Bukkit.getWorlds()) {
+            bindWorld(world);
+        }
+
+        scheduler.runTimer(new Runnable() {
             @Override
             public void run() {
+                long now = System.currentTimeMillis();
+                teleportCooldowns.expire(now);
+                releaseExpiredPrewarms(now);
+                advanceAudits();
+                if (scheduler.isRegionThreaded()) {
+                    return;
+                }
+
+                maintenanceQueue.runWithinBudget(maintenanceBudgetNanos);
+                velocityRestores.drain(getServer().getCurrentTick());
+                long startedAt = System.nanoTime();
                 pollLoadedPortalGateways();
+                metrics.poll.recordSince(startedAt);
+                flushGatewayCrossings();
             }
         }, 1L, 1L);
+        scheduler.runTimer(new Runnable() {
+            @Override
+            public void run() {
+                saveStateAsync();
+            }
+        }, REGISTRY_SAVE_INTERVAL_TICKS, REGISTRY_SAVE_INTERVAL_TICKS);
 
-        if (Bukkit.getWorld(END_WORLD_NAME) == null) {
-            warnMissingEndWorld();
+        scheduleMetrics();
+        openJournal();
+
+        for (PortalNetwork network : networks) {
+            if (network.getDestination() == null) {
+                warnMissingDestination(network);
+            }
         }
     }
 
     @Override
     public void onDisable() {
-        loadedPortalGateways.clear();
-        teleportCooldowns.clear();
+        for (PortalNetwork network : networks) {
+            saveNetworkState(network);
+            releaseNetwork(network);
+        }
+
+        networksBySource = Collections.emptyMap();
+        metricsTask = null;
+        closeJournal();
+        maintenanceQueue.clear();
+        if (teleportCooldowns != null) {
+            teleportCooldowns.clear();
+        }
+        queuedGatewayEntrants.clear();
+        queuedGatewayNetworks.clear();
+        gatewayCrossings.clear();
+        velocityRestores.clear();
+    }
+
+    private void loadNetworkState(PortalNetwork network) {
+        try {
+            network.getRegistry().load();
+        } catch (IOException exception) {
+            getLogger().log(Level.WARNING, "Could not read the portal registry of network '" + network.getName() + "'; portals will be located by scanning until it is rebuilt.", exception);
+        }
+
+        try {
+            network.getArrivalPlatforms().load();
+        } catch (IOException exception) {
+            getLogger().log(Level.WARNING, "Could not read the arrival platform cache of network '" + network.getName() + "'; platforms will be re-checked on their next arrival.", exception);
+        }
+
+        try {
+            network.getAudit().load();
+        } catch (IOException exception) {
+            getLogger().log(Level.WARNING, "Could not read the audit progress of network '" + network.getName() + "'; a new audit will start from the first site.", exception);
+        }
+
+        if (network.getAudit().isRunning()) {
+            getLogger().info("Resuming the portal audit of network '" + network.getName() + "'.");
+            network.getAudit().start(System.currentTimeMillis());
+        }
+    }
+
+    private void saveNetworkState(PortalNetwork network) {
+        if (network.getRegistry().isDirty()) {
+            try {
+                network.getRegistry().save();
+            } catch (IOException exception) {
+                getLogger().log(Level.WARNING, "Could not save the portal registry of network '" + network.getName() + "'.", exception);
+            }
+        }
+
+        if (network.getArrivalPlatforms().isDirty()) {
+            try {
+                network.getArrivalPlatforms().save();
+            } catch (IOException exception) {
+                getLogger().log(Level.WARNING, "Could not save the arrival platform cache of network '" + network.getName() + "'.", exception);
+            }
+        }
+
+        if (network.getAudit().isDirty()) {
+            try {
+                network.getAudit().save();
+            } catch (IOException exception) {
+                getLogger().log(Level.WARNING, "Could not save the audit progress of network '" + network.getName() + "'.", exception);
+            }
+        }
+    }
+
+    /**
+     * Drops the network's chunk tickets and forgets its worlds.
+     */
+    private void releaseNetwork(PortalNetwork network) {
+        if (network.getSource() != null) {
+            network.getSource().removePluginChunkTickets(this);
+        }
+        if (network.getDestination() != null) {
+            network.getDestination().removePluginChunkTickets(this);
+        }
+        network.unbindSource();
+        network.unbindDestination();
+    }
+
+    private StripedTeleportCooldowns createTeleportCooldowns() {
+        return new StripedTeleportCooldowns(teleportCooldownMillis, scheduler.isRegionThreaded() ? REGION_COOLDOWN_STRIPES : 1);
+    }
+
+    private void scheduleMetrics() {
+        if (metricsTask != null) {
+            metricsTask.cancel();
+            metricsTask = null;
+        }
+
+        if (metricsIntervalTicks > 0L) {
+            metricsTask = scheduler.runAsyncTimer(new Runnable() {
+                @Override
+                public void run() {
+                    writeMetrics();
+                }
+            }, metricsIntervalTicks, metricsIntervalTicks);
+        }
+    }
+
+    /**
+     * Starts the teleport journal and its background writer, if it is enabled.
+     */
+    private void openJournal() {
+        if (!journalEnabled) {
+            return;
+        }
+
+        journal = new TeleportJournal(new File(getDataFolder(), JOURNAL_DIRECTORY), journalBufferEntries,
+                journalMaxFileBytes, journalRotateMillis, journalKeepFiles, metrics);
+        journalTask = scheduler.runAsyncTimer(new Runnable() {
+            @Override
+            public void run() {
+                flushJournal();
+            }
+        }, JOURNAL_FLUSH_INTERVAL_TICKS, JOURNAL_FLUSH_INTERVAL_TICKS);
+    }
+
+    /**
+     * Stops the journal writer and writes out whatever is still buffered.
+     */
+    private void closeJournal() {
+        if (journalTask != null) {
+            journalTask.cancel();
+            journalTask = null;
+        }
+
+        TeleportJournal current = journal;
+        journal = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException exception) {
+                getLogger().log(Level.WARNING, "Could not write the last teleport journal entries.", exception);
+            }
+        }
+    }
+
+    private void flushJournal() {
+        TeleportJournal current = journal;
+        if (current == null) {
+            return;
+        }
+
+        try {
+            current.flush(System.currentTimeMillis());
+        } catch (IOException exception) {
+            getLogger().log(Level.WARNING, "Could not write the teleport journal.", exception);
+        }
+    }
+
+    private String describeJournalSettings() {
+        return journalEnabled + "/" + journalBufferEntries + "/" + journalMaxFileBytes + "/" + journalRotateMillis + "/" + journalKeepFiles;
+    }
+
+    private void loadSettings() {
+        String configuredMode = getConfig().getString("gateway-trigger-mode", "event");
+        triggerMode = GatewayTriggerMode.fromConfig(configuredMode);
+        if (triggerMode == null) {
+            getLogger().warning("Unknown gateway-trigger-mode '" + configuredMode + "'; falling back to event.");
+            triggerMode = GatewayTriggerMode.EVENT;
+        }
+
+        prewarmRadius = Math.max(0, getConfig().getInt("prewarm-radius", 4));
+        residencyCapacity = Math.max(0, getConfig().getInt("destination-residency.capacity", 64));
+        residencyIdleMillis = Math.max(0L, getConfig().getLong("destination-residency.idle-seconds", 300L)) * 1000L;
+        returnGateways = getConfig().getBoolean("return-gateways", true);
+        metricsIntervalTicks = Math.max(0L, getConfig().getLong("metrics-interval-seconds", 60L)) * 20L;
+        teleportCooldownMillis = Math.max(0L, getConfig().getLong("teleport-cooldown-ms", 1500L));
+        maintenanceBudgetNanos = (long) (Math.max(0.0D, getConfig().getDouble("maintenance-budget-ms", 1.0D)) * 1000000.0D);
+        auditConcurrency = Math.max(1, getConfig().getInt("audit.max-concurrent-chunks", 4));
+        auditMaxMspt = getConfig().getDouble("audit.max-mspt", 40.0D);
+        journalEnabled = getConfig().getBoolean("journal.enabled", true);
+        journalBufferEntries = Math.max(16, getConfig().getInt("journal.buffer-entries", 8192));
+        journalMaxFileBytes = Math.max(1L, getConfig().getLong("journal.max-file-mb", 64L)) * 1024L * 1024L;
+        journalRotateMillis = (long) (Math.max(0.0D, getConfig().getDouble("journal.rotate-hours", 24.0D)) * 3600000.0D);
+        journalKeepFiles = Math.max(0, getConfig().getInt("journal.keep-files", 30));
+    }
+
+    /**
+     * Builds the configured networks. They are not bound to worlds and their state is not loaded.
+     */
+    private List<PortalNetwork> readNetworks() {
+        List<PortalNetwork> configured = new ArrayList<PortalNetwork>();
+        PortalLayout defaultLayout = PortalLayout.fromConfig(getConfig().getConfigurationSection("layout"), getLogger());
+        ConfigurationSection networksSection = getConfig().getConfigurationSection("networks");
+        if (networksSection == null) {
+            addNetwork(configured, DEFAULT_NETWORK_NAME, DEFAULT_SOURCE_WORLD, DEFAULT_DESTINATION_WORLD, defaultLayout);
+            return configured;
+        }
+
+        for (String name : networksSection.getKeys(false)) {
+            ConfigurationSection section = networksSection.getConfigurationSection(name);
+            if (section == null || !NETWORK_NAME.matcher(name).matches()) {
+                getLogger().warning("Skipping network '" + name + "': names may only use letters, digits, '-' and '_'.");
+                continue;
+            }
+
+            String sourceWorld = section.getString("source-world");
+            String destinationWorld = section.getString("destination-world");
+            if (sourceWorld == null || destinationWorld == null || sourceWorld.equalsIgnoreCase(destinationWorld)) {
+                getLogger().warning("Skipping network '" + name + "': it needs distinct source-world and destination-world names.");
+                continue;
+            }
+
+            PortalLayout layout = section.isConfigurationSection("layout")
+                    ? PortalLayout.fromConfig(section.getConfigurationSection("layout"), getLogger())
+                    : defaultLayout;
+            addNetwork(configured, name, sourceWorld, destinationWorld, layout);
+        }
+
+        if (configured.isEmpty()) {
+            getLogger().warning("No valid portal networks are configured; no portals will be generated.");
+        }
+        return configured;
+    }
+
+    private void addNetwork(List<PortalNetwork> configured, String name, String sourceWorld, String destinationWorld, PortalLayout layout) {
+        for (PortalNetwork network : configured) {
+            if (network.isSourceWorldName(sourceWorld)) {
+                getLogger().warning("Skipping network '" + name + "': world '" + sourceWorld + "' is already the source of network '" + network.getName() + "'.");
+                return;
+            }
+        }
+
+        if (layout.getRingCount() == 0) {
+            getLogger().warning("The layout of network '" + name + "' has no rings; no portals will be generated in '" + sourceWorld + "'.");
+        }
+
+        File directory = new File(new File(getDataFolder(), NETWORKS_DIRECTORY), name);
+        PortalNetwork network = new PortalNetwork(name, sourceWorld, destinationWorld, layout, directory, ARRIVAL_PLATFORM_RADIUS, ARRIVAL_CLEARANCE_HEIGHT, returnGateways);
+        network.setResidency(createResidency(network));
+        configured.add(network);
+    }
+
+    /**
+     * Creates a network's destination residency from the current settings. Chunks leaving it lose
+     * their ticket unless a pre-warm still holds them.
+     */
+    private DestinationResidency createResidency(final PortalNetwork network) {
+        return new DestinationResidency(residencyCapacity, residencyIdleMillis, new DestinationResidency.Release() {
+            @Override
+            public void release(long chunkKey) {
+                metrics.residencyReleases.increment();
+                World destinationWorld = network.getDestination();
+                if (destinationWorld != null) {
+                    releaseDestinationTicket(network, destinationWorld, chunkKey);
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves the state files of the single-network layout into the directory of the first network.
+     */
+    private void adoptLegacyStateFiles(PortalNetwork network) {
+        File directory = new File(new File(getDataFolder(), NETWORKS_DIRECTORY), network.getName());
+        String[] names = {LEGACY_REGISTRY_FILE_NAME, LEGACY_PLATFORM_CACHE_FILE_NAME};
+        for (String fileName : names) {
+            File legacy = new File(getDataFolder(), fileName);
+            File target = new File(directory, fileName);
+            if (!legacy.isFile() || target.exists()) {
+                continue;
+            }
+
+            if (directory.isDirectory() || directory.mkdirs()) {
+                if (legacy.renameTo(target)) {
+                    getLogger().info("Moved " + fileName + " into network '" + network.getName() + "'.");
+                    continue;
+                }
+            }
+            getLogger().warning("Could not move " + legacy + " to " + target + ".");
+        }
+    }
+
+    /**
+     * Binds a world to the networks that name it, so later lookups are by identity.
+     */
+    private void bindWorld(World world) {
+        for (PortalNetwork network : networks) {
+            if (network.getSource() == null && network.isSourceWorldName(world.getName())) {
+                network.bindSource(world);
+                Map<World, PortalNetwork> updated = new IdentityHashMap<World, PortalNetwork>(networksBySource);
+                updated.put(world, network);
+                networksBySource = updated;
+                trackLoadedPortalChunks(network);
+            }
+
+            if (network.getDestination() == null && network.isDestinationWorldName(world.getName())) {
+                network.bindDestination(world);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        bindWorld(event.getWorld());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        World world = event.getWorld();
+        for (PortalNetwork network : networks) {
+            if (network.getSource() == world) {
+                maintenanceQueue.cancelWorld(world);
+                Map<World, PortalNetwork> updated = new IdentityHashMap<World, PortalNetwork>(networksBySource);
+                updated.remove(world);
+                networksBySource = updated;
+                network.unbindSource();
+            }
+
+            if (network.getDestination() == world) {
+                world.removePluginChunkTickets(this);
+                network.unbindDestination();
+            }
+        }
     }
 
     @EventHandler(priority = EventPriority.LOW)
     public void onChunkLoad(ChunkLoadEvent event) {
-        if (!isManagedOverworld(event.getWorld())) {
+        PortalNetwork network = networksBySource.get(event.getWorld());
+        if (network == null) {
             return;
         }
 
         Chunk chunk = event.getChunk();
-        if (!isPortalChunk(chunk.getX(), chunk.getZ())) {
+        if (!network.isPortalChunk(chunk.getX(), chunk.getZ())) {
             return;
         }
 
-        loadedPortalGateways.put(Long.valueOf(chunkKey(chunk.getX(), chunk.getZ())), ensurePortal(chunk));
+        schedulePortalVerification(network, chunk.getWorld(), chunk.getX(), chunk.getZ());
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
     public void onChunkUnload(ChunkUnloadEvent event) {
-        loadedPortalGateways.remove(Long.valueOf(chunkKey(event.getChunk().getX(), event.getChunk().getZ())));
+        World world = event.getWorld();
+        PortalNetwork network = networksBySource.get(world);
+        if (network == null) {
+            return;
+        }
+
+        Chunk chunk = event.getChunk();
+        untrackPortalChunk(network, world, chunk.getX(), chunk.getZ());
     }
 
-    private void trackLoadedPortalChunks() {
-        for (World world : Bukkit.getWorlds()) {
-            if (!isManagedOverworld(world)) {
+    /**
+     * Drops the gateway and any pending work of a portal chunk that is going away.
+     */
+    private void untrackPortalChunk(PortalNetwork network, World world, int chunkX, int chunkZ) {
+        long key = chunkKey(chunkX, chunkZ);
+        network.getLoadedGateways().remove(key);
+        network.getPendingVerifications().remove(Long.valueOf(key));
+        network.getPendingPatches().remove(Long.valueOf(key));
+        network.cancelGatewayTask(key);
+        if (world != null && !scheduler.isRegionThreaded()) {
+            maintenanceQueue.cancel(world, chunkX, chunkZ);
+        }
+    }
+
+    /**
+     * Picks up the portal chunks that were already loaded when a source world was bound, such as
+     * after a plugin reload. Only the layout's sites are probed, not every loaded chunk.
+     */
+    private void trackLoadedPortalChunks(PortalNetwork network) {
+        World world = network.getSource();
+        PortalLayout layout = network.getLayout();
+        for (long slot = 0L; slot < layout.getSiteSlotCount(); slot++) {
+            if (!layout.isSiteSlot(slot)) {
                 continue;
             }
 
-            for (Chunk chunk : world.getLoadedChunks()) {
-                if (!isPortalChunk(chunk.getX(), chunk.getZ())) {
-                    continue;
+            int chunkX = layout.getSiteChunkX(slot);
+            int chunkZ = layout.getSiteChunkZ(slot);
+            if (world.isChunkLoaded(chunkX, chunkZ)) {
+                resumeLoadedPortal(network, world, chunkX, chunkZ);
+            }
+        }
+    }
+
+    /**
+     * Brings a registered portal back into service right away if its gateway block is still there,
+     * then queues the usual verification, which repairs anything that changed while the plugin was
+     * not watching.
+     */
+    private void resumeLoadedPortal(final PortalNetwork network, final World world, final int chunkX, final int chunkZ) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                    return;
                 }
 
-                loadedPortalGateways.put(Long.valueOf(chunkKey(chunk.getX(), chunk.getZ())), ensurePortal(chunk));
+                int baseY = network.getRegistry().getBaseY(chunkKey(chunkX, chunkZ));
+                if (baseY != PortalRegistry.NO_ENTRY) {
+                    int gatewayX = getPortalStart(chunkX) + PORTAL_CENTER_OFFSET;
+                    int gatewayZ = getPortalStart(chunkZ) + PORTAL_CENTER_OFFSET;
+                    metrics.blockReads.increment();
+                    if (world.getBlockAt(gatewayX, baseY + GATEWAY_Y_OFFSET, gatewayZ).getType() == Material.END_GATEWAY) {
+                        activateGateway(network, world, chunkX, chunkZ, baseY);
+                    }
+                }
+                schedulePortalVerification(network, world, chunkX, chunkZ);
             }
+        };
+
+        if (scheduler.isRegionThreaded()) {
+            scheduler.runAtChunk(world, chunkX, chunkZ, task);
+        } else {
+            task.run();
         }
     }
 
-    private Location ensurePortal(Chunk chunk) {
-        World world = chunk.getWorld();
-        int startX = getPortalStart(chunk.getX());
-        int startZ = getPortalStart(chunk.getZ());
+    /**
+     * Queues a portal chunk for verification. The snapshot and the repair both run from the
+     * maintenance queue within the per-tick budget, the pass itself on a worker thread, and the
+     * gateway only becomes active once the repair has been applied. On Folia both stages run on
+     * the region owning the chunk instead.
+     */
+    private void schedulePortalVerification(final PortalNetwork network, final World world, final int chunkX, final int chunkZ) {
+        final long key = chunkKey(chunkX, chunkZ);
+        final Set<Long> pendingVerifications = network.getPendingVerifications();
+        if (!pendingVerifications.add(Long.valueOf(key))) {
+            return;
+        }
 
-        List<Integer> existingGatewayBases = findGatewayBases(world, startX, startZ);
-        if (!existingGatewayBases.isEmpty()) {
-            int canonicalBaseY = existingGatewayBases.get(0);
+        submitMaintenance(world, chunkX, chunkZ, new Runnable() {
+            @Override
+            public void run() {
+                if (!pendingVerifications.contains(Long.valueOf(key))) {
+                    return;
+                }
+
+                if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                    pendingVerifications.remove(Long.valueOf(key));
+                    return;
+                }
 
-            for (int index = 1; index < existingGatewayBases.size(); index++) {
-                clearPortalStructure(world, startX, existingGatewayBases.get(index), startZ);
+                verifyPortalAsync(network, world.getChunkAt(chunkX, chunkZ), new RepairPlanHandler() {
+                    @Override
+                    public void accept(final RepairPlan plan) {
+                        if (!pendingVerifications.contains(Long.valueOf(key))) {
+                            return;
+                        }
+
+                        submitMaintenance(world, chunkX, chunkZ, new Runnable() {
+                            @Override
+                            public void run() {
+                                completePortalVerification(network, world, key, plan);
+                            }
+                        });
+                    }
+                });
             }
+        });
+    }
 
-            if (!isPortalStructureComplete(world, startX, canonicalBaseY, startZ)) {
-                buildPortalStructure(world, startX, canonicalBaseY, startZ);
-            } else {
-                createGatewayStructure(world, startX + PORTAL_CENTER_OFFSET, canonicalBaseY + GATEWAY_Y_OFFSET, startZ + PORTAL_CENTER_OFFSET);
+    private void submitMaintenance(World world, int chunkX, int chunkZ, Runnable task) {
+        if (scheduler.isRegionThreaded()) {
+            scheduler.runAtChunk(world, chunkX, chunkZ, task);
+        } else {
+            maintenanceQueue.submit(world, chunkX, chunkZ, MaintenanceQueue.VERIFICATION, task);
+        }
+    }
+
+    /**
+     * Runs a verification pass over a snapshot of the chunk on a worker thread and hands the plan
+     * back on the thread owning the chunk. The plan is {@code null} if verification failed.
+     */
+    void verifyPortalAsync(PortalNetwork network, Chunk chunk, final RepairPlanHandler handler) {
+        final World world = chunk.getWorld();
+        final int chunkX = chunk.getX();
+        final int chunkZ = chunk.getZ();
+        final ChunkSnapshot snapshot = chunk.getChunkSnapshot(false, false, false);
+        final PortalBlocks blocks = portalBlocks;
+        final int minHeight = world.getMinHeight();
+        final int maxHeight = world.getMaxHeight();
+        final int highestY = world.getHighestBlockYAt(
+                getPortalStart(chunk.getX()) + PORTAL_CENTER_OFFSET,
+                getPortalStart(chunk.getZ()) + PORTAL_CENTER_OFFSET,
+                HeightMap.MOTION_BLOCKING_NO_LEAVES
+        );
+        final int registeredBaseY = network.getRegistry().getBaseY(chunkKey(chunk.getX(), chunk.getZ()));
+
+        scheduler.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                RepairPlan verifiedPlan = null;
+                long startedAt = System.nanoTime();
+                try {
+                    PortalVerification verification = new PortalVerification(snapshot, blocks, minHeight, maxHeight);
+                    verifiedPlan = verification.run(registeredBaseY, highestY);
+                    metrics.blockReads.add(verification.getBlockReads());
+                } catch (RuntimeException exception) {
+                    getLogger().log(Level.WARNING, "Could not verify the portal in chunk " + snapshot.getX() + ", " + snapshot.getZ() + ".", exception);
+                }
+                metrics.verification.recordSince(startedAt);
+
+                final RepairPlan plan = verifiedPlan;
+                if (!isEnabled()) {
+                    return;
+                }
+
+                scheduler.runAtChunk(world, chunkX, chunkZ, new Runnable() {
+                    @Override
+                    public void run() {
+                        handler.accept(plan);
+                    }
+                });
             }
+        });
+    }
 
-            return createGatewayLocation(world, startX, canonicalBaseY, startZ);
+    private void completePortalVerification(PortalNetwork network, World world, long key, RepairPlan plan) {
+        if (!network.getPendingVerifications().remove(Long.valueOf(key))) {
+            return;
+        }
+
+        if (plan == null || !world.isChunkLoaded(plan.getChunkX(), plan.getChunkZ())) {
+            if (network.getPendingPatches().containsKey(Long.valueOf(key))) {
+                schedulePortalPatch(network, world, (int) (key >> 32), (int) key);
+            }
+            return;
         }
 
-        Integer recoveredBaseY = findPortalBaseFromStructure(world, startX, startZ);
-        int baseY = recoveredBaseY != null ? recoveredBaseY.intValue() : resolvePortalBaseY(world, startX, startZ);
-        buildPortalStructure(world, startX, baseY, startZ);
-        return createGatewayLocation(world, startX, baseY, startZ);
+        int writes = applyRepairPlan(world, plan);
+        recordPortal(network, key, plan.getBaseY(), writes > 0);
+        if (network.getPendingPatches().containsKey(Long.valueOf(key))) {
+            // A portal block changed after the snapshot was taken; its patch brings the gateway back.
+            schedulePortalPatch(network, world, plan.getChunkX(), plan.getChunkZ());
+            return;
+        }
+        activateGateway(network, world, plan.getChunkX(), plan.getChunkZ(), plan.getBaseY());
     }
 
-    private List<Integer> findGatewayBases(World world, int startX, int startZ) {
-        int centerX = startX + PORTAL_CENTER_OFFSET;
-        int centerZ = startZ + PORTAL_CENTER_OFFSET;
-        List<Integer> baseHeights = new ArrayList<Integer>();
+    /**
+     * Stages the canonical state of a changed portal block and takes the gateway out of service
+     * until it is written back. The change itself has not happened yet when the event fires, so the
+     * patch runs from a later tick.
+     */
+    void patchPortalBlock(final PortalNetwork network, final World world, int x, int y, int z, BlockData state) {
+        final int chunkX = x >> 4;
+        final int chunkZ = z >> 4;
+        final long key = chunkKey(chunkX, chunkZ);
+        BlockEditPlan patch = network.getPendingPatches().get(Long.valueOf(key));
+        if (patch == null) {
+            patch = new BlockEditPlan(4);
+            network.getPendingPatches().put(Long.valueOf(key), patch);
+            network.getLoadedGateways().remove(key);
+            network.cancelGatewayTask(key);
+            schedulePortalPatch(network, world, chunkX, chunkZ);
+        }
+        patch.set(x, y, z, state);
+    }
 
-        for (int y = world.getMinHeight(); y < world.getMaxHeight(); y++) {
-            if (world.getBlockAt(centerX, y, centerZ).getType() == Material.END_GATEWAY) {
-                int baseY = y - GATEWAY_Y_OFFSET;
-                if (isWithinBuildHeight(world, baseY)) {
-                    baseHeights.add(Integer.valueOf(baseY));
-                }
+    private void schedulePortalPatch(final PortalNetwork network, final World world, final int chunkX, final int chunkZ) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                applyPortalPatch(network, world, chunkX, chunkZ);
             }
+        };
+        if (scheduler.isRegionThreaded()) {
+            scheduler.runAtChunkLater(world, chunkX, chunkZ, task, 1L);
+        } else {
+            maintenanceQueue.submit(world, chunkX, chunkZ, MaintenanceQueue.PATCH, task);
+        }
+    }
+
+    /**
+     * Writes a staged patch back and returns the gateway to service. While a verification of the
+     * chunk is pending the patch stays staged, and the verification schedules it again when it
+     * completes.
+     */
+    private void applyPortalPatch(PortalNetwork network, World world, int chunkX, int chunkZ) {
+        long key = chunkKey(chunkX, chunkZ);
+        if (network.getPendingVerifications().contains(Long.valueOf(key))) {
+            return;
+        }
+
+        BlockEditPlan patch = network.getPendingPatches().remove(Long.valueOf(key));
+        int baseY = network.getRegistry().getBaseY(key);
+        if (patch == null || baseY == PortalRegistry.NO_ENTRY || !world.isChunkLoaded(chunkX, chunkZ)) {
+            return;
         }
 
-        return baseHeights;
+        long startedAt = System.nanoTime();
+        int writes = patch.apply(world, false);
+        metrics.repair.recordSince(startedAt);
+        metrics.blockWrites.add(writes);
+        if (writes > 0) {
+            metrics.repairs.increment();
+            recordPortal(network, key, baseY, true);
+        }
+        activateGateway(network, world, chunkX, chunkZ, baseY);
     }
 
-    private Integer findPortalBaseFromStructure(World world, int startX, int startZ) {
-        for (int y = world.getMinHeight(); y < world.getMaxHeight(); y++) {
-            if (hasPortalSignatureAt(world, startX, y, startZ)) {
-                return Integer.valueOf(y);
+    /**
+     * Makes a verified gateway live. On Folia, polled gateways get a timer on their own region.
+     */
+    private void activateGateway(final PortalNetwork network, final World world, int chunkX, int chunkZ, int baseY) {
+        long key = chunkKey(chunkX, chunkZ);
+        final int gatewayX = getPortalStart(chunkX) + PORTAL_CENTER_OFFSET;
+        final int gatewayY = baseY + GATEWAY_Y_OFFSET;
+        final int gatewayZ = getPortalStart(chunkZ) + PORTAL_CENTER_OFFSET;
+        network.getLoadedGateways().put(key, gatewayX, gatewayY, gatewayZ);
+        if (!scheduler.isRegionThreaded() || triggerMode == GatewayTriggerMode.EVENT) {
+            return;
+        }
+
+        final GatewayTrail trail = network.getLoadedGateways().getTrail(key);
+        network.cancelGatewayTask(key);
+        network.getGatewayTasks().put(Long.valueOf(key), scheduler.runAtChunkTimer(world, chunkX, chunkZ, new Runnable() {
+            @Override
+            public void run() {
+                long startedAt = System.nanoTime();
+                pollGateway(network, world, trail, gatewayX, gatewayY, gatewayZ);
+                metrics.poll.recordSince(startedAt);
             }
+        }, 1L, 1L));
+    }
+
+    /**
+     * Loads a portal chunk, verifies it and either applies the repair or, for a dry run, only
+     * reports how many blocks it would change.
+     */
+    void repairPortal(final CommandSender sender, final World world, final int chunkX, final int chunkZ, final boolean dryRun) {
+        final PortalNetwork network = networksBySource.get(world);
+        if (network == null || !network.isPortalChunk(chunkX, chunkZ)) {
+            sender.sendMessage("Chunk " + chunkX + ", " + chunkZ + " in " + world.getName() + " does not hold a network portal.");
+            return;
         }
 
-        return null;
+        world.getChunkAtAsync(chunkX, chunkZ).whenComplete(new BiConsumer<Chunk, Throwable>() {
+            @Override
+            public void accept(Chunk chunk, Throwable error) {
+                if (error != null || chunk == null || !isEnabled()) {
+                    sender.sendMessage("Could not load chunk " + chunkX + ", " + chunkZ + ".");
+                    return;
+                }
+
+                scheduler.runAtChunk(world, chunkX, chunkZ, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (world.isChunkLoaded(chunkX, chunkZ)) {
+                            repairLoadedPortal(sender, network, world.getChunkAt(chunkX, chunkZ), dryRun);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void repairLoadedPortal(final CommandSender sender, PortalNetwork network, Chunk chunk, final boolean dryRun) {
+        final int chunkX = chunk.getX();
+        final int chunkZ = chunk.getZ();
+        verifyAndRepair(network, chunk, dryRun, new RepairResultHandler() {
+            @Override
+            public void accept(RepairPlan plan, int writes) {
+                if (plan == null) {
+                    sender.sendMessage("Could not verify the portal in chunk " + chunkX + ", " + chunkZ + ".");
+                } else if (dryRun) {
+                    sender.sendMessage("Repairing the portal in chunk " + chunkX + ", " + chunkZ + " would change " + writes + " block(s).");
+                } else {
+                    sender.sendMessage("Repaired the portal in chunk " + chunkX + ", " + chunkZ + ": " + writes + " block(s) changed.");
+                }
+            }
+        });
+    }
+
+    /**
+     * Verifies a loaded portal chunk and applies the repair or, for a dry run, only counts the
+     * writes it would make. A repaired gateway is activated unless a chunk-load verification is
+     * still on its way to do that.
+     */
+    private void verifyAndRepair(final PortalNetwork network, Chunk chunk, final boolean dryRun, final RepairResultHandler handler) {
+        final World world = chunk.getWorld();
+        final int chunkX = chunk.getX();
+        final int chunkZ = chunk.getZ();
+        verifyPortalAsync(network, chunk, new RepairPlanHandler() {
+            @Override
+            public void accept(RepairPlan plan) {
+                if (plan == null || !world.isChunkLoaded(chunkX, chunkZ) || !network.isPortalChunk(chunkX, chunkZ)) {
+                    handler.accept(null, 0);
+                    return;
+                }
+
+                if (dryRun) {
+                    handler.accept(plan, plan.getEdits().apply(world, true));
+                    return;
+                }
+
+                int writes = applyRepairPlan(world, plan);
+                long key = chunkKey(chunkX, chunkZ);
+                recordPortal(network, key, plan.getBaseY(), writes > 0);
+                if (!network.getPendingVerifications().contains(Long.valueOf(key))) {
+                    activateGateway(network, world, chunkX, chunkZ, plan.getBaseY());
+                }
+                handler.accept(plan, writes);
+            }
+        });
     }
 
-    private boolean hasPortalSignatureAt(World world, int startX, int baseY, int startZ) {
-        int portalBlockCount = 0;
+    /**
+     * Starts loading audit sites for every running audit, up to the concurrency limit and only
+     * while the server keeps up with the tick time target.
+     */
+    private void advanceAudits() {
+        if (auditMaxMspt > 0.0D && averageTickMillis() > auditMaxMspt) {
+            return;
+        }
+
+        List<PortalNetwork> currentNetworks = networks;
+        for (int networkIndex = 0; networkIndex < currentNetworks.size(); networkIndex++) {
+            PortalNetwork network = currentNetworks.get(networkIndex);
+            PortalAudit audit = network.getAudit();
+            World world = network.getSource();
+            if (world == null || !audit.isRunning()) {
+                continue;
+            }
 
-        for (int x = startX; x < startX + PORTAL_SIZE; x++) {
-            for (int z = startZ; z < startZ + PORTAL_SIZE; z++) {
-                Material material = world.getBlockAt(x, baseY, z).getType();
-                if (material == Material.END_PORTAL || material == Material.END_PORTAL_FRAME) {
-                    portalBlockCount++;
+            while (audit.getInFlight() < auditConcurrency) {
+                long slot = audit.claimNext();
+                if (slot == PortalAudit.FINISHED) {
+                    reportAuditFinished(network);
                 }
+                if (slot < 0L) {
+                    break;
+                }
+
+                auditSite(network, world, slot);
             }
         }
+    }
 
-        return portalBlockCount >= 4;
+    private double averageTickMillis() {
+        try {
+            return Bukkit.getAverageTickTime();
+        } catch (UnsupportedOperationException exception) {
+            return 0.0D;
+        }
     }
 
-    private int resolvePortalBaseY(World world, int startX, int startZ) {
-        int centerX = startX + PORTAL_CENTER_OFFSET;
-        int centerZ = startZ + PORTAL_CENTER_OFFSET;
-        int highestY = world.getHighestBlockAt(centerX, centerZ, HeightMap.MOTION_BLOCKING_NO_LEAVES).getY();
+    private void auditSite(final PortalNetwork network, final World world, final long slot) {
+        final int chunkX = network.getLayout().getSiteChunkX(slot);
+        final int chunkZ = network.getLayout().getSiteChunkZ(slot);
+        world.getChunkAtAsync(chunkX, chunkZ, true).whenComplete(new BiConsumer<Chunk, Throwable>() {
+            @Override
+            public void accept(Chunk loaded, Throwable error) {
+                if (error != null || loaded == null || !isEnabled()) {
+                    finishAuditSite(network, slot, -1);
+                    return;
+                }
 
-        for (int y = highestY; y >= world.getMinHeight(); y--) {
-            Material material = world.getBlockAt(centerX, y, centerZ).getType();
-            if (material == Material.AIR || isManagedStructureMaterial(material)) {
-                continue;
+                scheduler.runAtChunk(world, chunkX, chunkZ, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                            finishAuditSite(network, slot, -1);
+                            return;
+                        }
+
+                        world.addPluginChunkTicket(chunkX, chunkZ, Loader.this);
+                        verifyAndRepair(network, world.getChunkAt(chunkX, chunkZ), false, new RepairResultHandler() {
+                            @Override
+                            public void accept(RepairPlan plan, int writes) {
+                                world.removePluginChunkTicket(chunkX, chunkZ, Loader.this);
+                                finishAuditSite(network, slot, plan == null ? -1 : writes);
+                            }
+                        });
+                    }
+                });
             }
+        });
+    }
 
-            return clampBaseY(world, y);
+    private void finishAuditSite(PortalNetwork network, long slot, int writes) {
+        if (network.getAudit().complete(slot, writes)) {
+            reportAuditFinished(network);
         }
+    }
 
-        return clampBaseY(world, highestY);
+    private void reportAuditFinished(PortalNetwork network) {
+        getLogger().info("Finished the portal audit of network '" + network.getName() + "'.");
+        for (String line : network.getAudit().describe(System.currentTimeMillis())) {
+            getLogger().info(line);
+        }
     }
 
-    private int clampBaseY(World world, int baseY) {
-        int minBaseY = world.getMinHeight();
-        int maxBaseY = world.getMaxHeight() - GATEWAY_Y_OFFSET - GATEWAY_SHELL_OFFSET - 1;
-        return Math.max(minBaseY, Math.min(baseY, maxBaseY));
+    PortalNetwork findNetwork(String name) {
+        for (PortalNetwork network : networks) {
+            if (network.getName().equalsIgnoreCase(name)) {
+                return network;
+            }
+        }
+        return null;
     }
 
-    private boolean isPortalStructureComplete(World world, int startX, int baseY, int startZ) {
-        if (!isWithinBuildHeight(world, baseY) || !isWithinBuildHeight(world, baseY + GATEWAY_Y_OFFSET + GATEWAY_SHELL_OFFSET)) {
-            return false;
+    List<PortalNetwork> getNetworks() {
+        return networks;
+    }
+
+    /**
+     * Re-reads the configuration and applies it without a restart. Networks whose worlds are
+     * unchanged keep their state; if their layout changed, only the sites that joined or left it
+     * are touched. Networks that disappeared or moved to other worlds are saved and dropped, and
+     * new ones are loaded and bound like at startup.
+     */
+    void reloadSettings(CommandSender sender) {
+        GatewayTriggerMode previousTriggerMode = triggerMode;
+        boolean previousReturnGateways = returnGateways;
+        long previousCooldownMillis = teleportCooldownMillis;
+        long previousMetricsIntervalTicks = metricsIntervalTicks;
+        String previousJournalSettings = describeJournalSettings();
+        reloadConfig();
+        loadSettings();
+        List<PortalNetwork> configured = readNetworks();
+
+        if (triggerMode != previousTriggerMode) {
+            sender.sendMessage("gateway-trigger-mode only changes on a restart; keeping " + previousTriggerMode.name().toLowerCase(Locale.ROOT).replace('_', '-') + ".");
+            triggerMode = previousTriggerMode;
+        }
+        if (returnGateways != previousReturnGateways) {
+            sender.sendMessage("return-gateways only changes on a restart; keeping " + previousReturnGateways + ".");
+            returnGateways = previousReturnGateways;
+        }
+        if (teleportCooldownMillis != previousCooldownMillis) {
+            teleportCooldowns = createTeleportCooldowns();
+        }
+        if (metricsIntervalTicks != previousMetricsIntervalTicks) {
+            scheduleMetrics();
+        }
+        boolean residencyChanged = false;
+        if (!describeJournalSettings().equals(previousJournalSettings)) {
+            closeJournal();
+            openJournal();
         }
 
-        for (int x = startX; x < startX + PORTAL_SIZE; x++) {
-            boolean isXBoundary = x == startX || x == startX + PORTAL_SIZE - 1;
-            for (int z = startZ; z < startZ + PORTAL_SIZE; z++) {
-                boolean isZBoundary = z == startZ || z == startZ + PORTAL_SIZE - 1;
-                if (isXBoundary && isZBoundary) {
-                    continue;
+        List<PortalNetwork> kept = new ArrayList<PortalNetwork>();
+        List<PortalNetwork> added = new ArrayList<PortalNetwork>();
+        for (PortalNetwork candidate : configured) {
+            PortalNetwork current = findNetwork(candidate.getName());
+            if (current != null && current.isSourceWorldName(candidate.getSourceWorldName())
+                    && current.isDestinationWorldName(candidate.getDestinationWorldName())) {
+                if (!current.getLayout().equals(candidate.getLayout())) {
+                    changeLayout(sender, current, candidate.getLayout());
+                }
+                DestinationResidency residency = current.getResidency();
+                if (residency.getCapacity() != residencyCapacity || residency.getIdleMillis() != residencyIdleMillis) {
+                    current.setResidency(createResidency(current));
+                    residency.releaseAll();
+                    residencyChanged = true;
                 }
+                kept.add(current);
+            } else {
+                added.add(candidate);
+            }
+        }
 
-                Material expected = isXBoundary || isZBoundary ? Material.END_PORTAL_FRAME : Material.END_PORTAL;
-                if (world.getBlockAt(x, baseY, z).getType() != expected) {
-                    return false;
+        List<PortalNetwork> removed = new ArrayList<PortalNetwork>(networks);
+        removed.removeAll(kept);
+        for (PortalNetwork network : removed) {
+            World source = network.getSource();
+            if (source != null) {
+                if (!scheduler.isRegionThreaded()) {
+                    maintenanceQueue.cancelWorld(source);
                 }
+                Map<World, PortalNetwork> updated = new IdentityHashMap<World, PortalNetwork>(networksBySource);
+                updated.remove(source);
+                networksBySource = updated;
             }
+            saveNetworkState(network);
+            releaseNetwork(network);
+            blockChangeWatchers.remove(network.getArrivalPlatforms());
+            sender.sendMessage("Removed network " + network.getName() + ".");
         }
 
-        int centerX = startX + PORTAL_CENTER_OFFSET;
-        int centerZ = startZ + PORTAL_CENTER_OFFSET;
-        int gatewayY = baseY + GATEWAY_Y_OFFSET;
-        if (world.getBlockAt(centerX, gatewayY, centerZ).getType() != Material.END_GATEWAY) {
-            return false;
+        List<PortalNetwork> updatedNetworks = new ArrayList<PortalNetwork>(kept);
+        for (PortalNetwork network : added) {
+            loadNetworkState(network);
+            updatedNetworks.add(network);
+            blockChangeWatchers.add(network.getArrivalPlatforms());
+            sender.sendMessage("Added network " + network.getName() + ".");
+        }
+        networks = Collections.unmodifiableList(updatedNetworks);
+        for (World world : Bukkit.getWorlds()) {
+            bindWorld(world);
         }
+        if (residencyChanged) {
+            sender.sendMessage("Released the resident destination chunks; they are held again under the new limits as entities arrive.");
+        }
+        sender.sendMessage("Reloaded the configuration.");
+    }
 
-        if (world.getBlockAt(centerX, gatewayY + GATEWAY_SHELL_OFFSET, centerZ).getType() != Material.BEDROCK) {
-            return false;
+    /**
+     * Moves a network to a new layout. Sites that left it lose their gateway and registry entry, but
+     * their blocks stay where they are; loaded sites that joined it are queued for verification,
+     * which builds their portals.
+     */
+    private void changeLayout(CommandSender sender, PortalNetwork network, PortalLayout layout) {
+        PortalLayout previous = network.getLayout();
+        World world = network.getSource();
+        network.setLayout(layout);
+
+        long removedSites = 0L;
+        for (long slot = 0L; slot < previous.getSiteSlotCount(); slot++) {
+            int chunkX = previous.getSiteChunkX(slot);
+            int chunkZ = previous.getSiteChunkZ(slot);
+            if (!previous.isSiteSlot(slot) || layout.contains(chunkX, chunkZ)) {
+                continue;
+            }
+
+            untrackPortalChunk(network, world, chunkX, chunkZ);
+            network.getRegistry().remove(chunkKey(chunkX, chunkZ));
+            removedSites++;
         }
 
-        if (world.getBlockAt(centerX, gatewayY - GATEWAY_SHELL_OFFSET, centerZ).getType() != Material.BEDROCK) {
-            return false;
+        long addedSites = 0L;
+        for (long slot = 0L; slot < layout.getSiteSlotCount(); slot++) {
+            int chunkX = layout.getSiteChunkX(slot);
+            int chunkZ = layout.getSiteChunkZ(slot);
+            if (!layout.isSiteSlot(slot) || previous.contains(chunkX, chunkZ)) {
+                continue;
+            }
+
+            if (world != null && world.isChunkLoaded(chunkX, chunkZ)) {
+                schedulePortalVerification(network, world, chunkX, chunkZ);
+            }
+            addedSites++;
         }
 
-        return isBedrock(world, centerX - 1, gatewayY + 1, centerZ)
-                && isBedrock(world, centerX + 1, gatewayY + 1, centerZ)
-                && isBedrock(world, centerX, gatewayY + 1, centerZ - 1)
-                && isBedrock(world, centerX, gatewayY + 1, centerZ + 1)
-                && isBedrock(world, centerX - 1, gatewayY - 1, centerZ)
-                && isBedrock(world, centerX + 1, gatewayY - 1, centerZ)
-                && isBedrock(world, centerX, gatewayY - 1, centerZ - 1)
-                && isBedrock(world, centerX, gatewayY - 1, centerZ + 1);
+        sender.sendMessage("Network " + network.getName() + ": " + addedSites + " portal site(s) added, " + removedSites + " removed; its audit starts over.");
     }
 
-    private boolean isBedrock(World world, int x, int y, int z) {
-        return isWithinBuildHeight(world, y) && world.getBlockAt(x, y, z).getType() == Material.BEDROCK;
+    private int applyRepairPlan(World world, RepairPlan plan) {
+        long startedAt = System.nanoTime();
+        int writes = plan.getEdits().apply(world, false);
+        metrics.repair.recordSince(startedAt);
+        metrics.blockWrites.add(writes);
+        if (writes > 0) {
+            metrics.repairs.increment();
+            metrics.duplicateGatewaysRemoved.add(plan.getDuplicateGateways());
+        }
+        return writes;
     }
 
-    private void buildPortalStructure(World world, int startX, int baseY, int startZ) {
-        int clampedBaseY = clampBaseY(world, baseY);
+    /**
+     * Writes the metrics to the data folder. Reads only striped counters, so it runs off the main thread.
+     */
+    private void writeMetrics() {
+        try {
+            DataFiles.writeAtomically(new File(getDataFolder(), METRICS_PROMETHEUS_FILE_NAME), metrics.toPrometheus().getBytes(StandardCharsets.UTF_8));
+            DataFiles.writeAtomically(new File(getDataFolder(), METRICS_JSON_FILE_NAME), metrics.toJson().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException exception) {
+            getLogger().log(Level.WARNING, "Could not write the metrics files.", exception);
+        }
+    }
 
-        for (int x = startX; x < startX + PORTAL_SIZE; x++) {
-            boolean isXBoundary = x == startX || x == startX + PORTAL_SIZE - 1;
-            for (int z = startZ; z < startZ + PORTAL_SIZE; z++) {
-                boolean isZBoundary = z == startZ || z == startZ + PORTAL_SIZE - 1;
-                boolean isCorner = isXBoundary && isZBoundary;
-                boolean isFrame = isXBoundary || isZBoundary;
+    PortalMetrics getMetrics() {
+        return metrics;
+    }
 
-                Block baseBlock = world.getBlockAt(x, clampedBaseY, z);
-                if (isCorner) {
-                    setBlock(baseBlock, Material.AIR);
-                } else if (isFrame) {
-                    setBlock(baseBlock, Material.END_PORTAL_FRAME);
-                    orientPortalFrame(baseBlock, x, startX, z, startZ);
-                } else {
-                    setBlock(baseBlock, Material.END_PORTAL);
+    /**
+     * Searches the teleport journal off the main thread and sends the sender the newest matches.
+     */
+    void searchJournal(final CommandSender sender, final TeleportJournal.LineFilter filter, final String subject, final int limit) {
+        final TeleportJournal current = journal;
+        if (current == null) {
+            sender.sendMessage("The teleport journal is disabled.");
+            return;
+        }
+
+        scheduler.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                List<String> lines;
+                try {
+                    lines = current.search(filter, limit);
+                } catch (IOException exception) {
+                    getLogger().log(Level.WARNING, "Could not search the teleport journal.", exception);
+                    sender.sendMessage("Could not search the teleport journal; see the server log.");
+                    return;
+                }
+
+                if (lines.isEmpty()) {
+                    sender.sendMessage("No journaled teleports for " + subject + ".");
+                    return;
                 }
 
-                for (int y = 1; y <= PORTAL_CLEARANCE_HEIGHT; y++) {
-                    clearToAir(world.getBlockAt(x, clampedBaseY + y, z));
+                sender.sendMessage("Last " + lines.size() + " journaled teleport(s) for " + subject + ":");
+                for (String line : lines) {
+                    sender.sendMessage("  " + TeleportJournal.describe(line));
                 }
             }
-        }
+        });
+    }
 
-        createGatewayStructure(world, startX + PORTAL_CENTER_OFFSET, clampedBaseY + GATEWAY_Y_OFFSET, startZ + PORTAL_CENTER_OFFSET);
+    /**
+     * Queues a completed teleport for the journal. Never blocks; see {@link TeleportJournal#record}.
+     */
+    private void journalTeleport(PortalNetwork network, Entity entity, boolean returnTrip, int gatewayX, int gatewayY, int gatewayZ) {
+        TeleportJournal current = journal;
+        if (current != null) {
+            current.record(System.currentTimeMillis(), network.getName(), returnTrip, gatewayX, gatewayY, gatewayZ,
+                    entity.getUniqueId(), entity.getType(), entity instanceof Player ? entity.getName() : null);
+        }
     }
 
-    private void createGatewayStructure(World world, int centerX, int centerY, int centerZ) {
-        clearToAir(world.getBlockAt(centerX, centerY - 1, centerZ));
-        clearToAir(world.getBlockAt(centerX, centerY + 1, centerZ));
+    private void recordPortal(PortalNetwork network, long key, int baseY, boolean repaired) {
+        network.getRegistry().record(key, baseY, repaired ? PortalRegistry.STATE_REPAIRED : PortalRegistry.STATE_VERIFIED, System.currentTimeMillis());
+    }
 
-        setBlock(world.getBlockAt(centerX, centerY + GATEWAY_SHELL_OFFSET, centerZ), Material.BEDROCK);
-        setBlock(world.getBlockAt(centerX, centerY - GATEWAY_SHELL_OFFSET, centerZ), Material.BEDROCK);
+    private void saveStateAsync() {
+        final List<PortalNetwork> savedNetworks = new ArrayList<PortalNetwork>();
+        final List<byte[]> registrySnapshots = new ArrayList<byte[]>();
+        final List<byte[]> platformSnapshots = new ArrayList<byte[]>();
+        final List<byte[]> auditSnapshots = new ArrayList<byte[]>();
+        for (PortalNetwork network : networks) {
+            PortalRegistry registry = network.getRegistry();
+            ArrivalPlatformCache platforms = network.getArrivalPlatforms();
+            PortalAudit audit = network.getAudit();
+            if (!registry.isDirty() && !platforms.isDirty() && !audit.isDirty()) {
+                continue;
+            }
 
-        for (int offset = -1; offset <= 1; offset += 2) {
-            setBlock(world.getBlockAt(centerX + offset, centerY + 1, centerZ), Material.BEDROCK);
-            setBlock(world.getBlockAt(centerX, centerY + 1, centerZ + offset), Material.BEDROCK);
-            setBlock(world.getBlockAt(centerX + offset, centerY - 1, centerZ), Material.BEDROCK);
-            setBlock(world.getBlockAt(centerX, centerY - 1, centerZ + offset), Material.BEDROCK);
+            savedNetworks.add(network);
+            registrySnapshots.add(registry.isDirty() ? registry.snapshot() : null);
+            platformSnapshots.add(platforms.isDirty() ? platforms.snapshot() : null);
+            auditSnapshots.add(audit.isDirty() ? audit.snapshot() : null);
         }
 
-        Block gatewayBlock = world.getBlockAt(centerX, centerY, centerZ);
-        setBlock(gatewayBlock, Material.END_GATEWAY);
-    }
+        if (savedNetworks.isEmpty()) {
+            return;
+        }
 
-    private void clearPortalStructure(World world, int startX, int baseY, int startZ) {
-        for (int x = startX; x < startX + PORTAL_SIZE; x++) {
-            for (int z = startZ; z < startZ + PORTAL_SIZE; z++) {
-                for (int y = 0; y <= PORTAL_CLEARANCE_HEIGHT; y++) {
-                    clearManagedStructure(world.getBlockAt(x, baseY + y, z));
+        scheduler.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                for (int index = 0; index < savedNetworks.size(); index++) {
+                    PortalNetwork network = savedNetworks.get(index);
+                    byte[] registrySnapshot = registrySnapshots.get(index);
+                    if (registrySnapshot != null) {
+                        try {
+                            network.getRegistry().write(registrySnapshot);
+                        } catch (IOException exception) {
+                            getLogger().log(Level.WARNING, "Could not save the portal registry of network '" + network.getName() + "'.", exception);
+                        }
+                    }
+
+                    byte[] platformSnapshot = platformSnapshots.get(index);
+                    if (platformSnapshot != null) {
+                        try {
+                            network.getArrivalPlatforms().write(platformSnapshot);
+                        } catch (IOException exception) {
+                            getLogger().log(Level.WARNING, "Could not save the arrival platform cache of network '" + network.getName() + "'.", exception);
+                        }
+                    }
+
+                    byte[] auditSnapshot = auditSnapshots.get(index);
+                    if (auditSnapshot != null) {
+                        try {
+                            network.getAudit().write(auditSnapshot);
+                        } catch (IOException exception) {
+                            getLogger().log(Level.WARNING, "Could not save the audit progress of network '" + network.getName() + "'.", exception);
+                        }
+                    }
                 }
             }
-        }
+        });
+    }
 
-        int centerX = startX + PORTAL_CENTER_OFFSET;
-        int centerZ = startZ + PORTAL_CENTER_OFFSET;
-        int gatewayY = baseY + GATEWAY_Y_OFFSET;
+    private void pollLoadedPortalGateways() {
+        boolean eventMode = triggerMode == GatewayTriggerMode.EVENT;
+        if (eventMode) {
+            drainQueuedGatewayEntries();
+        }
 
-        clearManagedStructure(world.getBlockAt(centerX, gatewayY, centerZ));
-        clearManagedStructure(world.getBlockAt(centerX, gatewayY + 1, centerZ));
-        clearManagedStructure(world.getBlockAt(centerX, gatewayY - 1, centerZ));
-        clearManagedStructure(world.getBlockAt(centerX, gatewayY + GATEWAY_SHELL_OFFSET, centerZ));
-        clearManagedStructure(world.getBlockAt(centerX, gatewayY - GATEWAY_SHELL_OFFSET, centerZ));
+        List<PortalNetwork> currentNetworks = networks;
+        for (int networkIndex = 0; networkIndex < currentNetworks.size(); networkIndex++) {
+            PortalNetwork network = currentNetworks.get(networkIndex);
+            World world = network.getSource();
+            if (world == null) {
+                continue;
+            }
 
-        for (int offset = -1; offset <= 1; offset += 2) {
-            clearManagedStructure(world.getBlockAt(centerX + offset, gatewayY + 1, centerZ));
-            clearManagedStructure(world.getBlockAt(centerX, gatewayY + 1, centerZ + offset));
-            clearManagedStructure(world.getBlockAt(centerX + offset, gatewayY - 1, centerZ));
-            clearManagedStructure(world.getBlockAt(centerX, gatewayY - 1, centerZ + offset));
+            GatewayTable gateways = network.getLoadedGateways();
+            for (int index = 0; index < gateways.size(); index++) {
+                GatewayTrail trail = gateways.trailAt(index);
+                if (!eventMode) {
+                    pollGateway(network, world, trail, gateways.xAt(index), gateways.yAt(index), gateways.zAt(index));
+                } else if (trail.size() > 0) {
+                    sweepGatewayCandidates(network, world, trail, gateways.xAt(index), gateways.yAt(index), gateways.zAt(index));
+                }
+            }
         }
     }
 
-    private void clearManagedStructure(Block block) {
-        if (isManagedStructureMaterial(block.getType())) {
-            clearToAir(block);
+    /**
+     * Checks one loaded gateway for entities. Loaded gateways are trusted as intact, since the
+     * integrity watcher takes a gateway out of service as soon as one of its blocks changes, so
+     * this does not read any blocks.
+     *
+     * <p>An entity counts as entering the gateway if the straight path from where the gateway's
+     * trail last saw it passes through the gateway block, so entities moving several blocks per
+     * tick cannot skip over it between two polls. Entities that left the polled area since the
+     * last poll get that test once more against where they are now. The bounding box reaches
+     * {@link #BOUNDING_BOX_SWEEP_RADIUS} blocks past the gateway, or the pre-warm radius if that
+     * is larger, so an entity is tracked before it reaches the gateway whatever pre-warming is set
+     * to.</p>
+     */
+    private void pollGateway(PortalNetwork network, World world, GatewayTrail trail, int x, int y, int z) {
+        trail.beginPoll();
+        if (triggerMode == GatewayTriggerMode.BOUNDING_BOX) {
+            BoundingBox queryBox = new BoundingBox(x, y, z, x + 1, y + 1, z + 1).expand(Math.max(BOUNDING_BOX_SWEEP_RADIUS, prewarmRadius));
+            for (Entity entity : world.getNearbyEntities(queryBox)) {
+                sweepGatewayEntity(network, trail, entity, x, y, z);
+            }
+        } else {
+            for (Entity entity : world.getChunkAt(x >> 4, z >> 4).getEntities()) {
+                sweepGatewayEntity(network, trail, entity, x, y, z);
+            }
         }
+        sweepDepartedEntities(network, world, trail, x, y, z);
     }
 
-    private boolean isManagedStructureMaterial(Material material) {
-        return material == Material.END_PORTAL
-                || material == Material.END_PORTAL_FRAME
-                || material == Material.END_GATEWAY
-                || material == Material.BEDROCK;
+    private void sweepGatewayEntity(PortalNetwork network, GatewayTrail trail, Entity entity, int x, int y, int z) {
+        Location location = entity.getLocation(trail.getScratch());
+        if (trail.track(entity, location.getX(), location.getY(), location.getZ(), x, y, z) && canTeleportEntity(entity)) {
+            teleportEntityThroughGateway(network, entity, x, y, z);
+        } else if (prewarmRadius > 0 && isWithinPrewarmRadius(location, x, y, z)) {
+            prewarmDestination(network, x, z);
+        }
     }
 
-    private void orientPortalFrame(Block block, int x, int startX, int z, int startZ) {
-        Directional directional = (Directional) block.getBlockData();
-        if (x == startX) {
-            directional.setFacing(BlockFace.EAST);
-        } else if (x == startX + PORTAL_SIZE - 1) {
-            directional.setFacing(BlockFace.WEST);
-        } else if (z == startZ) {
-            directional.setFacing(BlockFace.SOUTH);
-        } else if (z == startZ + PORTAL_SIZE - 1) {
-            directional.setFacing(BlockFace.NORTH);
+    /**
+     * Drops the entities the poll no longer sees from the trail, teleporting those whose path out
+     * of the polled area went through the gateway.
+     */
+    private void sweepDepartedEntities(PortalNetwork network, World world, GatewayTrail trail, int x, int y, int z) {
+        for (int index = trail.size() - 1; index >= 0; index--) {
+            if (trail.isSeen(index)) {
+                continue;
+            }
+
+            Entity entity = trail.entityAt(index);
+            if (scheduler.ownsEntity(entity)) {
+                Location location = entity.getLocation(trail.getScratch());
+                if (location.getWorld() == world
+                        && GatewayTrail.crosses(trail.xAt(index), trail.yAt(index), trail.zAt(index), location.getX(), location.getY(), location.getZ(), x, y, z)
+                        && canTeleportEntity(entity)) {
+                    teleportEntityThroughGateway(network, entity, x, y, z);
+                }
+            }
+            trail.removeAt(index);
         }
+    }
 
-        EndPortalFrame endPortalFrame = (EndPortalFrame) directional;
-        endPortalFrame.setEye(true);
-        block.setBlockData(endPortalFrame, false);
+    /**
+     * Follows the event-mode candidates of one gateway: entities without move events that spawned
+     * in its chunk. A candidate whose path since the last sweep went through the gateway without
+     * ending in it is teleported; one that ends in it is left to the entity-inside-block event.
+     * Candidates are dropped once they cross, leave the chunk, come to rest or are removed.
+     */
+    private void sweepGatewayCandidates(PortalNetwork network, World world, GatewayTrail trail, int x, int y, int z) {
+        for (int index = trail.size() - 1; index >= 0; index--) {
+            Entity entity = trail.entityAt(index);
+            if (!entity.isValid() || !scheduler.ownsEntity(entity)) {
+                trail.removeAt(index);
+                continue;
+            }
+
+            Location location = entity.getLocation(trail.getScratch());
+            double toX = location.getX();
+            double toY = location.getY();
+            double toZ = location.getZ();
+            double fromX = trail.xAt(index);
+            double fromY = trail.yAt(index);
+            double fromZ = trail.zAt(index);
+            boolean crossed = location.getWorld() == world && GatewayTrail.crosses(fromX, fromY, fromZ, toX, toY, toZ, x, y, z);
+            if (crossed && !GatewayTrail.isInside(toX, toY, toZ, x, y, z) && canTeleportEntity(entity)) {
+                teleportEntityThroughGateway(network, entity, x, y, z);
+            }
+
+            boolean resting = toX == fromX && toY == fromY && toZ == fromZ;
+            if (crossed || resting || location.getWorld() != world
+                    || (location.getBlockX() >> 4) != (x >> 4) || (location.getBlockZ() >> 4) != (z >> 4)) {
+                trail.removeAt(index);
+            } else {
+                trail.moveTo(index, toX, toY, toZ);
+            }
+        }
     }
 
-    private boolean isManagedGateway(Block block) {
-        if (block.getType() != Material.END_GATEWAY || !isManagedOverworld(block.getWorld())) {
-            return false;
+    /**
+     * Makes a newly spawned entity without move events a candidate of the gateway in its chunk,
+     * for event mode. On Folia the gateway's region sweeps its candidates while it has any.
+     */
+    void trackGatewayCandidate(Entity entity) {
+        final World world = entity.getWorld();
+        final PortalNetwork network = networksBySource.get(world);
+        if (network == null) {
+            return;
         }
 
-        Chunk chunk = block.getChunk();
-        if (!isPortalChunk(chunk.getX(), chunk.getZ())) {
-            return false;
+        Location location = entity.getLocation();
+        final int chunkX = location.getBlockX() >> 4;
+        final int chunkZ = location.getBlockZ() >> 4;
+        final long key = chunkKey(chunkX, chunkZ);
+        GatewayTable gateways = network.getLoadedGateways();
+        final int gatewayY = gateways.getY(key);
+        final GatewayTrail trail = gateways.getTrail(key);
+        if (gatewayY == GatewayTable.NO_GATEWAY || trail == null) {
+            return;
         }
 
-        int expectedCenterX = getPortalStart(chunk.getX()) + PORTAL_CENTER_OFFSET;
-        int expectedCenterZ = getPortalStart(chunk.getZ()) + PORTAL_CENTER_OFFSET;
-        if (block.getX() != expectedCenterX || block.getZ() != expectedCenterZ) {
-            return false;
+        final int gatewayX = getPortalStart(chunkX) + PORTAL_CENTER_OFFSET;
+        final int gatewayZ = getPortalStart(chunkZ) + PORTAL_CENTER_OFFSET;
+        boolean firstCandidate = trail.size() == 0;
+        trail.track(entity, location.getX(), location.getY(), location.getZ(), gatewayX, gatewayY, gatewayZ);
+        if (!firstCandidate || !scheduler.isRegionThreaded()) {
+            return;
         }
-        return true;
+
+        network.cancelGatewayTask(key);
+        network.getGatewayTasks().put(Long.valueOf(key), scheduler.runAtChunkTimer(world, chunkX, chunkZ, new Runnable() {
+            @Override
+            public void run() {
+                sweepGatewayCandidates(network, world, trail, gatewayX, gatewayY, gatewayZ);
+                if (trail.size() == 0) {
+                    network.cancelGatewayTask(key);
+                }
+            }
+        }, 1L, 1L));
     }
 
-    private void pollLoadedPortalGateways() {
-        if (loadedPortalGateways.isEmpty()) {
-            return;
+    private void drainQueuedGatewayEntries() {
+        int[] positions = queuedGatewayPositions;
+        for (int index = 0; index < queuedGatewayEntrants.size(); index++) {
+            Entity entity = queuedGatewayEntrants.get(index);
+            PortalNetwork network = queuedGatewayNetworks.get(index);
+            int x = positions[index * QUEUED_ENTRY_STRIDE];
+            int y = positions[index * QUEUED_ENTRY_STRIDE + 1];
+            int z = positions[index * QUEUED_ENTRY_STRIDE + 2];
+            boolean passedThrough = positions[index * QUEUED_ENTRY_STRIDE + 3] != 0;
+            if (network.getLoadedGateways().isGateway(x, y, z)
+                    && (passedThrough ? canTeleportEntity(entity) : shouldTeleportEntity(entity, x, y, z))) {
+                teleportEntityThroughGateway(network, entity, x, y, z);
+            }
         }
 
-        long now = System.currentTimeMillis();
-        if (now >= nextCooldownCleanupAt) {
-            cleanupExpiredCooldowns(now);
-            nextCooldownCleanupAt = now + TELEPORT_COOLDOWN_MS;
+        queuedGatewayEntrants.clear();
+        queuedGatewayNetworks.clear();
+    }
+
+    /**
+     * Whether a loaded, intact network gateway sits at a block position.
+     */
+    boolean isLoadedGateway(World world, int x, int y, int z) {
+        PortalNetwork network = networksBySource.get(world);
+        return network != null && network.getLoadedGateways().isGateway(x, y, z);
+    }
+
+    /**
+     * Returns the network whose source is the world, or {@code null} if there is none.
+     */
+    PortalNetwork findNetwork(World world) {
+        return networksBySource.get(world);
+    }
+
+    /**
+     * Returns the gateway block height of a loaded portal chunk, or {@link GatewayTable#NO_GATEWAY}.
+     * The gateway sits at the center of the chunk's portal pad.
+     */
+    int findChunkGatewayY(World world, int chunkX, int chunkZ) {
+        PortalNetwork network = networksBySource.get(world);
+        return network == null ? GatewayTable.NO_GATEWAY : network.getLoadedGateways().getY(chunkKey(chunkX, chunkZ));
+    }
+
+    /**
+     * Returns the network whose return gateway sits at a block of one of its destination worlds, or
+     * {@code null}. Return gateways are found by position alone: the block must sit beside the
+     * arrival point of a verified portal, at that portal's gateway height.
+     */
+    PortalNetwork findReturnGateway(World world, int x, int y, int z) {
+        int gatewayX = x - RETURN_GATEWAY_OFFSET;
+        int chunkX = gatewayX >> 4;
+        int chunkZ = z >> 4;
+        if (gatewayX != getPortalStart(chunkX) + PORTAL_CENTER_OFFSET || z != getPortalStart(chunkZ) + PORTAL_CENTER_OFFSET) {
+            return null;
         }
 
-        for (Location gatewayLocation : loadedPortalGateways.values()) {
-            World world = gatewayLocation.getWorld();
-            if (world == null || !world.isChunkLoaded(gatewayLocation.getBlockX() >> 4, gatewayLocation.getBlockZ() >> 4)) {
+        List<PortalNetwork> currentNetworks = networks;
+        for (int networkIndex = 0; networkIndex < currentNetworks.size(); networkIndex++) {
+            PortalNetwork network = currentNetworks.get(networkIndex);
+            if (network.getDestination() != world || !network.isPortalChunk(chunkX, chunkZ)) {
                 continue;
             }
 
-            Block gatewayBlock = world.getBlockAt(gatewayLocation);
-            if (!isManagedGateway(gatewayBlock)) {
-                continue;
+            int baseY = network.getRegistry().getBaseY(chunkKey(chunkX, chunkZ));
+            if (baseY != PortalRegistry.NO_ENTRY && baseY + GATEWAY_Y_OFFSET == y) {
+                return network;
             }
+        }
 
-            for (Entity entity : gatewayBlock.getChunk().getEntities()) {
-                if (!shouldTeleportEntity(entity, gatewayBlock)) {
-                    continue;
+        return null;
+    }
+
+    /**
+     * Sends an entity that touched a return gateway back on the next tick, if it is still inside.
+     */
+    void queueReturnEntry(final Entity entity, final PortalNetwork network, final Location gateway) {
+        scheduler.runForEntity(entity, new Runnable() {
+            @Override
+            public void run() {
+                if (shouldTeleportEntity(entity, gateway)) {
+                    returnEntityThroughGateway(network, entity, gateway.getBlockX() - RETURN_GATEWAY_OFFSET, gateway.getBlockY(), gateway.getBlockZ());
                 }
+            }
+        }, 1L);
+    }
+
+    /**
+     * Returns the network portal nearest to a position: its gateway in a source world, its arrival
+     * point in a destination world. The height is that of the verified portal, or {@code NaN} if
+     * the portal has not been verified yet. Returns {@code null} if no network uses the world.
+     */
+    Location findNearestPortal(World world, int x, int z) {
+        Location nearest = null;
+        double nearestDistance = Double.MAX_VALUE;
+        List<PortalNetwork> currentNetworks = networks;
+        for (int networkIndex = 0; networkIndex < currentNetworks.size(); networkIndex++) {
+            PortalNetwork network = currentNetworks.get(networkIndex);
+            if ((network.getSource() != world && network.getDestination() != world) || network.getLayout().getRingCount() == 0) {
+                continue;
+            }
 
-                teleportEntityThroughGateway(entity, gatewayBlock);
+            long key = network.getLayout().nearestSite(x >> 4, z >> 4);
+            int gatewayX = getPortalStart((int) (key >> 32)) + PORTAL_CENTER_OFFSET;
+            int gatewayZ = getPortalStart((int) key) + PORTAL_CENTER_OFFSET;
+            double distance = (double) (gatewayX - x) * (gatewayX - x) + (double) (gatewayZ - z) * (gatewayZ - z);
+            if (distance >= nearestDistance) {
+                continue;
             }
+
+            int baseY = network.getRegistry().getBaseY(key);
+            nearestDistance = distance;
+            nearest = new Location(world, gatewayX, baseY == PortalRegistry.NO_ENTRY ? Double.NaN : baseY + GATEWAY_Y_OFFSET, gatewayZ);
         }
+
+        return nearest;
     }
 
-    private boolean shouldTeleportEntity(Entity entity, Block gatewayBlock) {
-        if (!entity.isValid() || entity.isDead()) {
-            return false;
+    int getPrewarmRadius() {
+        return prewarmRadius;
+    }
+
+    /**
+     * Teleports an entity that touched a gateway on the next tick. On Folia the entity's own
+     * scheduler runs it, so the entry never crosses regions.
+     *
+     * @param passedThrough whether the entity went through the gateway block without stopping in
+     *                      it, in which case it is not expected to still be inside
+     */
+    void queueGatewayEntry(final Entity entity, World world, final int x, final int y, final int z, final boolean passedThrough) {
+        final PortalNetwork network = networksBySource.get(world);
+        if (network == null) {
+            return;
+        }
+
+        if (!scheduler.isRegionThreaded()) {
+            int index = queuedGatewayEntrants.size();
+            if (queuedGatewayPositions.length < (index + 1) * QUEUED_ENTRY_STRIDE) {
+                queuedGatewayPositions = Arrays.copyOf(queuedGatewayPositions, queuedGatewayPositions.length * 2);
+            }
+            queuedGatewayPositions[index * QUEUED_ENTRY_STRIDE] = x;
+            queuedGatewayPositions[index * QUEUED_ENTRY_STRIDE + 1] = y;
+            queuedGatewayPositions[index * QUEUED_ENTRY_STRIDE + 2] = z;
+            queuedGatewayPositions[index * QUEUED_ENTRY_STRIDE + 3] = passedThrough ? 1 : 0;
+            queuedGatewayEntrants.add(entity);
+            queuedGatewayNetworks.add(network);
+            return;
         }
 
-        if (entity.isInsideVehicle() || !entity.getPassengers().isEmpty()) {
+        scheduler.runForEntity(entity, new Runnable() {
+            @Override
+            public void run() {
+                if (network.getLoadedGateways().isGateway(x, y, z)
+                        && (passedThrough ? canTeleportEntity(entity) : shouldTeleportEntity(entity, x, y, z))) {
+                    teleportEntityThroughGateway(network, entity, x, y, z);
+                }
+            }
+        }, 1L);
+    }
+
+    static boolean shouldTeleportEntity(Entity entity, Location gateway) {
+        return shouldTeleportEntity(entity, gateway.getBlockX(), gateway.getBlockY(), gateway.getBlockZ());
+    }
+
+    static boolean shouldTeleportEntity(Entity entity, int gatewayX, int gatewayY, int gatewayZ) {
+        if (!canTeleportEntity(entity)) {
             return false;
         }
 
         Location entityLocation = entity.getLocation();
-        return entityLocation.getBlockX() == gatewayBlock.getX()
-                && entityLocation.getBlockY() == gatewayBlock.getY()
-                && entityLocation.getBlockZ() == gatewayBlock.getZ();
+        return entityLocation.getBlockX() == gatewayX
+                && entityLocation.getBlockY() == gatewayY
+                && entityLocation.getBlockZ() == gatewayZ;
     }
 
-    private void teleportEntityThroughGateway(Entity entity, Block gatewayBlock) {
+    /**
+     * Whether an entity may go through a gateway at all: it must be alive and neither riding nor
+     * carrying anything.
+     */
+    static boolean canTeleportEntity(Entity entity) {
+        if (!entity.isValid() || entity.isDead()) {
+            return false;
+        }
+
+        return !entity.isInsideVehicle() && entity.getPassengers().isEmpty();
+    }
+
+    /**
+     * Sends an entity to the network's destination world above the gateway's X/Z, building the
+     * arrival platform there first. On a single-threaded server the entity joins the gateway's
+     * batch for this tick, sent by {@link #flushGatewayCrossings}. With return gateways on, the
+     * entity arrives with only its vertical velocity, so it cannot drift off the platform's center
+     * into the return gateway once its cooldown ends.
+     */
+    private void teleportEntityThroughGateway(final PortalNetwork network, final Entity entity, int gatewayX, int gatewayY, int gatewayZ) {
         if (!beginTeleportCooldown(entity.getUniqueId())) {
+            metrics.cooldownRejections.increment();
+            return;
+        }
+
+        if (!scheduler.isRegionThreaded()) {
+            Location origin = entity.getLocation();
+            Vector velocity = entity.getVelocity();
+            double scale = velocityCapScale(velocity);
+            double horizontalScale = returnGateways ? 0.0D : scale;
+            gatewayCrossings.add(network, gatewayX, gatewayY, gatewayZ, entity, origin.getYaw(), origin.getPitch(),
+                    velocity.getX() * horizontalScale, velocity.getY() * scale, velocity.getZ() * horizontalScale);
             return;
         }
 
-        World endWorld = Bukkit.getWorld(END_WORLD_NAME);
-        if (endWorld == null) {
+        long startedAt = System.nanoTime();
+        final World destinationWorld = network.getDestination();
+        if (destinationWorld == null) {
             teleportCooldowns.remove(entity.getUniqueId());
-            warnMissingEndWorld();
+            warnMissingDestination(network);
             return;
         }
 
-        Vector velocity = capVelocity(entity.getVelocity());
         Location origin = entity.getLocation();
-        Location destination = new Location(
-                endWorld,
-                gatewayBlock.getX() + 0.5D,
-                gatewayBlock.getY(),
-                gatewayBlock.getZ() + 0.5D,
+        final Location destination = new Location(
+                destinationWorld,
+                gatewayX + 0.5D,
+                gatewayY,
+                gatewayZ + 0.5D,
                 origin.getYaw(),
                 origin.getPitch()
         );
 
-        prepareEndArrival(destination);
+        sendEntity(entity, destination, new Runnable() {
+            @Override
+            public void run() {
+                holdDestination(network, destinationWorld, destination.getBlockX() >> 4, destination.getBlockZ() >> 4);
+                prepareArrivalPlatform(network, destination);
+            }
+        }, network, false, gatewayX, gatewayY, gatewayZ);
+        metrics.teleport.recordSince(startedAt);
+    }
 
-        if (!entity.teleport(destination, PlayerTeleportEvent.TeleportCause.END_GATEWAY)) {
-            teleportCooldowns.remove(entity.getUniqueId());
+    /**
+     * Sends the entities that went through gateways this tick, one batch per gateway.
+     */
+    private void flushGatewayCrossings() {
+        GatewayCrossings crossings = gatewayCrossings;
+        if (crossings.isEmpty()) {
+            return;
+        }
+
+        for (int batch = 0; batch < crossings.batchCount(); batch++) {
+            sendGatewayBatch(crossings.take(batch));
+        }
+        crossings.clear();
+    }
+
+    /**
+     * Sends every entity that went through one gateway this tick. The destination chunk is loaded,
+     * held and given its arrival platform once for the whole batch, then each entity is moved with
+     * its own facing and capped velocity, as {@link #sendEntity} does for a single one. The batch
+     * goes back to its pool once every teleport has started.
+     */
+    private void sendGatewayBatch(final GatewayCrossings.Batch batch) {
+        long startedAt = System.nanoTime();
+        final PortalNetwork network = batch.getNetwork();
+        final World destinationWorld = network.getDestination();
+        if (destinationWorld == null) {
+            endCooldowns(batch);
+            warnMissingDestination(network);
+            return;
+        }
+
+        final int gatewayX = batch.getGatewayX();
+        final int gatewayY = batch.getGatewayY();
+        final int gatewayZ = batch.getGatewayZ();
+        final int chunkX = gatewayX >> 4;
+        final int chunkZ = gatewayZ >> 4;
+        destinationWorld.getChunkAtAsync(chunkX, chunkZ).whenComplete(new BiConsumer<Chunk, Throwable>() {
+            @Override
+            public void accept(Chunk chunk, Throwable error) {
+                if (error != null) {
+                    endCooldowns(batch);
+                    return;
+                }
+
+                scheduler.runAtChunk(destinationWorld, chunkX, chunkZ, new Runnable() {
+                    @Override
+                    public void run() {
+                        holdDestination(network, destinationWorld, chunkX, chunkZ);
+                        prepareArrivalPlatform(network, new Location(destinationWorld, gatewayX + 0.5D, gatewayY, gatewayZ + 0.5D));
+                        for (int index = 0; index < batch.size(); index++) {
+                            Location destination = new Location(destinationWorld, gatewayX + 0.5D, gatewayY, gatewayZ + 0.5D,
+                                    batch.yawAt(index), batch.pitchAt(index));
+                            completeTeleport(batch.entityAt(index), destination,
+                                    batch.velocityXAt(index), batch.velocityYAt(index), batch.velocityZAt(index),
+                                    network, false, gatewayX, gatewayY, gatewayZ);
+                        }
+                        gatewayCrossings.release(batch);
+                    }
+                });
+            }
+        });
+        metrics.teleport.recordSince(startedAt);
+    }
+
+    /**
+     * Lets the entities of a batch that will not be sent use a gateway again, and returns the
+     * batch to its pool.
+     */
+    private void endCooldowns(GatewayCrossings.Batch batch) {
+        for (int index = 0; index < batch.size(); index++) {
+            teleportCooldowns.remove(batch.entityAt(index).getUniqueId());
+        }
+        gatewayCrossings.release(batch);
+    }
+
+    /**
+     * Sends an entity that stepped into a return gateway back to the source world, beside the pad
+     * of the portal the gateway belongs to, under the same cooldown and velocity rules as the way
+     * out.
+     */
+    private void returnEntityThroughGateway(PortalNetwork network, Entity entity, int gatewayX, int gatewayY, int gatewayZ) {
+        if (!beginTeleportCooldown(entity.getUniqueId())) {
+            metrics.cooldownRejections.increment();
             return;
         }
 
-        if (velocity.lengthSquared() == 0.0D) {
+        long startedAt = System.nanoTime();
+        final World sourceWorld = network.getSource();
+        if (sourceWorld == null) {
+            teleportCooldowns.remove(entity.getUniqueId());
             return;
         }
 
-        final Vector preservedVelocity = velocity;
-        Bukkit.getScheduler().runTask(this, new Runnable() {
+        Location origin = entity.getLocation();
+        final Location destination = new Location(
+                sourceWorld,
+                gatewayX - PORTAL_CENTER_OFFSET - 1 + 0.5D,
+                0.0D,
+                gatewayZ + 0.5D,
+                origin.getYaw(),
+                origin.getPitch()
+        );
+
+        sendEntity(entity, destination, new Runnable() {
             @Override
             public void run() {
-                if (entity.isValid()) {
-                    entity.setVelocity(preservedVelocity);
+                destination.setY(sourceWorld.getHighestBlockYAt(destination.getBlockX(), destination.getBlockZ()) + 1);
+            }
+        }, network, true, gatewayX, gatewayY, gatewayZ);
+        metrics.teleport.recordSince(startedAt);
+    }
+
+    /**
+     * Moves an entity without blocking the tick: the destination chunk is loaded asynchronously,
+     * the preparation runs on the thread owning that chunk once it is ready and the entity is moved
+     * with {@link Entity#teleportAsync} from its own thread, keeping its capped velocity. Arrivals
+     * beside a return gateway keep only the vertical part of it.
+     */
+    private void sendEntity(final Entity entity, final Location destination, final Runnable preparation,
+                            final PortalNetwork network, final boolean returnTrip, final int gatewayX, final int gatewayY, final int gatewayZ) {
+        final Vector velocity = capVelocity(entity.getVelocity());
+        if (returnGateways && !returnTrip) {
+            velocity.setX(0.0D).setZ(0.0D);
+        }
+        final World world = destination.getWorld();
+        final int chunkX = destination.getBlockX() >> 4;
+        final int chunkZ = destination.getBlockZ() >> 4;
+        world.getChunkAtAsync(chunkX, chunkZ).whenComplete(new BiConsumer<Chunk, Throwable>() {
+            @Override
+            public void accept(Chunk chunk, Throwable error) {
+                if (error != null) {
+                    teleportCooldowns.remove(entity.getUniqueId());
+                    return;
                 }
+
+                scheduler.runAtChunk(world, chunkX, chunkZ, new Runnable() {
+                    @Override
+                    public void run() {
+                        preparation.run();
+                        scheduler.runForEntity(entity, new Runnable() {
+                            @Override
+                            public void run() {
+                                completeTeleport(entity, destination, velocity.getX(), velocity.getY(), velocity.getZ(),
+                                        network, returnTrip, gatewayX, gatewayY, gatewayZ);
+                            }
+                        }, 0L);
+                    }
+                });
             }
         });
     }
 
-    private boolean beginTeleportCooldown(UUID entityId) {
-        long now = System.currentTimeMillis();
-        if (now >= nextCooldownCleanupAt) {
-            cleanupExpiredCooldowns(now);
-            nextCooldownCleanupAt = now + TELEPORT_COOLDOWN_MS;
+    /**
+     * Starts moving an entity and, once it has arrived, journals the teleport, counts it and gives
+     * the entity its velocity back. A teleport that fails only ends the cooldown.
+     */
+    private void completeTeleport(final Entity entity, Location destination, final double velocityX, final double velocityY, final double velocityZ,
+                                  final PortalNetwork network, final boolean returnTrip, final int gatewayX, final int gatewayY, final int gatewayZ) {
+        entity.teleportAsync(destination, PlayerTeleportEvent.TeleportCause.END_GATEWAY).whenComplete(new BiConsumer<Boolean, Throwable>() {
+            @Override
+            public void accept(Boolean teleported, Throwable teleportError) {
+                if (teleportError != null || teleported == null || !teleported.booleanValue()) {
+                    teleportCooldowns.remove(entity.getUniqueId());
+                    return;
+                }
+
+                journalTeleport(network, entity, returnTrip, gatewayX, gatewayY, gatewayZ);
+                metrics.teleports.increment();
+                restoreVelocity(entity, velocityX, velocityY, velocityZ);
+            }
+        });
+    }
+
+    /**
+     * Gives an entity its velocity back a tick after it arrived: through the shared restore queue
+     * on a single-threaded server, and from the entity's own scheduler on Folia.
+     */
+    private void restoreVelocity(final Entity entity, double velocityX, double velocityY, double velocityZ) {
+        if (!scheduler.isRegionThreaded()) {
+            velocityRestores.add(entity, velocityX, velocityY, velocityZ, getServer().getCurrentTick());
+            return;
         }
 
-        Long expiresAt = teleportCooldowns.get(entityId);
-        if (expiresAt != null && expiresAt.longValue() > now) {
-            return false;
+        if (velocityX == 0.0D && velocityY == 0.0D && velocityZ == 0.0D) {
+            return;
+        }
+
+        final Vector velocity = new Vector(velocityX, velocityY, velocityZ);
+        scheduler.runForEntity(entity, new Runnable() {
+            @Override
+            public void run() {
+                entity.setVelocity(velocity);
+            }
+        }, 1L);
+    }
+
+    /**
+     * Starts loading the destination chunk behind a gateway and holds it with a short-lived plugin
+     * ticket, so an entity about to step through does not wait on the load or generation.
+     */
+    void prewarmDestination(World world, int gatewayX, int gatewayZ) {
+        PortalNetwork network = networksBySource.get(world);
+        if (network != null) {
+            prewarmDestination(network, gatewayX, gatewayZ);
+        }
+    }
+
+    private void prewarmDestination(PortalNetwork network, int gatewayX, int gatewayZ) {
+        if (prewarmRadius <= 0) {
+            return;
+        }
+
+        final World destinationWorld = network.getDestination();
+        if (destinationWorld == null) {
+            return;
         }
 
-        teleportCooldowns.put(entityId, Long.valueOf(now + TELEPORT_COOLDOWN_MS));
-        return true;
+        final int chunkX = gatewayX >> 4;
+        final int chunkZ = gatewayZ >> 4;
+        final Long key = Long.valueOf(chunkKey(chunkX, chunkZ));
+        final Map<Long, Long> prewarmedDestinations = network.getPrewarmedDestinations();
+        Long previousExpiry = prewarmedDestinations.put(key, Long.valueOf(System.currentTimeMillis() + PREWARM_HOLD_MS));
+        if (previousExpiry != null) {
+            return;
+        }
+
+        destinationWorld.getChunkAtAsync(chunkX, chunkZ).whenComplete(new BiConsumer<Chunk, Throwable>() {
+            @Override
+            public void accept(Chunk chunk, Throwable error) {
+                if (error == null && isEnabled() && prewarmedDestinations.containsKey(key)) {
+                    destinationWorld.addPluginChunkTicket(chunkX, chunkZ, Loader.this);
+                }
+            }
+        });
     }
 
-    private void cleanupExpiredCooldowns(long now) {
-        List<UUID> expiredEntries = new ArrayList<UUID>();
-        for (Map.Entry<UUID, Long> entry : teleportCooldowns.entrySet()) {
-            if (entry.getValue().longValue() <= now) {
-                expiredEntries.add(entry.getKey());
+    boolean isWithinPrewarmRadius(Location location, int gatewayX, int gatewayY, int gatewayZ) {
+        double dx = location.getX() - (gatewayX + 0.5D);
+        double dy = location.getY() - gatewayY;
+        double dz = location.getZ() - (gatewayZ + 0.5D);
+        return dx * dx + dy * dy + dz * dz <= (double) prewarmRadius * prewarmRadius;
+    }
+
+    private void releaseExpiredPrewarms(long now) {
+        if (now < nextPrewarmSweepAt) {
+            return;
+        }
+
+        nextPrewarmSweepAt = now + PREWARM_SWEEP_INTERVAL_MS;
+        List<PortalNetwork> currentNetworks = networks;
+        for (int networkIndex = 0; networkIndex < currentNetworks.size(); networkIndex++) {
+            PortalNetwork network = currentNetworks.get(networkIndex);
+            World destinationWorld = network.getDestination();
+            Iterator<Map.Entry<Long, Long>> entries = network.getPrewarmedDestinations().entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Long, Long> entry = entries.next();
+                if (entry.getValue().longValue() > now) {
+                    continue;
+                }
+
+                entries.remove();
+                if (destinationWorld != null) {
+                    releaseDestinationTicket(network, destinationWorld, entry.getKey().longValue());
+                }
+            }
+
+            DestinationResidency residency = network.getResidency();
+            if (residency != null) {
+                residency.expire(now);
             }
         }
+    }
 
-        for (UUID entityId : expiredEntries) {
-            teleportCooldowns.remove(entityId);
+    /**
+     * Keeps a gateway's destination chunk loaded for the arrivals after this one, counting whether
+     * it already was. Runs on the thread owning the chunk.
+     */
+    private void holdDestination(PortalNetwork network, World world, int chunkX, int chunkZ) {
+        DestinationResidency residency = network.getResidency();
+        if (residency == null || residency.getCapacity() == 0) {
+            return;
+        }
+
+        if (residency.touch(chunkKey(chunkX, chunkZ), System.currentTimeMillis())) {
+            metrics.residencyHits.increment();
+            return;
         }
+
+        metrics.residencyMisses.increment();
+        world.addPluginChunkTicket(chunkX, chunkZ, this);
+    }
+
+    /**
+     * Drops the plugin ticket of a destination chunk once neither a pre-warm nor the residency
+     * holds it. A plugin has one ticket per chunk, so the check runs on the thread owning the chunk,
+     * after any hold that was taken in the meantime.
+     */
+    private void releaseDestinationTicket(final PortalNetwork network, final World world, long key) {
+        final Long boxedKey = Long.valueOf(key);
+        final int chunkX = (int) (key >> 32);
+        final int chunkZ = (int) key;
+        scheduler.runAtChunk(world, chunkX, chunkZ, new Runnable() {
+            @Override
+            public void run() {
+                DestinationResidency residency = network.getResidency();
+                if (network.getPrewarmedDestinations().containsKey(boxedKey)
+                        || (residency != null && residency.isResident(boxedKey.longValue()))) {
+                    return;
+                }
+                world.removePluginChunkTicket(chunkX, chunkZ, Loader.this);
+            }
+        });
     }
 
-    private Vector capVelocity(Vector velocity) {
+    private boolean beginTeleportCooldown(UUID entityId) {
+        return teleportCooldowns.tryBegin(entityId, System.currentTimeMillis());
+    }
+
+    /**
+     * The factor that brings a velocity down to {@link #MAX_TELEPORT_VELOCITY}, or 1 if it is
+     * within it.
+     */
+    static double velocityCapScale(Vector velocity) {
+        double lengthSquared = velocity.lengthSquared();
+        return lengthSquared > MAX_TELEPORT_VELOCITY * MAX_TELEPORT_VELOCITY ? MAX_TELEPORT_VELOCITY / Math.sqrt(lengthSquared) : 1.0D;
+    }
+
+    static Vector capVelocity(Vector velocity) {
         Vector safeVelocity = velocity.clone();
         double maxVelocitySquared = MAX_TELEPORT_VELOCITY * MAX_TELEPORT_VELOCITY;
 
@@ -529,7 +2015,7 @@ public final class Loader extends JavaPlugin implements Listener {
         return safeVelocity;
     }
 
-    private void prepareEndArrival(Location destination) {
+    private void prepareArrivalPlatform(PortalNetwork network, Location destination) {
         World world = destination.getWorld();
         if (world == null) {
             return;
@@ -538,66 +2024,42 @@ public final class Loader extends JavaPlugin implements Listener {
         int baseX = destination.getBlockX();
         int baseY = destination.getBlockY();
         int baseZ = destination.getBlockZ();
+        ArrivalPlatformCache arrivalPlatforms = network.getArrivalPlatforms();
+        if (arrivalPlatforms.isPrepared(world, baseX, baseY, baseZ)) {
+            return;
+        }
 
-        for (int x = -END_PLATFORM_RADIUS; x <= END_PLATFORM_RADIUS; x++) {
-            for (int z = -END_PLATFORM_RADIUS; z <= END_PLATFORM_RADIUS; z++) {
-                setBlock(world.getBlockAt(baseX + x, baseY - 1, baseZ + z), Material.OBSIDIAN);
+        long startedAt = System.nanoTime();
+        BlockEditPlan edits = scheduler.isRegionThreaded() ? new BlockEditPlan(ARRIVAL_EDIT_CAPACITY) : arrivalEdits;
+        edits.clear();
+        for (int x = -ARRIVAL_PLATFORM_RADIUS; x <= ARRIVAL_PLATFORM_RADIUS; x++) {
+            for (int z = -ARRIVAL_PLATFORM_RADIUS; z <= ARRIVAL_PLATFORM_RADIUS; z++) {
+                edits.set(baseX + x, baseY - 1, baseZ + z, portalBlocks.obsidian);
 
-                for (int y = 0; y < END_CLEARANCE_HEIGHT; y++) {
-                    clearToAir(world.getBlockAt(baseX + x, baseY + y, baseZ + z));
+                for (int y = 0; y < ARRIVAL_CLEARANCE_HEIGHT; y++) {
+                    boolean returnGateway = returnGateways && x == RETURN_GATEWAY_OFFSET && z == 0 && y == 0;
+                    edits.set(baseX + x, baseY + y, baseZ + z, returnGateway ? portalBlocks.endGateway : portalBlocks.air);
                 }
             }
         }
-    }
 
-    private void setBlock(Block block, Material material) {
-        if (block.getType() != material) {
-            block.setType(material, false);
-        }
-    }
-
-    private void clearToAir(Block block) {
-        if (block.getType() != Material.AIR) {
-            block.setType(Material.AIR, false);
-        }
-    }
-
-    private boolean isManagedOverworld(World world) {
-        return world.getName().equalsIgnoreCase(OVERWORLD_NAME);
-    }
-
-    private boolean isPortalChunk(int chunkX, int chunkZ) {
-        return portalChunks.contains(Integer.valueOf(Math.abs(chunkX)))
-                && portalChunks.contains(Integer.valueOf(Math.abs(chunkZ)));
+        metrics.blockWrites.add(edits.apply(world, false));
+        arrivalPlatforms.markPrepared(world, baseX, baseY, baseZ);
+        metrics.arrival.recordSince(startedAt);
     }
 
     private int getPortalStart(int chunkCoordinate) {
-        return (chunkCoordinate << 4) + PORTAL_OFFSET_IN_CHUNK;
+        return PortalStructure.getPortalStart(chunkCoordinate);
     }
 
-    private Location createGatewayLocation(World world, int startX, int baseY, int startZ) {
-        return new Location(
-                world,
-                startX + PORTAL_CENTER_OFFSET,
-                baseY + GATEWAY_Y_OFFSET,
-                startZ + PORTAL_CENTER_OFFSET
-        );
-    }
-
-    private long chunkKey(int chunkX, int chunkZ) {
+    static long chunkKey(int chunkX, int chunkZ) {
         return ((long) chunkX << 32) ^ (chunkZ & 0xFFFFFFFFL);
     }
 
-    private boolean isWithinBuildHeight(World world, int y) {
-        return y >= world.getMinHeight() && y < world.getMaxHeight();
-    }
-
-    private void warnMissingEndWorld() {
-        if (warnedAboutMissingEndWorld) {
-            return;
+    private void warnMissingDestination(PortalNetwork network) {
+        if (network.shouldWarnAboutMissingDestination()) {
+            getLogger().warning("Destination world '" + network.getDestinationWorldName() + "' of network '" + network.getName()
+                    + "' is not loaded. Its gateway teleports will stay disabled until that world is available.");
         }
-
-        warnedAboutMissingEndWorld = true;
-        getLogger().warning("End world '" + END_WORLD_NAME + "' is not loaded. Extended gateway teleports will stay disabled until that world is available.");
     }
 }
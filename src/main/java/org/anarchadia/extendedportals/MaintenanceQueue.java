@@ -0,0 +1,213 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Main-thread portal maintenance work, run a little at a time within a per-tick time budget.
+ *
+ * <p>There is at most one job per chunk of each world, holding at most one task of each kind:
+ * submitting a task replaces only the queued task of the same kind, so staging a patch never drops
+ * a queued verification. Cancelling drops the chunk's job, so chunks that unload before their turn
+ * never run. A job runs its tasks in kind order. Jobs are run
+ * nearest-player first. The order is recomputed when jobs are added and otherwise once a second,
+ * since players move far slower than the queue drains.</p>
+ */
+final class MaintenanceQueue {
+
+    /**
+     * Task kind of a portal verification.
+     */
+    static final int VERIFICATION = 0;
+    /**
+     * Task kind of a staged portal block patch.
+     */
+    static final int PATCH = 1;
+
+    private static final int KINDS = 2;
+    private static final int RERANK_INTERVAL_TICKS = 20;
+    private static final Comparator<Job> BY_DISTANCE = new Comparator<Job>() {
+        @Override
+        public int compare(Job first, Job second) {
+            return Long.compare(first.distanceSquared, second.distanceSquared);
+        }
+    };
+
+    private final Map<World, Map<Long, Job>> jobsByWorld = new IdentityHashMap<World, Map<Long, Job>>();
+    private int size;
+    private Job[] ranked = new Job[16];
+    private int rankedCount;
+    private int cursor;
+    private boolean rerankNeeded;
+    private int ticksSinceRerank;
+
+    /**
+     * Queues a task for the chunk, replacing a waiting task of the same kind.
+     *
+     * @param kind {@link #VERIFICATION} or {@link #PATCH}
+     */
+    void submit(World world, int chunkX, int chunkZ, int kind, Runnable task) {
+        Map<Long, Job> jobs = jobsByWorld.get(world);
+        if (jobs == null) {
+            jobs = new HashMap<Long, Job>();
+            jobsByWorld.put(world, jobs);
+        }
+
+        Long key = Long.valueOf(Loader.chunkKey(chunkX, chunkZ));
+        Job job = jobs.get(key);
+        if (job == null) {
+            job = new Job(world, chunkX, chunkZ);
+            jobs.put(key, job);
+            size++;
+            rerankNeeded = true;
+        }
+        job.tasks[kind] = task;
+    }
+
+    boolean cancel(World world, int chunkX, int chunkZ) {
+        Map<Long, Job> jobs = jobsByWorld.get(world);
+        Job job = jobs == null ? null : jobs.remove(Long.valueOf(Loader.chunkKey(chunkX, chunkZ)));
+        if (job == null) {
+            return false;
+        }
+
+        job.cancelled = true;
+        size--;
+        return true;
+    }
+
+    /**
+     * Drops every job queued for a world, e.g. because it is unloading.
+     */
+    void cancelWorld(World world) {
+        Map<Long, Job> jobs = jobsByWorld.remove(world);
+        if (jobs == null) {
+            return;
+        }
+
+        for (Job job : jobs.values()) {
+            job.cancelled = true;
+        }
+        size -= jobs.size();
+    }
+
+    boolean contains(World world, int chunkX, int chunkZ) {
+        Map<Long, Job> jobs = jobsByWorld.get(world);
+        return jobs != null && jobs.containsKey(Long.valueOf(Loader.chunkKey(chunkX, chunkZ)));
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        jobsByWorld.clear();
+        size = 0;
+        Arrays.fill(ranked, 0, rankedCount, null);
+        rankedCount = 0;
+        cursor = 0;
+    }
+
+    /**
+     * Runs queued jobs, nearest player first, until the budget is spent. At least one job runs
+     * per call so the queue always makes progress, however small the budget.
+     */
+    void runWithinBudget(long budgetNanos) {
+        if (size == 0) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + budgetNanos;
+        if (rerankNeeded || ++ticksSinceRerank >= RERANK_INTERVAL_TICKS || cursor >= rankedCount) {
+            rerank();
+        }
+
+        do {
+            Job job = nextJob();
+            if (job == null) {
+                return;
+            }
+
+            jobsByWorld.get(job.world).remove(Long.valueOf(Loader.chunkKey(job.chunkX, job.chunkZ)));
+            size--;
+            for (Runnable task : job.tasks) {
+                if (task != null) {
+                    task.run();
+                }
+            }
+        } while (System.nanoTime() < deadline);
+    }
+
+    private Job nextJob() {
+        while (cursor < rankedCount) {
+            Job job = ranked[cursor];
+            ranked[cursor++] = null;
+            if (!job.cancelled) {
+                return job;
+            }
+        }
+
+        return null;
+    }
+
+    private void rerank() {
+        if (ranked.length < size) {
+            ranked = new Job[Math.max(ranked.length * 2, size)];
+        } else {
+            Arrays.fill(ranked, 0, rankedCount, null);
+        }
+
+        Location scratch = new Location(null, 0.0D, 0.0D, 0.0D);
+        rankedCount = 0;
+        for (Map.Entry<World, Map<Long, Job>> entry : jobsByWorld.entrySet()) {
+            List<Player> players = entry.getKey().getPlayers();
+            for (Job job : entry.getValue().values()) {
+                job.distanceSquared = nearestPlayerDistanceSquared(job, players, scratch);
+                ranked[rankedCount++] = job;
+            }
+        }
+
+        Arrays.sort(ranked, 0, rankedCount, BY_DISTANCE);
+        cursor = 0;
+        rerankNeeded = false;
+        ticksSinceRerank = 0;
+    }
+
+    private static long nearestPlayerDistanceSquared(Job job, List<Player> players, Location scratch) {
+        long centerX = (job.chunkX << 4) + 8;
+        long centerZ = (job.chunkZ << 4) + 8;
+        long nearest = Long.MAX_VALUE;
+        for (int index = 0; index < players.size(); index++) {
+            Location location = players.get(index).getLocation(scratch);
+            long deltaX = location.getBlockX() - centerX;
+            long deltaZ = location.getBlockZ() - centerZ;
+            nearest = Math.min(nearest, deltaX * deltaX + deltaZ * deltaZ);
+        }
+
+        return nearest;
+    }
+
+    private static final class Job {
+
+        private final World world;
+        private final int chunkX;
+        private final int chunkZ;
+        private final Runnable[] tasks = new Runnable[KINDS];
+        private long distanceSquared;
+        private boolean cancelled;
+
+        private Job(World world, int chunkX, int chunkZ) {
+            this.world = world;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+        }
+    }
+}
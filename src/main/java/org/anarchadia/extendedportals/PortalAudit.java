@@ -0,0 +1,315 @@
+package org.anarchadia.extendedportals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Progress of a background sweep that visits every site of a network's layout, building missing
+ * portals and repairing damaged ones.
+ *
+ * <p>Sites are walked in the fixed slot order of {@link PortalLayout}, so progress is a single
+ * cursor. The cursor and the counters are persisted next to the portal registry, which lets a
+ * paused or interrupted audit carry on after a restart. The saved cursor is rewound to the
+ * earliest site still in flight, which is visited again on resume; the sites after it that had
+ * already finished are saved with it and skipped, so no site is counted twice. The layout's rings,
+ * offsets and diagonal setting are saved too, and progress saved for a different layout is
+ * discarded.</p>
+ */
+final class PortalAudit {
+
+    static final long FINISHED = -2L;
+
+    private static final int FILE_MAGIC = 0x45504155; // "EPAU"
+    private static final int FILE_VERSION = 2;
+
+    private final StateFile file;
+    private PortalLayout layout;
+    private final Set<Long> inFlight = new HashSet<Long>();
+    /**
+     * Sites at or after the cursor that finished before a restart rewound the cursor past them.
+     */
+    private final Set<Long> completedAhead = new HashSet<Long>();
+
+    private long cursor;
+    private boolean running;
+    private long sitesVisited;
+    private long sitesChanged;
+    private long sitesFailed;
+    private long blocksWritten;
+    private long resumedAtMillis;
+    private long visitedAtResume;
+    private boolean dirty;
+
+    PortalAudit(File file, PortalLayout layout) {
+        this.file = new StateFile(file);
+        this.layout = layout;
+    }
+
+    synchronized boolean isRunning() {
+        return running;
+    }
+
+    synchronized boolean isComplete() {
+        return cursor >= layout.getSiteSlotCount() && inFlight.isEmpty();
+    }
+
+    synchronized int getInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * Starts or resumes the sweep; a finished sweep starts over from the first site.
+     */
+    synchronized void start(long now) {
+        if (isComplete()) {
+            cursor = 0L;
+            completedAhead.clear();
+            sitesVisited = 0L;
+            sitesChanged = 0L;
+            sitesFailed = 0L;
+            blocksWritten = 0L;
+        }
+
+        running = true;
+        resumedAtMillis = now;
+        visitedAtResume = sitesVisited;
+        dirty = true;
+    }
+
+    /**
+     * Switches to a new layout. Slots of the old layout mean nothing in the new one, so progress
+     * starts over from the first site and sites still in flight no longer count; a running sweep
+     * keeps running.
+     */
+    synchronized void changeLayout(PortalLayout layout) {
+        this.layout = layout;
+        inFlight.clear();
+        completedAhead.clear();
+        cursor = 0L;
+        sitesVisited = 0L;
+        sitesChanged = 0L;
+        sitesFailed = 0L;
+        blocksWritten = 0L;
+        visitedAtResume = 0L;
+        dirty = true;
+    }
+
+    synchronized void pause() {
+        running = false;
+        dirty = true;
+    }
+
+    /**
+     * Claims the next site and returns its slot, {@code -1} when every site has been handed out,
+     * or {@link #FINISHED} when the claim found every remaining site already done and finished
+     * the audit.
+     */
+    synchronized long claimNext() {
+        long slotCount = layout.getSiteSlotCount();
+        while (cursor < slotCount && (!layout.isSiteSlot(cursor) || completedAhead.remove(Long.valueOf(cursor)))) {
+            cursor++;
+        }
+
+        if (cursor >= slotCount) {
+            if (running && inFlight.isEmpty()) {
+                // Every remaining site had finished before a restart.
+                finish();
+                return FINISHED;
+            }
+            return -1L;
+        }
+
+        long slot = cursor++;
+        inFlight.add(Long.valueOf(slot));
+        dirty = true;
+        return slot;
+    }
+
+    /**
+     * Records the outcome of a claimed site and returns {@code true} if it was the last one.
+     *
+     * @param writes blocks changed at the site, or a negative value if it could not be verified
+     */
+    synchronized boolean complete(long slot, int writes) {
+        if (!inFlight.remove(Long.valueOf(slot))) {
+            return false;
+        }
+
+        sitesVisited++;
+        if (writes < 0) {
+            sitesFailed++;
+        } else if (writes > 0) {
+            sitesChanged++;
+            blocksWritten += writes;
+        }
+        dirty = true;
+        if (!isComplete()) {
+            return false;
+        }
+
+        finish();
+        return true;
+    }
+
+    private void finish() {
+        running = false;
+        dirty = true;
+    }
+
+    synchronized List<String> describe(long now) {
+        List<String> lines = new ArrayList<String>();
+        long total = layout.getSiteCount();
+        double percent = total == 0L ? 100.0D : sitesVisited * 100.0D / total;
+        String state = running ? "running" : isComplete() ? "finished" : cursor == 0L ? "not started" : "paused";
+        lines.add(String.format(Locale.ROOT, "%s: %d/%d sites (%.1f%%), %d in flight", state, sitesVisited, total, percent, inFlight.size()));
+        lines.add("portals changed: " + sitesChanged + ", blocks written: " + blocksWritten + ", failed: " + sitesFailed);
+
+        long elapsedMillis = now - resumedAtMillis;
+        long visitedSinceResume = sitesVisited - visitedAtResume;
+        if (running && elapsedMillis > 0L && visitedSinceResume > 0L) {
+            double sitesPerSecond = visitedSinceResume * 1000.0D / elapsedMillis;
+            long remainingSeconds = (long) ((total - sitesVisited) / sitesPerSecond);
+            lines.add(String.format(Locale.ROOT, "rate: %.2f sites/s, ETA %dh %02dm %02ds",
+                    sitesPerSecond, remainingSeconds / 3600L, remainingSeconds / 60L % 60L, remainingSeconds % 60L));
+        }
+        return lines;
+    }
+
+    synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    synchronized void load() throws IOException {
+        if (!file.getFile().isFile()) {
+            return;
+        }
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.getFile().toPath())));
+        try {
+            if (input.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a portal audit file: " + file.getFile());
+            }
+
+            int version = input.readInt();
+            if (version != FILE_VERSION) {
+                // Version 1 identified the layout by its hash code; its progress is not trusted.
+                if (version == 1) {
+                    return;
+                }
+                throw new IOException("Unsupported portal audit version " + version + " in " + file.getFile());
+            }
+
+            int ringCount = input.readInt();
+            if (ringCount < 0 || ringCount > input.available() / 4) {
+                throw new IOException("Corrupt portal audit ring count " + ringCount + " in " + file.getFile());
+            }
+            int[] rings = new int[ringCount];
+            for (int index = 0; index < ringCount; index++) {
+                rings[index] = input.readInt();
+            }
+            PortalLayout savedLayout = new PortalLayout(rings, input.readInt(), input.readInt(), input.readBoolean());
+            if (!savedLayout.equals(layout)) {
+                return;
+            }
+
+            running = input.readBoolean();
+            cursor = Math.min(Math.max(0L, input.readLong()), layout.getSiteSlotCount());
+            sitesVisited = input.readLong();
+            sitesChanged = input.readLong();
+            sitesFailed = input.readLong();
+            blocksWritten = input.readLong();
+            int completedCount = input.readInt();
+            completedAhead.clear();
+            for (int index = 0; index < completedCount; index++) {
+                completedAhead.add(Long.valueOf(input.readLong()));
+            }
+        } finally {
+            input.close();
+        }
+
+        visitedAtResume = sitesVisited;
+        dirty = false;
+    }
+
+    /**
+     * Serializes the progress, rewinding the cursor to the earliest site still in flight and
+     * listing the sites after it that already finished.
+     */
+    synchronized byte[] snapshot() {
+        long savedCursor = cursor;
+        for (Long slot : inFlight) {
+            savedCursor = Math.min(savedCursor, slot.longValue());
+        }
+
+        List<Long> completed = new ArrayList<Long>();
+        for (long slot = savedCursor; slot < cursor; slot++) {
+            Long boxedSlot = Long.valueOf(slot);
+            if (layout.isSiteSlot(slot) && !inFlight.contains(boxedSlot)) {
+                completed.add(boxedSlot);
+            }
+        }
+        for (Long slot : completedAhead) {
+            if (slot.longValue() >= savedCursor) {
+                completed.add(slot);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(74 + layout.getRingCount() * 4 + completed.size() * 8);
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+            output.writeInt(layout.getRingCount());
+            for (int index = 0; index < layout.getRingCount(); index++) {
+                output.writeInt(layout.getRing(index));
+            }
+            output.writeInt(layout.getOffsetX());
+            output.writeInt(layout.getOffsetZ());
+            output.writeBoolean(layout.isDiagonalOnly());
+            output.writeBoolean(running);
+            output.writeLong(savedCursor);
+            output.writeLong(sitesVisited);
+            output.writeLong(sitesChanged);
+            output.writeLong(sitesFailed);
+            output.writeLong(blocksWritten);
+            output.writeInt(completed.size());
+            for (Long slot : completed) {
+                output.writeLong(slot.longValue());
+            }
+        } catch (IOException exception) {
+            throw new IllegalStateException("In-memory portal audit serialization failed", exception);
+        }
+
+        dirty = false;
+        byte[] snapshot = bytes.toByteArray();
+        file.taken(snapshot);
+        return snapshot;
+    }
+
+    void save() throws IOException {
+        write(snapshot());
+    }
+
+    void write(byte[] data) throws IOException {
+        try {
+            file.write(data);
+        } catch (IOException exception) {
+            markDirty();
+            throw exception;
+        }
+    }
+
+    private synchronized void markDirty() {
+        dirty = true;
+    }
+}
@@ -0,0 +1,101 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.EndPortalFrame;
+
+/**
+ * Shared block states used to build portals and arrival platforms.
+ *
+ * <p>Created once on the main thread and never mutated afterwards, so the same instances can be
+ * handed to worker threads and written into the world repeatedly.</p>
+ */
+final class PortalBlocks {
+
+    final BlockData air;
+    final BlockData bedrock;
+    final BlockData obsidian;
+    final BlockData endPortal;
+    final BlockData endGateway;
+
+    private final BlockData northFrame;
+    private final BlockData eastFrame;
+    private final BlockData southFrame;
+    private final BlockData westFrame;
+    private final BlockData[] padStates;
+
+    PortalBlocks() {
+        air = Bukkit.createBlockData(Material.AIR);
+        bedrock = Bukkit.createBlockData(Material.BEDROCK);
+        obsidian = Bukkit.createBlockData(Material.OBSIDIAN);
+        endPortal = Bukkit.createBlockData(Material.END_PORTAL);
+        endGateway = Bukkit.createBlockData(Material.END_GATEWAY);
+        northFrame = createFrame(BlockFace.NORTH, true);
+        eastFrame = createFrame(BlockFace.EAST, true);
+        southFrame = createFrame(BlockFace.SOUTH, true);
+        westFrame = createFrame(BlockFace.WEST, true);
+
+        BlockFace[] facings = {BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST};
+        padStates = new BlockData[1 + facings.length * 2];
+        padStates[0] = endPortal;
+        for (int index = 0; index < facings.length; index++) {
+            padStates[1 + index * 2] = createFrame(facings[index], true);
+            padStates[2 + index * 2] = createFrame(facings[index], false);
+        }
+    }
+
+    /**
+     * Returns the state for a structure material; frames are looked up by their facing instead.
+     */
+    BlockData of(Material material) {
+        switch (material) {
+            case BEDROCK:
+                return bedrock;
+            case OBSIDIAN:
+                return obsidian;
+            case END_PORTAL:
+                return endPortal;
+            case END_GATEWAY:
+                return endGateway;
+            default:
+                return air;
+        }
+    }
+
+    BlockData frame(BlockFace facing) {
+        switch (facing) {
+            case EAST:
+                return eastFrame;
+            case SOUTH:
+                return southFrame;
+            case WEST:
+                return westFrame;
+            default:
+                return northFrame;
+        }
+    }
+
+    /**
+     * Whether a snapshot's palettes hold any portal or frame state, i.e. whether a portal pad could
+     * be anywhere in the chunk.
+     */
+    boolean containsPadBlock(ChunkSnapshot snapshot) {
+        for (BlockData state : padStates) {
+            if (snapshot.contains(state)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static BlockData createFrame(BlockFace facing, boolean eye) {
+        EndPortalFrame frame = (EndPortalFrame) Bukkit.createBlockData(Material.END_PORTAL_FRAME);
+        frame.setFacing(facing);
+        frame.setEye(eye);
+        return frame;
+    }
+}
@@ -0,0 +1,275 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Administrative {@code /extendedportals} command.
+ */
+final class PortalCommand implements TabExecutor {
+
+    private static final String DRY_RUN = "dry-run";
+    private static final String ADMIN_PERMISSION = "extendedportals.admin";
+    private static final String NEAREST_PERMISSION = "extendedportals.nearest";
+    private static final List<String> AUDIT_ACTIONS = Arrays.asList("start", "pause", "status");
+    private static final List<String> JOURNAL_SUBJECTS = Arrays.asList("entity", "gateway");
+    private static final int DEFAULT_JOURNAL_LIMIT = 10;
+    private static final int MAX_JOURNAL_LIMIT = 100;
+
+    private final Loader plugin;
+
+    PortalCommand(Loader plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length > 0 && "nearest".equalsIgnoreCase(args[0])) {
+            if (!sender.hasPermission(NEAREST_PERMISSION)) {
+                sender.sendMessage("You do not have permission to look up portals.");
+                return true;
+            }
+            return nearest(sender);
+        }
+
+        if (!sender.hasPermission(ADMIN_PERMISSION)) {
+            sender.sendMessage("Usage: /" + label + " nearest");
+            return true;
+        }
+
+        if (args.length > 0 && "repair".equalsIgnoreCase(args[0])) {
+            return repair(sender, label, args);
+        }
+
+        if (args.length > 0 && "audit".equalsIgnoreCase(args[0])) {
+            return audit(sender, label, args);
+        }
+
+        if (args.length > 0 && "reload".equalsIgnoreCase(args[0])) {
+            plugin.reloadSettings(sender);
+            return true;
+        }
+
+        if (args.length > 0 && "journal".equalsIgnoreCase(args[0])) {
+            return journal(sender, label, args);
+        }
+
+        if (args.length > 0 && "metrics".equalsIgnoreCase(args[0])) {
+            for (String line : plugin.getMetrics().describe()) {
+                sender.sendMessage(line);
+            }
+            return true;
+        }
+
+        sender.sendMessage("Usage: /" + label + " <repair [<world> <chunkX> <chunkZ>] [" + DRY_RUN + "] | audit <start|pause|status> [<network>] | reload | metrics | journal <entity <uuid|player>|gateway <x> <z>> [<limit>] | nearest>");
+        return true;
+    }
+
+    private boolean nearest(CommandSender sender) {
+        if (!(sender instanceof Player)) {
+            sender.sendMessage("Only players can look up the nearest portal.");
+            return true;
+        }
+
+        Location location = ((Player) sender).getLocation();
+        Location portal = plugin.findNearestPortal(location.getWorld(), location.getBlockX(), location.getBlockZ());
+        if (portal == null) {
+            sender.sendMessage("There are no network portals in this world.");
+            return true;
+        }
+
+        long distance = Math.round(Math.hypot(portal.getX() - location.getX(), portal.getZ() - location.getZ()));
+        String height = Double.isNaN(portal.getY()) ? "?" : Integer.toString((int) portal.getY());
+        sender.sendMessage("Nearest network portal: " + (int) portal.getX() + ", " + height + ", " + (int) portal.getZ() + " (" + distance + " blocks away).");
+        return true;
+    }
+
+    private boolean audit(CommandSender sender, String label, String[] args) {
+        if (args.length < 2 || args.length > 3 || !AUDIT_ACTIONS.contains(args[1].toLowerCase(Locale.ROOT))) {
+            sender.sendMessage("Usage: /" + label + " audit <start|pause|status> [<network>]");
+            return true;
+        }
+
+        String action = args[1].toLowerCase(Locale.ROOT);
+        List<PortalNetwork> targets = new ArrayList<PortalNetwork>();
+        if (args.length == 3) {
+            PortalNetwork network = plugin.findNetwork(args[2]);
+            if (network == null) {
+                sender.sendMessage("Unknown network " + args[2] + ".");
+                return true;
+            }
+            targets.add(network);
+        } else {
+            targets.addAll(plugin.getNetworks());
+        }
+
+        long now = System.currentTimeMillis();
+        for (PortalNetwork network : targets) {
+            PortalAudit audit = network.getAudit();
+            if ("start".equals(action)) {
+                audit.start(now);
+            } else if ("pause".equals(action)) {
+                audit.pause();
+            }
+
+            sender.sendMessage("Network " + network.getName() + ":");
+            for (String line : audit.describe(now)) {
+                sender.sendMessage("  " + line);
+            }
+        }
+        return true;
+    }
+
+    private boolean journal(CommandSender sender, String label, String[] args) {
+        String usage = "Usage: /" + label + " journal <entity <uuid|player>|gateway <x> <z>> [<limit>]";
+        boolean byEntity = args.length >= 3 && "entity".equalsIgnoreCase(args[1]);
+        boolean byGateway = args.length >= 4 && "gateway".equalsIgnoreCase(args[1]);
+        int limitIndex = byEntity ? 3 : 4;
+        if (!(byEntity || byGateway) || args.length > limitIndex + 1) {
+            sender.sendMessage(usage);
+            return true;
+        }
+
+        int limit = DEFAULT_JOURNAL_LIMIT;
+        if (args.length == limitIndex + 1) {
+            try {
+                limit = Math.max(1, Math.min(MAX_JOURNAL_LIMIT, Integer.parseInt(args[limitIndex])));
+            } catch (NumberFormatException exception) {
+                sender.sendMessage("The limit must be a whole number.");
+                return true;
+            }
+        }
+
+        if (byGateway) {
+            try {
+                int x = Integer.parseInt(args[2]);
+                int z = Integer.parseInt(args[3]);
+                plugin.searchJournal(sender, TeleportJournal.gatewayFilter(x, z), "the gateway at " + x + ", " + z, limit);
+            } catch (NumberFormatException exception) {
+                sender.sendMessage("Gateway coordinates must be whole numbers.");
+            }
+            return true;
+        }
+
+        UUID entityId;
+        try {
+            entityId = UUID.fromString(args[2]);
+        } catch (IllegalArgumentException exception) {
+            entityId = null;
+        }
+        TeleportJournal.LineFilter filter = entityId != null ? TeleportJournal.entityFilter(entityId) : TeleportJournal.playerFilter(args[2]);
+        plugin.searchJournal(sender, filter, args[2], limit);
+        return true;
+    }
+
+    private boolean repair(CommandSender sender, String label, String[] args) {
+        int argumentCount = args.length;
+        boolean dryRun = argumentCount > 1 && DRY_RUN.equalsIgnoreCase(args[argumentCount - 1]);
+        if (dryRun) {
+            argumentCount--;
+        }
+
+        if (argumentCount == 1) {
+            if (!(sender instanceof Player)) {
+                sender.sendMessage("Usage: /" + label + " repair <world> <chunkX> <chunkZ> [" + DRY_RUN + "]");
+                return true;
+            }
+
+            Location location = ((Player) sender).getLocation();
+            plugin.repairPortal(sender, location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4, dryRun);
+            return true;
+        }
+
+        if (argumentCount != 4) {
+            sender.sendMessage("Usage: /" + label + " repair [<world> <chunkX> <chunkZ>] [" + DRY_RUN + "]");
+            return true;
+        }
+
+        World world = Bukkit.getWorld(args[1]);
+        if (world == null) {
+            sender.sendMessage("Unknown world " + args[1] + ".");
+            return true;
+        }
+
+        try {
+            plugin.repairPortal(sender, world, Integer.parseInt(args[2]), Integer.parseInt(args[3]), dryRun);
+        } catch (NumberFormatException exception) {
+            sender.sendMessage("Chunk coordinates must be whole numbers.");
+        }
+        return true;
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String label, String[] args) {
+        if (!sender.hasPermission(ADMIN_PERMISSION)) {
+            return args.length == 1 && sender.hasPermission(NEAREST_PERMISSION)
+                    ? matching(args[0], Collections.singletonList("nearest"))
+                    : Collections.<String>emptyList();
+        }
+
+        if (args.length == 1) {
+            return matching(args[0], Arrays.asList("repair", "audit", "reload", "metrics", "journal", "nearest"));
+        }
+
+        if (args.length == 2 && "audit".equalsIgnoreCase(args[0])) {
+            return matching(args[1], AUDIT_ACTIONS);
+        }
+
+        if (args.length == 2 && "journal".equalsIgnoreCase(args[0])) {
+            return matching(args[1], JOURNAL_SUBJECTS);
+        }
+
+        if (args.length == 3 && "journal".equalsIgnoreCase(args[0]) && "entity".equalsIgnoreCase(args[1])) {
+            List<String> names = new ArrayList<String>();
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                names.add(player.getName());
+            }
+            return matching(args[2], names);
+        }
+
+        if (args.length == 3 && "audit".equalsIgnoreCase(args[0])) {
+            List<String> names = new ArrayList<String>();
+            for (PortalNetwork network : plugin.getNetworks()) {
+                names.add(network.getName());
+            }
+            return matching(args[2], names);
+        }
+
+        if (args.length == 2 && "repair".equalsIgnoreCase(args[0])) {
+            List<String> options = new ArrayList<String>();
+            options.add(DRY_RUN);
+            for (World world : Bukkit.getWorlds()) {
+                options.add(world.getName());
+            }
+            return matching(args[1], options);
+        }
+
+        if (args.length == 5 && "repair".equalsIgnoreCase(args[0])) {
+            return matching(args[4], Collections.singletonList(DRY_RUN));
+        }
+
+        return Collections.emptyList();
+    }
+
+    private static List<String> matching(String prefix, List<String> options) {
+        List<String> matches = new ArrayList<String>();
+        for (String option : options) {
+            if (option.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                matches.add(option);
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,54 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+
+/**
+ * Notices changes to the blocks of verified portals and hands the canonical state of each changed
+ * block to the plugin to be put back.
+ *
+ * <p>This is what lets loaded gateways be trusted without reading their blocks every tick: a
+ * gateway stays valid until one of its blocks is reported here, and only the reported blocks are
+ * repaired rather than the whole chunk being verified again.</p>
+ */
+final class PortalIntegrityWatcher implements BlockChangeWatcher {
+
+    private final Loader plugin;
+    private final PortalBlocks blocks;
+
+    PortalIntegrityWatcher(Loader plugin, PortalBlocks blocks) {
+        this.plugin = plugin;
+        this.blocks = blocks;
+    }
+
+    @Override
+    public void onBlockChanged(World world, int x, int y, int z) {
+        PortalNetwork network = plugin.findNetwork(world);
+        if (network == null || !network.isPortalChunk(x >> 4, z >> 4)) {
+            return;
+        }
+
+        long key = Loader.chunkKey(x >> 4, z >> 4);
+        if (!network.getLoadedGateways().contains(key) && !network.getPendingPatches().containsKey(Long.valueOf(key))) {
+            return;
+        }
+
+        int baseY = network.getRegistry().getBaseY(key);
+        if (baseY == PortalRegistry.NO_ENTRY) {
+            return;
+        }
+
+        int startX = PortalStructure.getPortalStart(x >> 4);
+        int startZ = PortalStructure.getPortalStart(z >> 4);
+        Material material = PortalStructure.getManagedMaterial(x - startX, y - baseY, z - startZ);
+        if (material == null) {
+            return;
+        }
+
+        BlockData state = material == Material.END_PORTAL_FRAME
+                ? blocks.frame(PortalStructure.getFrameFacing(x - startX, z - startZ))
+                : blocks.of(material);
+        plugin.patchPortalBlock(network, world, x, y, z, state);
+    }
+}
@@ -0,0 +1,339 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * The set of chunks that hold a network portal.
+ *
+ * <p>A layout is a sorted table of ring distances (in chunks) around a center chunk. A chunk is a
+ * portal chunk when its distance from the center on both axes is a ring value, optionally only on
+ * the diagonals. Lookups are a branch-free binary search over a primitive array and never allocate.</p>
+ */
+final class PortalLayout {
+
+    static final int MAX_RING = 1874999;
+
+    private static final int MAX_GENERATED_RINGS = 4096;
+
+    private final int[] rings;
+    private final int offsetX;
+    private final int offsetZ;
+    private final boolean diagonalOnly;
+
+    PortalLayout(int[] rings, int offsetX, int offsetZ, boolean diagonalOnly) {
+        this.rings = sortedDistinct(rings);
+        this.offsetX = offsetX;
+        this.offsetZ = offsetZ;
+        this.diagonalOnly = diagonalOnly;
+    }
+
+    /**
+     * Reads a layout section made of explicit {@code rings}, {@code generated} sequences, per-axis
+     * offsets and the {@code diagonal-only} switch. Invalid entries are skipped with a warning.
+     */
+    static PortalLayout fromConfig(ConfigurationSection section, Logger logger) {
+        if (section == null) {
+            return new PortalLayout(new int[0], 0, 0, false);
+        }
+
+        int[] values = new int[16];
+        int count = 0;
+
+        for (Integer ring : section.getIntegerList("rings")) {
+            values = append(values, count++, ring.intValue());
+        }
+
+        for (Map<?, ?> sequence : section.getMapList("generated")) {
+            String type = String.valueOf(sequence.get("type"));
+            double start = number(sequence.get("start"), -1.0D);
+            int sequenceLength = (int) Math.min(number(sequence.get("count"), 0.0D), MAX_GENERATED_RINGS);
+            if (start < 0.0D || sequenceLength <= 0) {
+                logger.warning("Skipping generated ring sequence " + sequence + ": it needs a non-negative start and a positive count.");
+                continue;
+            }
+
+            if ("arithmetic".equalsIgnoreCase(type)) {
+                double step = number(sequence.get("step"), 0.0D);
+                for (int index = 0; index < sequenceLength; index++) {
+                    values = append(values, count++, (int) Math.min(start + step * index, Integer.MAX_VALUE));
+                }
+            } else if ("geometric".equalsIgnoreCase(type)) {
+                double ratio = number(sequence.get("ratio"), 0.0D);
+                double ring = start;
+                for (int index = 0; index < sequenceLength && ring <= MAX_RING; index++) {
+                    values = append(values, count++, (int) Math.round(ring));
+                    ring *= ratio;
+                }
+            } else {
+                logger.warning("Skipping generated ring sequence " + sequence + ": type must be arithmetic or geometric.");
+            }
+        }
+
+        int valid = 0;
+        for (int index = 0; index < count; index++) {
+            int ring = values[index];
+            if (ring < 0 || ring > MAX_RING) {
+                logger.warning("Ignoring portal ring " + ring + ": it must be between 0 and " + MAX_RING + ".");
+                continue;
+            }
+
+            values[valid++] = ring;
+        }
+
+        return new PortalLayout(
+                Arrays.copyOf(values, valid),
+                section.getInt("offset-x", 0),
+                section.getInt("offset-z", 0),
+                section.getBoolean("diagonal-only", false)
+        );
+    }
+
+    boolean contains(int chunkX, int chunkZ) {
+        int distanceX = Math.abs(chunkX - offsetX);
+        int distanceZ = Math.abs(chunkZ - offsetZ);
+        if (diagonalOnly && distanceX != distanceZ) {
+            return false;
+        }
+
+        return isRing(distanceX) && isRing(distanceZ);
+    }
+
+    boolean isRing(int distance) {
+        int[] table = rings;
+        int length = table.length;
+        if (length == 0) {
+            return false;
+        }
+
+        int base = 0;
+        while (length > 1) {
+            int half = length >>> 1;
+            base = table[base + half] <= distance ? base + half : base;
+            length -= half;
+        }
+
+        return table[base] == distance;
+    }
+
+    /**
+     * Returns the smallest chunk X at or after {@code chunkX} whose distance from the center is a
+     * ring, or {@link Integer#MAX_VALUE} if there is none. Only these columns can hold portals.
+     */
+    int nextRingChunkX(int chunkX) {
+        return nextRingCoordinate(chunkX, offsetX);
+    }
+
+    /**
+     * Returns the smallest chunk Z at or after {@code chunkZ} whose distance from the center is a
+     * ring, or {@link Integer#MAX_VALUE} if there is none.
+     */
+    int nextRingChunkZ(int chunkZ) {
+        return nextRingCoordinate(chunkZ, offsetZ);
+    }
+
+    private int nextRingCoordinate(int coordinate, int center) {
+        int distance = coordinate - center;
+        if (distance < 0) {
+            int index = Arrays.binarySearch(rings, -distance);
+            int below = index >= 0 ? index : -index - 2;
+            if (below >= 0) {
+                return center - rings[below];
+            }
+            distance = 0;
+        }
+
+        int index = Arrays.binarySearch(rings, distance);
+        int above = index >= 0 ? index : -index - 1;
+        return above < rings.length ? center + rings[above] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Number of slots walked by {@link #getSiteChunkX(long)} and {@link #getSiteChunkZ(long)}. Slots
+     * cover every ring pair in all four sign combinations; exactly one slot per portal chunk passes
+     * {@link #isSiteSlot(long)}, the others mirror a zero ring onto itself.
+     */
+    long getSiteSlotCount() {
+        long pairs = diagonalOnly ? rings.length : (long) rings.length * rings.length;
+        return pairs * 4L;
+    }
+
+    /**
+     * Number of distinct portal chunks in the layout.
+     */
+    long getSiteCount() {
+        int zeroRing = rings.length > 0 && rings[0] == 0 ? 1 : 0;
+        if (diagonalOnly) {
+            return 4L * (rings.length - zeroRing) + zeroRing;
+        }
+
+        long perAxis = 2L * rings.length - zeroRing;
+        return perAxis * perAxis;
+    }
+
+    boolean isSiteSlot(long slot) {
+        int signs = (int) (slot & 3L);
+        return ((signs & 1) == 0 || rings[ringIndexX(slot)] != 0)
+                && ((signs & 2) == 0 || rings[ringIndexZ(slot)] != 0);
+    }
+
+    int getSiteChunkX(long slot) {
+        int ring = rings[ringIndexX(slot)];
+        return (slot & 1L) == 0L ? offsetX + ring : offsetX - ring;
+    }
+
+    int getSiteChunkZ(long slot) {
+        int ring = rings[ringIndexZ(slot)];
+        return (slot & 2L) == 0L ? offsetZ + ring : offsetZ - ring;
+    }
+
+    private int ringIndexX(long slot) {
+        long pair = slot >>> 2;
+        return (int) (diagonalOnly ? pair : pair / rings.length);
+    }
+
+    private int ringIndexZ(long slot) {
+        long pair = slot >>> 2;
+        return (int) (diagonalOnly ? pair : pair % rings.length);
+    }
+
+    /**
+     * Returns the chunk key of the portal chunk nearest to a chunk by straight-line distance. The
+     * rings are symmetric around the center, so this is a binary search per axis, or one over the
+     * shared ring for diagonal-only layouts. The layout must have at least one ring.
+     */
+    long nearestSite(int chunkX, int chunkZ) {
+        long deltaX = (long) chunkX - offsetX;
+        long deltaZ = (long) chunkZ - offsetZ;
+        long ringX;
+        long ringZ;
+        if (diagonalOnly) {
+            long distanceX = Math.abs(deltaX);
+            long distanceZ = Math.abs(deltaZ);
+            int index = ringIndexAtOrBelow((distanceX + distanceZ) / 2L);
+            long below = rings[Math.max(index, 0)];
+            long above = rings[Math.min(index + 1, rings.length - 1)];
+            long costBelow = square(distanceX - below) + square(distanceZ - below);
+            long costAbove = square(distanceX - above) + square(distanceZ - above);
+            ringX = costBelow <= costAbove ? below : above;
+            ringZ = ringX;
+        } else {
+            ringX = nearestRing(Math.abs(deltaX));
+            ringZ = nearestRing(Math.abs(deltaZ));
+        }
+
+        return Loader.chunkKey(
+                (int) (offsetX + (deltaX < 0L ? -ringX : ringX)),
+                (int) (offsetZ + (deltaZ < 0L ? -ringZ : ringZ))
+        );
+    }
+
+    private long nearestRing(long distance) {
+        int index = ringIndexAtOrBelow(distance);
+        if (index < 0) {
+            return rings[0];
+        }
+
+        if (index + 1 < rings.length && rings[index + 1] - distance < distance - rings[index]) {
+            return rings[index + 1];
+        }
+        return rings[index];
+    }
+
+    /**
+     * Index of the largest ring not above the distance, or {@code -1} if every ring is larger.
+     */
+    private int ringIndexAtOrBelow(long distance) {
+        int low = 0;
+        int high = rings.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (rings[middle] <= distance) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return found;
+    }
+
+    private static long square(long value) {
+        return value * value;
+    }
+
+    int getRingCount() {
+        return rings.length;
+    }
+
+    int getRing(int index) {
+        return rings[index];
+    }
+
+    int getOffsetX() {
+        return offsetX;
+    }
+
+    int getOffsetZ() {
+        return offsetZ;
+    }
+
+    boolean isDiagonalOnly() {
+        return diagonalOnly;
+    }
+
+    private static int[] sortedDistinct(int[] values) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        int distinct = 0;
+        for (int index = 0; index < sorted.length; index++) {
+            if (distinct == 0 || sorted[distinct - 1] != sorted[index]) {
+                sorted[distinct++] = sorted[index];
+            }
+        }
+
+        return Arrays.copyOf(sorted, distinct);
+    }
+
+    private static int[] append(int[] values, int index, int value) {
+        int[] target = index < values.length ? values : Arrays.copyOf(values, values.length * 2);
+        target[index] = value;
+        return target;
+    }
+
+    private static double number(Object value, double fallback) {
+        return value instanceof Number ? ((Number) value).doubleValue() : fallback;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof PortalLayout)) {
+            return false;
+        }
+
+        PortalLayout layout = (PortalLayout) other;
+        return offsetX == layout.offsetX
+                && offsetZ == layout.offsetZ
+                && diagonalOnly == layout.diagonalOnly
+                && Arrays.equals(rings, layout.rings);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(rings);
+        result = 31 * result + offsetX;
+        result = 31 * result + offsetZ;
+        return 31 * result + (diagonalOnly ? 1 : 0);
+    }
+}
@@ -0,0 +1,164 @@
+package org.anarchadia.extendedportals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Always-on timings and counters for the work the plugin does on and off the main thread.
+ *
+ * <p>Everything is backed by striped counters, so recording is safe from the main thread and the
+ * verification workers alike and never allocates. Reading sums the stripes and is only done when
+ * the metrics are reported.</p>
+ */
+final class PortalMetrics {
+
+    private static final String PREFIX = "extendedportals_";
+    private static final double NANOS_PER_SECOND = 1.0E9D;
+    private static final double NANOS_PER_MILLI = 1.0E6D;
+
+    final LatencyHistogram verification = new LatencyHistogram("portal_verification", "Time spent verifying a portal chunk snapshot on a worker thread.");
+    final LatencyHistogram repair = new LatencyHistogram("portal_repair", "Main-thread time spent applying a portal repair plan.");
+    final LatencyHistogram poll = new LatencyHistogram("gateway_poll", "Main-thread time spent per tick checking loaded gateways.");
+    final LatencyHistogram teleport = new LatencyHistogram("gateway_teleport", "Main-thread time spent starting the teleports through a gateway in one tick.");
+    final LatencyHistogram arrival = new LatencyHistogram("arrival_platform", "Main-thread time spent preparing an arrival platform.");
+
+    final LongAdder blockReads = new LongAdder();
+    final LongAdder blockWrites = new LongAdder();
+    final LongAdder repairs = new LongAdder();
+    final LongAdder duplicateGatewaysRemoved = new LongAdder();
+    final LongAdder teleports = new LongAdder();
+    final LongAdder cooldownRejections = new LongAdder();
+    final LongAdder residencyHits = new LongAdder();
+    final LongAdder residencyMisses = new LongAdder();
+    final LongAdder residencyReleases = new LongAdder();
+    final LongAdder journalEntries = new LongAdder();
+    final LongAdder journalDropped = new LongAdder();
+
+    private final LatencyHistogram[] histograms = {verification, repair, poll, teleport, arrival};
+
+    /**
+     * Short human-readable summary for the admin command.
+     */
+    List<String> describe() {
+        List<String> lines = new ArrayList<String>();
+        for (LatencyHistogram histogram : histograms) {
+            long[] counts = histogram.snapshot();
+            long samples = total(counts);
+            double meanMillis = samples == 0L ? 0.0D : histogram.getTotalNanos() / (double) samples / NANOS_PER_MILLI;
+            lines.add(String.format(Locale.ROOT, "%s: %d samples, mean %.3f ms, p50 <= %.3f ms, p99 <= %.3f ms, total %.1f ms",
+                    histogram.getName(),
+                    samples,
+                    meanMillis,
+                    LatencyHistogram.quantileNanos(counts, 0.50D) / NANOS_PER_MILLI,
+                    LatencyHistogram.quantileNanos(counts, 0.99D) / NANOS_PER_MILLI,
+                    histogram.getTotalNanos() / NANOS_PER_MILLI));
+        }
+
+        lines.add("block reads: " + blockReads.sum() + ", block writes: " + blockWrites.sum() + ", repairs: " + repairs.sum()
+                + ", duplicate gateways removed: " + duplicateGatewaysRemoved.sum());
+        lines.add("teleports: " + teleports.sum() + ", cooldown rejections: " + cooldownRejections.sum());
+        lines.add("resident destinations: " + residencyHits.sum() + " hits, " + residencyMisses.sum() + " misses, "
+                + residencyReleases.sum() + " released");
+        lines.add("journal entries written: " + journalEntries.sum() + ", dropped: " + journalDropped.sum());
+        return lines;
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format.
+     */
+    String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        for (LatencyHistogram histogram : histograms) {
+            String name = PREFIX + histogram.getName() + "_seconds";
+            long[] counts = histogram.snapshot();
+            out.append("# HELP ").append(name).append(' ').append(histogram.getDescription()).append('\n');
+            out.append("# TYPE ").append(name).append(" histogram\n");
+
+            long cumulative = 0L;
+            for (int bucket = 0; bucket < counts.length - 1; bucket++) {
+                cumulative += counts[bucket];
+                out.append(name).append("_bucket{le=\"")
+                        .append(formatSeconds(LatencyHistogram.upperBoundNanos(bucket)))
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += counts[counts.length - 1];
+            out.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+            out.append(name).append("_sum ").append(formatSeconds(histogram.getTotalNanos())).append('\n');
+            out.append(name).append("_count ").append(cumulative).append('\n');
+        }
+
+        appendCounter(out, "block_reads_total", "Blocks read while verifying portals.", blockReads);
+        appendCounter(out, "block_writes_total", "Blocks written while building or repairing portals and platforms.", blockWrites);
+        appendCounter(out, "repairs_total", "Portal verifications that had to change blocks.", repairs);
+        appendCounter(out, "duplicate_gateways_removed_total", "Stray duplicate gateways cleared from portal chunks.", duplicateGatewaysRemoved);
+        appendCounter(out, "teleports_total", "Gateway teleports completed.", teleports);
+        appendCounter(out, "cooldown_rejections_total", "Gateway entries ignored because the entity was cooling down.", cooldownRejections);
+        appendCounter(out, "destination_residency_hits_total", "Teleports whose destination chunk was already held loaded.", residencyHits);
+        appendCounter(out, "destination_residency_misses_total", "Teleports whose destination chunk had to be loaded and was then held.", residencyMisses);
+        appendCounter(out, "destination_residency_releases_total", "Held destination chunks released after going idle or being pushed out.", residencyReleases);
+        appendCounter(out, "journal_entries_total", "Teleports written to the teleport journal.", journalEntries);
+        appendCounter(out, "journal_dropped_total", "Teleports left out of the journal because its buffer was full.", journalDropped);
+        return out.toString();
+    }
+
+    /**
+     * Renders every metric as a single JSON object.
+     */
+    String toJson() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("{\n  \"histograms\": {");
+        for (int index = 0; index < histograms.length; index++) {
+            LatencyHistogram histogram = histograms[index];
+            long[] counts = histogram.snapshot();
+            out.append(index == 0 ? "\n" : ",\n");
+            out.append("    \"").append(histogram.getName()).append("\": {\"count\": ").append(total(counts))
+                    .append(", \"sumNanos\": ").append(histogram.getTotalNanos())
+                    .append(", \"p50Nanos\": ").append(LatencyHistogram.quantileNanos(counts, 0.50D))
+                    .append(", \"p99Nanos\": ").append(LatencyHistogram.quantileNanos(counts, 0.99D))
+                    .append(", \"buckets\": [");
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                if (bucket > 0) {
+                    out.append(", ");
+                }
+                out.append(counts[bucket]);
+            }
+            out.append("]}");
+        }
+
+        out.append("\n  },\n  \"counters\": {\n");
+        out.append("    \"blockReads\": ").append(blockReads.sum()).append(",\n");
+        out.append("    \"blockWrites\": ").append(blockWrites.sum()).append(",\n");
+        out.append("    \"repairs\": ").append(repairs.sum()).append(",\n");
+        out.append("    \"duplicateGatewaysRemoved\": ").append(duplicateGatewaysRemoved.sum()).append(",\n");
+        out.append("    \"teleports\": ").append(teleports.sum()).append(",\n");
+        out.append("    \"cooldownRejections\": ").append(cooldownRejections.sum()).append(",\n");
+        out.append("    \"residencyHits\": ").append(residencyHits.sum()).append(",\n");
+        out.append("    \"residencyMisses\": ").append(residencyMisses.sum()).append(",\n");
+        out.append("    \"residencyReleases\": ").append(residencyReleases.sum()).append(",\n");
+        out.append("    \"journalEntries\": ").append(journalEntries.sum()).append(",\n");
+        out.append("    \"journalDropped\": ").append(journalDropped.sum()).append('\n');
+        out.append("  }\n}\n");
+        return out.toString();
+    }
+
+    private static void appendCounter(StringBuilder out, String suffix, String description, LongAdder counter) {
+        String name = PREFIX + suffix;
+        out.append("# HELP ").append(name).append(' ').append(description).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(counter.sum()).append('\n');
+    }
+
+    private static String formatSeconds(long nanos) {
+        return Double.toString(nanos / NANOS_PER_SECOND);
+    }
+
+    private static long total(long[] counts) {
+        long total = 0L;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,201 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.World;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One portal network: the gateways in a source world and the world they lead to.
+ *
+ * <p>Worlds are configured by name but bound to the loaded {@link World} instances when they load,
+ * so every lookup on the chunk and entity paths is by identity. Each network keeps its own layout,
+ * registry, arrival platform cache and loaded gateway table, keyed by chunk within its source
+ * world, and the destination chunks it holds loaded. The tables are concurrent or locked so region
+ * threads on Folia can share a network. The layout can be swapped by a configuration reload.</p>
+ */
+final class PortalNetwork {
+
+    private final String name;
+    private final String sourceWorldName;
+    private final String destinationWorldName;
+    private final PortalRegistry registry;
+    private final ArrivalPlatformCache arrivalPlatforms;
+    private final PortalAudit audit;
+
+    private final GatewayTable loadedGateways = new GatewayTable();
+    private final Set<Long> pendingVerifications = ConcurrentHashMap.<Long>newKeySet();
+    private final Map<Long, Long> prewarmedDestinations = new ConcurrentHashMap<Long, Long>();
+    private final Map<Long, PortalTask> gatewayTasks = new ConcurrentHashMap<Long, PortalTask>();
+    private final Map<Long, BlockEditPlan> pendingPatches = new ConcurrentHashMap<Long, BlockEditPlan>();
+
+    private volatile PortalLayout layout;
+    private volatile DestinationResidency residency;
+    private volatile World source;
+    private volatile World destination;
+    private volatile boolean warnedAboutMissingDestination;
+
+    PortalNetwork(String name, String sourceWorldName, String destinationWorldName, PortalLayout layout,
+                  File directory, int platformRadius, int platformClearanceHeight, boolean returnGateways) {
+        this.name = name;
+        this.sourceWorldName = sourceWorldName;
+        this.destinationWorldName = destinationWorldName;
+        this.layout = layout;
+        this.registry = new PortalRegistry(new File(directory, "portals.dat"));
+        this.arrivalPlatforms = new ArrivalPlatformCache(new File(directory, "platforms.dat"), platformRadius, platformClearanceHeight, returnGateways);
+        this.audit = new PortalAudit(new File(directory, "audit.dat"), layout);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getSourceWorldName() {
+        return sourceWorldName;
+    }
+
+    String getDestinationWorldName() {
+        return destinationWorldName;
+    }
+
+    PortalLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Replaces the layout and restarts the audit on it. Portals of sites that are no longer part of
+     * the layout are left to the caller.
+     */
+    void setLayout(PortalLayout layout) {
+        this.layout = layout;
+        audit.changeLayout(layout);
+    }
+
+    PortalRegistry getRegistry() {
+        return registry;
+    }
+
+    ArrivalPlatformCache getArrivalPlatforms() {
+        return arrivalPlatforms;
+    }
+
+    PortalAudit getAudit() {
+        return audit;
+    }
+
+    /**
+     * The destination chunks held loaded for arrivals, or {@code null} until the plugin sets it.
+     */
+    DestinationResidency getResidency() {
+        return residency;
+    }
+
+    void setResidency(DestinationResidency residency) {
+        this.residency = residency;
+    }
+
+    GatewayTable getLoadedGateways() {
+        return loadedGateways;
+    }
+
+    Set<Long> getPendingVerifications() {
+        return pendingVerifications;
+    }
+
+    Map<Long, Long> getPrewarmedDestinations() {
+        return prewarmedDestinations;
+    }
+
+    /**
+     * Per-gateway poll tasks, only used when gateways are polled by their own region.
+     */
+    Map<Long, PortalTask> getGatewayTasks() {
+        return gatewayTasks;
+    }
+
+    /**
+     * Blocks knocked out of verified portals, keyed by chunk, waiting to be put back.
+     */
+    Map<Long, BlockEditPlan> getPendingPatches() {
+        return pendingPatches;
+    }
+
+    void cancelGatewayTask(long key) {
+        PortalTask task = gatewayTasks.remove(Long.valueOf(key));
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * The bound source world, or {@code null} while it is not loaded.
+     */
+    World getSource() {
+        return source;
+    }
+
+    /**
+     * The bound destination world, or {@code null} while it is not loaded.
+     */
+    World getDestination() {
+        return destination;
+    }
+
+    boolean isSourceWorldName(String worldName) {
+        return sourceWorldName.equalsIgnoreCase(worldName);
+    }
+
+    boolean isDestinationWorldName(String worldName) {
+        return destinationWorldName.equalsIgnoreCase(worldName);
+    }
+
+    void bindSource(World world) {
+        source = world;
+    }
+
+    void bindDestination(World world) {
+        destination = world;
+        warnedAboutMissingDestination = false;
+    }
+
+    /**
+     * Forgets the source world and everything tracked about its loaded chunks.
+     */
+    void unbindSource() {
+        source = null;
+        loadedGateways.clear();
+        pendingVerifications.clear();
+        pendingPatches.clear();
+        for (PortalTask task : gatewayTasks.values()) {
+            task.cancel();
+        }
+        gatewayTasks.clear();
+    }
+
+    void unbindDestination() {
+        destination = null;
+        prewarmedDestinations.clear();
+        DestinationResidency currentResidency = residency;
+        if (currentResidency != null) {
+            currentResidency.clear();
+        }
+    }
+
+    boolean isPortalChunk(int chunkX, int chunkZ) {
+        return layout.contains(chunkX, chunkZ);
+    }
+
+    /**
+     * Returns {@code true} the first time it is called while the destination is missing.
+     */
+    synchronized boolean shouldWarnAboutMissingDestination() {
+        if (warnedAboutMissingDestination) {
+            return false;
+        }
+
+        warnedAboutMissingDestination = true;
+        return true;
+    }
+}
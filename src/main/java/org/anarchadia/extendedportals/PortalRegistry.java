@@ -0,0 +1,190 @@
+package org.anarchadia.extendedportals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Persistent record of every portal the plugin has verified, keyed by chunk.
+ *
+ * <p>Entries are packed into parallel primitive arrays indexed by a {@link LongIntMap} from chunk
+ * key to entry, so a chunk load only costs a keyed probe. Removal moves the last entry into the
+ * hole. The table is written to a small binary file in the plugin data folder and read back on
+ * enable. All table access is synchronized, since on Folia chunks of different regions are
+ * verified on different threads.</p>
+ */
+final class PortalRegistry {
+
+    static final int NO_ENTRY = Integer.MIN_VALUE;
+    static final byte STATE_VERIFIED = 1;
+    static final byte STATE_REPAIRED = 2;
+
+    private static final int FILE_MAGIC = 0x45505247; // "EPRG"
+    private static final int FILE_VERSION = 1;
+    private static final int RECORD_BYTES = 8 + 4 + 1 + 8;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final StateFile file;
+    private final LongIntMap indexes = new LongIntMap(INITIAL_CAPACITY);
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[] baseYs = new int[INITIAL_CAPACITY];
+    private byte[] states = new byte[INITIAL_CAPACITY];
+    private long[] verifiedAt = new long[INITIAL_CAPACITY];
+    private int size;
+    private boolean dirty;
+
+    PortalRegistry(File file) {
+        this.file = new StateFile(file);
+    }
+
+    synchronized int getBaseY(long chunkKey) {
+        int index = indexes.get(chunkKey, -1);
+        return index < 0 ? NO_ENTRY : baseYs[index];
+    }
+
+    synchronized byte getState(long chunkKey) {
+        int index = indexes.get(chunkKey, -1);
+        return index < 0 ? 0 : states[index];
+    }
+
+    synchronized void record(long chunkKey, int baseY, byte state, long now) {
+        int index = indexes.get(chunkKey, -1);
+        if (index < 0) {
+            if (size == keys.length) {
+                grow();
+            }
+
+            index = size++;
+            keys[index] = chunkKey;
+            indexes.put(chunkKey, index);
+        }
+
+        baseYs[index] = baseY;
+        states[index] = state;
+        verifiedAt[index] = now;
+        dirty = true;
+    }
+
+    synchronized void remove(long chunkKey) {
+        int index = indexes.get(chunkKey, -1);
+        if (index < 0) {
+            return;
+        }
+
+        indexes.remove(chunkKey);
+        int last = --size;
+        if (index != last) {
+            keys[index] = keys[last];
+            baseYs[index] = baseYs[last];
+            states[index] = states[last];
+            verifiedAt[index] = verifiedAt[last];
+            indexes.put(keys[index], index);
+        }
+        dirty = true;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    synchronized void load() throws IOException {
+        if (!file.getFile().isFile()) {
+            return;
+        }
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.getFile().toPath())));
+        try {
+            if (input.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a portal registry file: " + file.getFile());
+            }
+
+            int version = input.readInt();
+            if (version != FILE_VERSION) {
+                throw new IOException("Unsupported portal registry version " + version + " in " + file.getFile());
+            }
+
+            int count = input.readInt();
+            if (count < 0) {
+                throw new IOException("Corrupt portal registry entry count " + count + " in " + file.getFile());
+            }
+
+            for (int index = 0; index < count; index++) {
+                long chunkKey = input.readLong();
+                int baseY = input.readInt();
+                byte state = input.readByte();
+                long lastVerifiedAt = input.readLong();
+                if (state == 0) {
+                    continue;
+                }
+
+                record(chunkKey, baseY, state, lastVerifiedAt);
+            }
+        } finally {
+            input.close();
+        }
+
+        dirty = false;
+    }
+
+    /**
+     * Serializes the current table so it can be written off the main thread. The table counts as
+     * saved from here on; {@link #write} marks it dirty again if the write fails.
+     */
+    synchronized byte[] snapshot() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(12 + size * RECORD_BYTES);
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+            output.writeInt(size);
+            for (int index = 0; index < size; index++) {
+                output.writeLong(keys[index]);
+                output.writeInt(baseYs[index]);
+                output.writeByte(states[index]);
+                output.writeLong(verifiedAt[index]);
+            }
+        } catch (IOException exception) {
+            throw new IllegalStateException("In-memory registry serialization failed", exception);
+        }
+
+        dirty = false;
+        byte[] snapshot = bytes.toByteArray();
+        file.taken(snapshot);
+        return snapshot;
+    }
+
+    void save() throws IOException {
+        write(snapshot());
+    }
+
+    void write(byte[] data) throws IOException {
+        try {
+            file.write(data);
+        } catch (IOException exception) {
+            markDirty();
+            throw exception;
+        }
+    }
+
+    private synchronized void markDirty() {
+        dirty = true;
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        baseYs = Arrays.copyOf(baseYs, capacity);
+        states = Arrays.copyOf(states, capacity);
+        verifiedAt = Arrays.copyOf(verifiedAt, capacity);
+    }
+}
@@ -0,0 +1,62 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Runs the plugin's tasks on the thread that owns the data they touch.
+ *
+ * <p>On Paper that is the main thread for everything. On Folia the world is split into regions
+ * ticked in parallel, so chunk work runs on the region owning the chunk, entity work on the
+ * entity's scheduler and server-wide timers on the global region.</p>
+ */
+interface PortalScheduler {
+
+    /**
+     * Whether the server ticks regions on separate threads, i.e. whether this is Folia.
+     */
+    boolean isRegionThreaded();
+
+    /**
+     * Runs a server-wide repeating task: on the main thread, or the global region on Folia.
+     */
+    PortalTask runTimer(Runnable task, long delayTicks, long periodTicks);
+
+    void runAsync(Runnable task);
+
+    PortalTask runAsyncTimer(Runnable task, long delayTicks, long periodTicks);
+
+    /**
+     * Runs a task on the thread owning a chunk, immediately if the caller already owns it.
+     */
+    void runAtChunk(World world, int chunkX, int chunkZ, Runnable task);
+
+    void runAtChunkLater(World world, int chunkX, int chunkZ, Runnable task, long delayTicks);
+
+    PortalTask runAtChunkTimer(World world, int chunkX, int chunkZ, Runnable task, long delayTicks, long periodTicks);
+
+    /**
+     * Runs a task on the thread owning an entity after the given number of ticks, immediately if
+     * the delay is zero and the caller already owns the entity. The task is dropped if the entity
+     * is removed first.
+     */
+    void runForEntity(Entity entity, Runnable task, long delayTicks);
+
+    /**
+     * Whether the calling thread may read and move the entity.
+     */
+    boolean ownsEntity(Entity entity);
+
+    /**
+     * Picks the implementation matching the running server.
+     */
+    static PortalScheduler create(Plugin plugin) {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return new FoliaPortalScheduler(plugin);
+        } catch (ClassNotFoundException exception) {
+            return new BukkitPortalScheduler(plugin);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+
+/**
+ * Geometry of a network portal: the 5x5 end portal pad and the bedrock-shelled gateway above it.
+ */
+final class PortalStructure {
+
+    static final int PORTAL_SIZE = 5;
+    static final int PORTAL_OFFSET_IN_CHUNK = 7;
+    static final int PORTAL_CENTER_OFFSET = PORTAL_SIZE / 2;
+    static final int PORTAL_CLEARANCE_HEIGHT = 3;
+    static final int GATEWAY_Y_OFFSET = 10;
+    static final int GATEWAY_SHELL_OFFSET = 2;
+
+    private PortalStructure() {
+    }
+
+    static int getPortalStart(int chunkCoordinate) {
+        return (chunkCoordinate << 4) + PORTAL_OFFSET_IN_CHUNK;
+    }
+
+    static int clampBaseY(int baseY, int minHeight, int maxHeight) {
+        int maxBaseY = maxHeight - GATEWAY_Y_OFFSET - GATEWAY_SHELL_OFFSET - 1;
+        return Math.max(minHeight, Math.min(baseY, maxBaseY));
+    }
+
+    /**
+     * Returns the block expected on the portal pad at an offset from the pad's north-west corner.
+     */
+    static Material getBaseMaterial(int offsetX, int offsetZ) {
+        boolean isXBoundary = offsetX == 0 || offsetX == PORTAL_SIZE - 1;
+        boolean isZBoundary = offsetZ == 0 || offsetZ == PORTAL_SIZE - 1;
+        if (isXBoundary && isZBoundary) {
+            return Material.AIR;
+        }
+
+        return isXBoundary || isZBoundary ? Material.END_PORTAL_FRAME : Material.END_PORTAL;
+    }
+
+    /**
+     * Returns the direction a frame block at an offset from the pad's north-west corner has to face.
+     */
+    static BlockFace getFrameFacing(int offsetX, int offsetZ) {
+        if (offsetX == 0) {
+            return BlockFace.EAST;
+        } else if (offsetX == PORTAL_SIZE - 1) {
+            return BlockFace.WEST;
+        } else if (offsetZ == 0) {
+            return BlockFace.SOUTH;
+        } else if (offsetZ == PORTAL_SIZE - 1) {
+            return BlockFace.NORTH;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the managed material the portal holds at an offset from the pad's north-west corner
+     * and base height, or {@code null} where the structure holds air or nothing at all.
+     */
+    static Material getManagedMaterial(int offsetX, int offsetY, int offsetZ) {
+        if (offsetY == 0) {
+            if (offsetX < 0 || offsetX >= PORTAL_SIZE || offsetZ < 0 || offsetZ >= PORTAL_SIZE) {
+                return null;
+            }
+
+            Material material = getBaseMaterial(offsetX, offsetZ);
+            return material == Material.AIR ? null : material;
+        }
+
+        int deltaX = offsetX - PORTAL_CENTER_OFFSET;
+        int deltaY = offsetY - GATEWAY_Y_OFFSET;
+        int deltaZ = offsetZ - PORTAL_CENTER_OFFSET;
+        if (deltaX == 0 && deltaZ == 0) {
+            if (deltaY == 0) {
+                return Material.END_GATEWAY;
+            }
+
+            return Math.abs(deltaY) == GATEWAY_SHELL_OFFSET ? Material.BEDROCK : null;
+        }
+
+        return Math.abs(deltaY) == 1 && Math.abs(deltaX) + Math.abs(deltaZ) == 1 ? Material.BEDROCK : null;
+    }
+
+    static boolean isManagedMaterial(Material material) {
+        return material == Material.END_PORTAL
+                || material == Material.END_PORTAL_FRAME
+                || material == Material.END_GATEWAY
+                || material == Material.BEDROCK;
+    }
+}
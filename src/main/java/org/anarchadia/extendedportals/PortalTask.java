@@ -0,0 +1,9 @@
+package org.anarchadia.extendedportals;
+
+/**
+ * Handle to a repeating task started through a {@link PortalScheduler}.
+ */
+interface PortalTask {
+
+    void cancel();
+}
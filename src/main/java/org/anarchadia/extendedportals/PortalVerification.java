@@ -0,0 +1,372 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.type.EndPortalFrame;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.anarchadia.extendedportals.PortalStructure.GATEWAY_SHELL_OFFSET;
+import static org.anarchadia.extendedportals.PortalStructure.GATEWAY_Y_OFFSET;
+import static org.anarchadia.extendedportals.PortalStructure.PORTAL_CENTER_OFFSET;
+import static org.anarchadia.extendedportals.PortalStructure.PORTAL_CLEARANCE_HEIGHT;
+import static org.anarchadia.extendedportals.PortalStructure.PORTAL_OFFSET_IN_CHUNK;
+import static org.anarchadia.extendedportals.PortalStructure.PORTAL_SIZE;
+
+/**
+ * One verification pass over a snapshot of a portal chunk.
+ *
+ * <p>The pass only reads from the {@link ChunkSnapshot}, so it runs on a worker thread. Writes it
+ * wants to make are staged on top of the snapshot and later reduced to a {@link RepairPlan} that
+ * the main thread applies.</p>
+ */
+final class PortalVerification {
+
+    private static final int START = PORTAL_OFFSET_IN_CHUNK;
+    private static final int CENTER = PORTAL_OFFSET_IN_CHUNK + PORTAL_CENTER_OFFSET;
+    private static final int SIGNATURE_BLOCKS = 4;
+
+    private final ChunkSnapshot snapshot;
+    private final PortalBlocks blocks;
+    private final int minHeight;
+    private final int maxHeight;
+    private final Map<Long, Material> stagedWrites = new LinkedHashMap<Long, Material>();
+    private final List<Integer> gatewayBases = new ArrayList<Integer>();
+    private int signatureBaseY = PortalRegistry.NO_ENTRY;
+    private int blockReads;
+    private int duplicateGateways;
+
+    PortalVerification(ChunkSnapshot snapshot, PortalBlocks blocks, int minHeight, int maxHeight) {
+        this.snapshot = snapshot;
+        this.blocks = blocks;
+        this.minHeight = minHeight;
+        this.maxHeight = maxHeight;
+    }
+
+    /**
+     * Locates the portal in the snapshot and works out what has to change to make it canonical.
+     *
+     * @param registeredBaseY base height recorded in the registry, or {@link PortalRegistry#NO_ENTRY}
+     * @param highestY        highest motion-blocking block above the portal center, read on the main thread
+     */
+    RepairPlan run(int registeredBaseY, int highestY) {
+        int baseY;
+        if (registeredBaseY != PortalRegistry.NO_ENTRY && isRegisteredPortalPresent(registeredBaseY)) {
+            baseY = registeredBaseY;
+            stageRepair(baseY);
+        } else {
+            scanColumn();
+            if (!gatewayBases.isEmpty()) {
+                baseY = gatewayBases.get(0);
+
+                for (int index = 1; index < gatewayBases.size(); index++) {
+                    stageClear(gatewayBases.get(index));
+                }
+                duplicateGateways = gatewayBases.size() - 1;
+
+                stageRepair(baseY);
+            } else {
+                baseY = signatureBaseY != PortalRegistry.NO_ENTRY ? signatureBaseY : resolvePortalBaseY(highestY);
+                stageBuild(baseY);
+            }
+        }
+
+        return toPlan(baseY);
+    }
+
+    /**
+     * Number of snapshot block reads the pass made.
+     */
+    int getBlockReads() {
+        return blockReads;
+    }
+
+    private boolean isRegisteredPortalPresent(int baseY) {
+        int gatewayY = baseY + GATEWAY_Y_OFFSET;
+        if (isWithinBuildHeight(gatewayY) && typeAt(CENTER, gatewayY, CENTER) == Material.END_GATEWAY) {
+            return true;
+        }
+
+        return isWithinBuildHeight(baseY) && hasPortalSignatureAt(baseY);
+    }
+
+    /**
+     * Collects every gateway on the center column and the lowest portal pad signature in a single
+     * pass from the bottom of the world. Air-only sections are skipped, and each search only runs
+     * while the chunk's palettes hold a block it looks for. The signature search stops at the first
+     * gateway, since a gateway always takes precedence over a bare pad.
+     */
+    private void scanColumn() {
+        boolean findGateways = snapshot.contains(blocks.endGateway);
+        boolean findSignature = blocks.containsPadBlock(snapshot);
+        int y = minHeight;
+        while (y < maxHeight && (findGateways || findSignature)) {
+            int sectionTop = Math.min(minHeight + ((((y - minHeight) >> 4) + 1) << 4), maxHeight);
+            if (snapshot.isSectionEmpty((y - minHeight) >> 4)) {
+                y = sectionTop;
+                continue;
+            }
+
+            for (; y < sectionTop; y++) {
+                if (findGateways && typeAt(CENTER, y, CENTER) == Material.END_GATEWAY) {
+                    int baseY = y - GATEWAY_Y_OFFSET;
+                    if (isWithinBuildHeight(baseY)) {
+                        gatewayBases.add(Integer.valueOf(baseY));
+                        findSignature = false;
+                    }
+                }
+
+                if (findSignature && hasPortalSignatureAt(y)) {
+                    signatureBaseY = y;
+                    findSignature = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the pad layer at a height holds enough portal blocks to be a portal. Stops as soon as
+     * the answer is settled either way.
+     */
+    private boolean hasPortalSignatureAt(int baseY) {
+        int portalBlockCount = 0;
+        int remaining = PORTAL_SIZE * PORTAL_SIZE;
+
+        for (int x = START; x < START + PORTAL_SIZE; x++) {
+            for (int z = START; z < START + PORTAL_SIZE; z++) {
+                Material material = typeAt(x, baseY, z);
+                if (material == Material.END_PORTAL || material == Material.END_PORTAL_FRAME) {
+                    if (++portalBlockCount >= SIGNATURE_BLOCKS) {
+                        return true;
+                    }
+                }
+
+                if (portalBlockCount + --remaining < SIGNATURE_BLOCKS) {
+                    return false;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private int resolvePortalBaseY(int highestY) {
+        for (int y = Math.min(highestY, maxHeight - 1); y >= minHeight; y--) {
+            if (snapshot.isSectionEmpty((y - minHeight) >> 4)) {
+                y = minHeight + (((y - minHeight) >> 4) << 4);
+                continue;
+            }
+
+            Material material = typeAt(CENTER, y, CENTER);
+            if (material == Material.AIR || PortalStructure.isManagedMaterial(material)) {
+                continue;
+            }
+
+            return PortalStructure.clampBaseY(y, minHeight, maxHeight);
+        }
+
+        return PortalStructure.clampBaseY(highestY, minHeight, maxHeight);
+    }
+
+    private boolean isPortalStructureComplete(int baseY) {
+        if (!isWithinBuildHeight(baseY) || !isWithinBuildHeight(baseY + GATEWAY_Y_OFFSET + GATEWAY_SHELL_OFFSET)) {
+            return false;
+        }
+
+        for (int x = START; x < START + PORTAL_SIZE; x++) {
+            for (int z = START; z < START + PORTAL_SIZE; z++) {
+                Material expected = PortalStructure.getBaseMaterial(x - START, z - START);
+                if (expected != Material.AIR && typeAt(x, baseY, z) != expected) {
+                    return false;
+                }
+            }
+        }
+
+        int gatewayY = baseY + GATEWAY_Y_OFFSET;
+        if (typeAt(CENTER, gatewayY, CENTER) != Material.END_GATEWAY) {
+            return false;
+        }
+
+        if (typeAt(CENTER, gatewayY + GATEWAY_SHELL_OFFSET, CENTER) != Material.BEDROCK) {
+            return false;
+        }
+
+        if (typeAt(CENTER, gatewayY - GATEWAY_SHELL_OFFSET, CENTER) != Material.BEDROCK) {
+            return false;
+        }
+
+        return typeAt(CENTER - 1, gatewayY + 1, CENTER) == Material.BEDROCK
+                && typeAt(CENTER + 1, gatewayY + 1, CENTER) == Material.BEDROCK
+                && typeAt(CENTER, gatewayY + 1, CENTER - 1) == Material.BEDROCK
+                && typeAt(CENTER, gatewayY + 1, CENTER + 1) == Material.BEDROCK
+                && typeAt(CENTER - 1, gatewayY - 1, CENTER) == Material.BEDROCK
+                && typeAt(CENTER + 1, gatewayY - 1, CENTER) == Material.BEDROCK
+                && typeAt(CENTER, gatewayY - 1, CENTER - 1) == Material.BEDROCK
+                && typeAt(CENTER, gatewayY - 1, CENTER + 1) == Material.BEDROCK;
+    }
+
+    private void stageRepair(int baseY) {
+        if (!isPortalStructureComplete(baseY)) {
+            stageBuild(baseY);
+        } else {
+            stageGateway(baseY + GATEWAY_Y_OFFSET);
+        }
+    }
+
+    private void stageBuild(int baseY) {
+        int clampedBaseY = PortalStructure.clampBaseY(baseY, minHeight, maxHeight);
+
+        for (int x = START; x < START + PORTAL_SIZE; x++) {
+            for (int z = START; z < START + PORTAL_SIZE; z++) {
+                stage(x, clampedBaseY, z, PortalStructure.getBaseMaterial(x - START, z - START));
+
+                for (int y = 1; y <= PORTAL_CLEARANCE_HEIGHT; y++) {
+                    stage(x, clampedBaseY + y, z, Material.AIR);
+                }
+            }
+        }
+
+        stageGateway(clampedBaseY + GATEWAY_Y_OFFSET);
+    }
+
+    private void stageGateway(int centerY) {
+        stage(CENTER, centerY - 1, CENTER, Material.AIR);
+        stage(CENTER, centerY + 1, CENTER, Material.AIR);
+
+        stage(CENTER, centerY + GATEWAY_SHELL_OFFSET, CENTER, Material.BEDROCK);
+        stage(CENTER, centerY - GATEWAY_SHELL_OFFSET, CENTER, Material.BEDROCK);
+
+        for (int offset = -1; offset <= 1; offset += 2) {
+            stage(CENTER + offset, centerY + 1, CENTER, Material.BEDROCK);
+            stage(CENTER, centerY + 1, CENTER + offset, Material.BEDROCK);
+            stage(CENTER + offset, centerY - 1, CENTER, Material.BEDROCK);
+            stage(CENTER, centerY - 1, CENTER + offset, Material.BEDROCK);
+        }
+
+        stage(CENTER, centerY, CENTER, Material.END_GATEWAY);
+    }
+
+    private void stageClear(int baseY) {
+        for (int x = START; x < START + PORTAL_SIZE; x++) {
+            for (int z = START; z < START + PORTAL_SIZE; z++) {
+                for (int y = 0; y <= PORTAL_CLEARANCE_HEIGHT; y++) {
+                    stageClearManaged(x, baseY + y, z);
+                }
+            }
+        }
+
+        int gatewayY = baseY + GATEWAY_Y_OFFSET;
+
+        stageClearManaged(CENTER, gatewayY, CENTER);
+        stageClearManaged(CENTER, gatewayY + 1, CENTER);
+        stageClearManaged(CENTER, gatewayY - 1, CENTER);
+        stageClearManaged(CENTER, gatewayY + GATEWAY_SHELL_OFFSET, CENTER);
+        stageClearManaged(CENTER, gatewayY - GATEWAY_SHELL_OFFSET, CENTER);
+
+        for (int offset = -1; offset <= 1; offset += 2) {
+            stageClearManaged(CENTER + offset, gatewayY + 1, CENTER);
+            stageClearManaged(CENTER, gatewayY + 1, CENTER + offset);
+            stageClearManaged(CENTER + offset, gatewayY - 1, CENTER);
+            stageClearManaged(CENTER, gatewayY - 1, CENTER + offset);
+        }
+    }
+
+    private void stageClearManaged(int x, int y, int z) {
+        if (PortalStructure.isManagedMaterial(typeAt(x, y, z))) {
+            stage(x, y, z, Material.AIR);
+        }
+    }
+
+    private void stage(int x, int y, int z, Material material) {
+        if (isWithinBuildHeight(y)) {
+            stagedWrites.put(Long.valueOf(pack(x, y, z)), material);
+        }
+    }
+
+    /**
+     * Reads a block as it will look once the writes staged so far have been applied.
+     */
+    private Material typeAt(int x, int y, int z) {
+        if (!isWithinBuildHeight(y)) {
+            return Material.VOID_AIR;
+        }
+
+        Material staged = stagedWrites.get(Long.valueOf(pack(x, y, z)));
+        if (staged != null) {
+            return staged;
+        }
+
+        blockReads++;
+        return snapshot.getBlockType(x, y, z);
+    }
+
+    private RepairPlan toPlan(int baseY) {
+        int originX = snapshot.getX() << 4;
+        int originZ = snapshot.getZ() << 4;
+        RepairPlan plan = new RepairPlan(snapshot.getX(), snapshot.getZ(), baseY, duplicateGateways, stagedWrites.size());
+
+        for (Map.Entry<Long, Material> write : stagedWrites.entrySet()) {
+            long packed = write.getKey().longValue();
+            int x = unpackX(packed);
+            int y = unpackY(packed);
+            int z = unpackZ(packed);
+            Material material = write.getValue();
+            if (!differs(x, y, z, material)) {
+                continue;
+            }
+
+            BlockData state = material == Material.END_PORTAL_FRAME
+                    ? blocks.frame(PortalStructure.getFrameFacing(x - START, z - START))
+                    : blocks.of(material);
+            plan.getEdits().set(originX + x, y, originZ + z, state);
+        }
+
+        return plan;
+    }
+
+    private boolean differs(int x, int y, int z, Material desired) {
+        blockReads++;
+        Material current = snapshot.getBlockType(x, y, z);
+        if (current != desired) {
+            return true;
+        }
+
+        if (desired != Material.END_PORTAL_FRAME) {
+            return false;
+        }
+
+        BlockData data = snapshot.getBlockData(x, y, z);
+        if (!(data instanceof EndPortalFrame)) {
+            return true;
+        }
+
+        EndPortalFrame frame = (EndPortalFrame) data;
+        BlockFace facing = PortalStructure.getFrameFacing(x - START, z - START);
+        return !frame.hasEye() || (facing != null && frame.getFacing() != facing);
+    }
+
+    private boolean isWithinBuildHeight(int y) {
+        return y >= minHeight && y < maxHeight;
+    }
+
+    private static long pack(int x, int y, int z) {
+        return ((long) y << 8) | (x << 4) | z;
+    }
+
+    private static int unpackX(long packed) {
+        return (int) (packed >> 4) & 0xF;
+    }
+
+    private static int unpackY(long packed) {
+        return (int) (packed >> 8);
+    }
+
+    private static int unpackZ(long packed) {
+        return (int) packed & 0xF;
+    }
+}
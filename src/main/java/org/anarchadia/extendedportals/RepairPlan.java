@@ -0,0 +1,51 @@
+package org.anarchadia.extendedportals;
+
+/**
+ * The block writes needed to bring one portal chunk back to its canonical structure.
+ *
+ * <p>Only positions whose current state differs from the desired state are recorded, so an intact
+ * portal produces an empty plan.</p>
+ */
+final class RepairPlan {
+
+    private final int chunkX;
+    private final int chunkZ;
+    private final int baseY;
+    private final int duplicateGateways;
+    private final BlockEditPlan edits;
+
+    RepairPlan(int chunkX, int chunkZ, int baseY, int duplicateGateways, int expectedSize) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.baseY = baseY;
+        this.duplicateGateways = duplicateGateways;
+        this.edits = new BlockEditPlan(expectedSize);
+    }
+
+    int getChunkX() {
+        return chunkX;
+    }
+
+    int getChunkZ() {
+        return chunkZ;
+    }
+
+    int getBaseY() {
+        return baseY;
+    }
+
+    /**
+     * Number of extra gateways the plan clears out of the chunk.
+     */
+    int getDuplicateGateways() {
+        return duplicateGateways;
+    }
+
+    BlockEditPlan getEdits() {
+        return edits;
+    }
+
+    boolean isEmpty() {
+        return edits.isEmpty();
+    }
+}
@@ -0,0 +1,12 @@
+package org.anarchadia.extendedportals;
+
+/**
+ * Receives the result of an asynchronous portal verification on the main thread.
+ */
+interface RepairPlanHandler {
+
+    /**
+     * @param plan the verified plan, or {@code null} if verification failed
+     */
+    void accept(RepairPlan plan);
+}
@@ -0,0 +1,13 @@
+package org.anarchadia.extendedportals;
+
+/**
+ * Receives the outcome of verifying and repairing a loaded portal chunk.
+ */
+interface RepairResultHandler {
+
+    /**
+     * @param plan   the verified plan, or {@code null} if verification failed
+     * @param writes blocks changed, or that a dry run would change
+     */
+    void accept(RepairPlan plan, int writes);
+}
@@ -0,0 +1,40 @@
+package org.anarchadia.extendedportals;
+
+import io.papermc.paper.event.entity.EntityInsideBlockEvent;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+/**
+ * Catches entities inside the return gateways on arrival platforms.
+ *
+ * <p>The vanilla gateway behaviour is cancelled, since in the End it would search for, and
+ * generate, an exit gateway far out in the void. The plugin then sends the entity back itself.</p>
+ */
+final class ReturnGatewayListener implements Listener {
+
+    private final Loader plugin;
+
+    ReturnGatewayListener(Loader plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onEntityInsideBlock(EntityInsideBlockEvent event) {
+        Block block = event.getBlock();
+        if (block.getType() != Material.END_GATEWAY) {
+            return;
+        }
+
+        PortalNetwork network = plugin.findReturnGateway(block.getWorld(), block.getX(), block.getY(), block.getZ());
+        if (network == null) {
+            return;
+        }
+
+        event.setCancelled(true);
+        plugin.queueReturnEntry(event.getEntity(), network, new Location(block.getWorld(), block.getX(), block.getY(), block.getZ()));
+    }
+}
@@ -0,0 +1,53 @@
+package org.anarchadia.extendedportals;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * One of the binary state files, written from snapshots that are taken under the owner's lock and
+ * written later, often by a background save.
+ *
+ * <p>Writes are serialized, and a snapshot is skipped once the newest snapshot taken is already on
+ * disk, so a background save that finishes late never replaces the state written by a newer one,
+ * such as the save on disable.</p>
+ */
+final class StateFile {
+
+    private final File file;
+    private final Object writeLock = new Object();
+    private byte[] latest;
+    private byte[] written;
+
+    StateFile(File file) {
+        this.file = file;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Notes a snapshot as the newest state. Called by the owner when it serializes itself.
+     */
+    synchronized void taken(byte[] snapshot) {
+        latest = snapshot;
+    }
+
+    /**
+     * Writes a snapshot atomically, unless a newer one has already been written.
+     */
+    void write(byte[] snapshot) throws IOException {
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (latest != null && written == latest && snapshot != latest) {
+                    return;
+                }
+            }
+
+            DataFiles.writeAtomically(file, snapshot);
+            synchronized (this) {
+                written = snapshot;
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.anarchadia.extendedportals;
+
+import java.util.UUID;
+
+/**
+ * Thread-safe teleport cooldowns split over independently locked {@link TeleportCooldowns} stripes.
+ *
+ * <p>An entity always maps to the same stripe, so region threads handling different entities rarely
+ * contend. With a single stripe this is a plain, uncontended wrapper for single-threaded servers.</p>
+ */
+final class StripedTeleportCooldowns {
+
+    private final TeleportCooldowns[] stripes;
+    private final int mask;
+
+    StripedTeleportCooldowns(long cooldownMillis, int stripeCount) {
+        int count = 1;
+        while (count < stripeCount) {
+            count <<= 1;
+        }
+
+        stripes = new TeleportCooldowns[count];
+        for (int index = 0; index < count; index++) {
+            stripes[index] = new TeleportCooldowns(cooldownMillis);
+        }
+        mask = count - 1;
+    }
+
+    /**
+     * @see TeleportCooldowns#tryBegin(UUID, long)
+     */
+    boolean tryBegin(UUID entityId, long now) {
+        TeleportCooldowns stripe = stripeFor(entityId);
+        synchronized (stripe) {
+            return stripe.tryBegin(entityId, now);
+        }
+    }
+
+    void remove(UUID entityId) {
+        TeleportCooldowns stripe = stripeFor(entityId);
+        synchronized (stripe) {
+            stripe.remove(entityId);
+        }
+    }
+
+    void expire(long now) {
+        for (TeleportCooldowns stripe : stripes) {
+            synchronized (stripe) {
+                stripe.expire(now);
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (TeleportCooldowns stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    void clear() {
+        for (TeleportCooldowns stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    private TeleportCooldowns stripeFor(UUID entityId) {
+        long mixed = entityId.getMostSignificantBits() ^ entityId.getLeastSignificantBits();
+        int hash = (int) (mixed ^ (mixed >>> 32));
+        return stripes[(hash ^ (hash >>> 16)) & mask];
+    }
+}
@@ -0,0 +1,268 @@
+package org.anarchadia.extendedportals;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Per-entity teleport cooldowns kept in primitive arrays and expired by a hashed timing wheel.
+ *
+ * <p>Entries are keyed on the two halves of the entity UUID and stored in a pooled, index-linked
+ * layout: an open-addressing table maps a UUID to its pool slot, and every slot is threaded into
+ * the wheel bucket of the tick it expires in. Expiring only visits the buckets that have fully
+ * elapsed, so the work is proportional to the entries that actually expire. Once the arrays have
+ * grown to the working-set size, neither starting a cooldown nor expiring one allocates.</p>
+ */
+final class TeleportCooldowns {
+
+    private static final long WHEEL_RESOLUTION_MS = 50L;
+    private static final int MIN_WHEEL_SIZE = 16;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NONE = -1;
+
+    private final long cooldownMillis;
+    private final int[] wheelHeads;
+    private final int wheelMask;
+    private long processedTick = Long.MIN_VALUE;
+
+    private long[] mostSignificantBits;
+    private long[] leastSignificantBits;
+    private long[] expiresAt;
+    private int[] nextInBucket;
+    private int[] previousInBucket;
+    private int poolHighWater;
+    private int freeHead = NONE;
+
+    private int[] table;
+    private int size;
+
+    TeleportCooldowns(long cooldownMillis) {
+        this.cooldownMillis = cooldownMillis;
+
+        int requiredTicks = (int) Math.min(cooldownMillis / WHEEL_RESOLUTION_MS + 2L, 1 << 20);
+        int wheelSize = MIN_WHEEL_SIZE;
+        while (wheelSize < requiredTicks) {
+            wheelSize <<= 1;
+        }
+
+        wheelHeads = new int[wheelSize];
+        Arrays.fill(wheelHeads, NONE);
+        wheelMask = wheelSize - 1;
+
+        mostSignificantBits = new long[INITIAL_CAPACITY];
+        leastSignificantBits = new long[INITIAL_CAPACITY];
+        expiresAt = new long[INITIAL_CAPACITY];
+        nextInBucket = new int[INITIAL_CAPACITY];
+        previousInBucket = new int[INITIAL_CAPACITY];
+        table = new int[INITIAL_CAPACITY * 2];
+        Arrays.fill(table, NONE);
+    }
+
+    /**
+     * Starts a cooldown for the entity unless one is already running.
+     *
+     * @return {@code false} if the entity is still cooling down from an earlier teleport
+     */
+    boolean tryBegin(UUID entityId, long now) {
+        expire(now);
+
+        long most = entityId.getMostSignificantBits();
+        long least = entityId.getLeastSignificantBits();
+        int entry = find(most, least);
+        if (entry != NONE) {
+            if (expiresAt[entry] > now) {
+                return false;
+            }
+
+            unlinkFromBucket(entry);
+        } else {
+            entry = allocate(most, least);
+            insertIntoTable(entry);
+        }
+
+        expiresAt[entry] = now + cooldownMillis;
+        linkIntoBucket(entry);
+        return true;
+    }
+
+    void remove(UUID entityId) {
+        int entry = find(entityId.getMostSignificantBits(), entityId.getLeastSignificantBits());
+        if (entry != NONE) {
+            release(entry);
+        }
+    }
+
+    /**
+     * Drops every cooldown whose wheel bucket has fully elapsed.
+     */
+    void expire(long now) {
+        long currentTick = now / WHEEL_RESOLUTION_MS;
+        if (processedTick == Long.MIN_VALUE) {
+            processedTick = currentTick - 1L;
+            return;
+        }
+
+        long lastTick = currentTick - 1L;
+        if (lastTick <= processedTick) {
+            return;
+        }
+
+        long firstTick = Math.max(processedTick + 1L, lastTick - wheelMask);
+        for (long tick = firstTick; tick <= lastTick; tick++) {
+            int entry = wheelHeads[(int) tick & wheelMask];
+            while (entry != NONE) {
+                int next = nextInBucket[entry];
+                if (expiresAt[entry] <= now) {
+                    release(entry);
+                }
+                entry = next;
+            }
+        }
+
+        processedTick = lastTick;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(wheelHeads, NONE);
+        Arrays.fill(table, NONE);
+        poolHighWater = 0;
+        freeHead = NONE;
+        size = 0;
+    }
+
+    private int find(long most, long least) {
+        int mask = table.length - 1;
+        int slot = hash(most, least) & mask;
+        while (table[slot] != NONE) {
+            int entry = table[slot];
+            if (mostSignificantBits[entry] == most && leastSignificantBits[entry] == least) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return NONE;
+    }
+
+    private int allocate(long most, long least) {
+        int entry;
+        if (freeHead != NONE) {
+            entry = freeHead;
+            freeHead = nextInBucket[entry];
+        } else {
+            if (poolHighWater == expiresAt.length) {
+                growPool();
+            }
+            entry = poolHighWater++;
+        }
+
+        mostSignificantBits[entry] = most;
+        leastSignificantBits[entry] = least;
+        return entry;
+    }
+
+    private void release(int entry) {
+        unlinkFromBucket(entry);
+        removeFromTable(entry);
+        nextInBucket[entry] = freeHead;
+        freeHead = entry;
+    }
+
+    private void insertIntoTable(int entry) {
+        if ((size + 1) * 2 > table.length) {
+            growTable();
+        }
+
+        int mask = table.length - 1;
+        int slot = hash(mostSignificantBits[entry], leastSignificantBits[entry]) & mask;
+        while (table[slot] != NONE) {
+            slot = (slot + 1) & mask;
+        }
+
+        table[slot] = entry;
+        size++;
+    }
+
+    private void removeFromTable(int entry) {
+        int mask = table.length - 1;
+        int hole = hash(mostSignificantBits[entry], leastSignificantBits[entry]) & mask;
+        while (table[hole] != entry) {
+            hole = (hole + 1) & mask;
+        }
+
+        int next = (hole + 1) & mask;
+        while (table[next] != NONE) {
+            int candidate = table[next];
+            int home = hash(mostSignificantBits[candidate], leastSignificantBits[candidate]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = candidate;
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        table[hole] = NONE;
+        size--;
+    }
+
+    private void linkIntoBucket(int entry) {
+        int bucket = (int) (expiresAt[entry] / WHEEL_RESOLUTION_MS) & wheelMask;
+        int head = wheelHeads[bucket];
+        nextInBucket[entry] = head;
+        previousInBucket[entry] = NONE;
+        if (head != NONE) {
+            previousInBucket[head] = entry;
+        }
+        wheelHeads[bucket] = entry;
+    }
+
+    private void unlinkFromBucket(int entry) {
+        int previous = previousInBucket[entry];
+        int next = nextInBucket[entry];
+        if (previous != NONE) {
+            nextInBucket[previous] = next;
+        } else {
+            wheelHeads[(int) (expiresAt[entry] / WHEEL_RESOLUTION_MS) & wheelMask] = next;
+        }
+
+        if (next != NONE) {
+            previousInBucket[next] = previous;
+        }
+    }
+
+    private void growPool() {
+        int capacity = expiresAt.length * 2;
+        mostSignificantBits = Arrays.copyOf(mostSignificantBits, capacity);
+        leastSignificantBits = Arrays.copyOf(leastSignificantBits, capacity);
+        expiresAt = Arrays.copyOf(expiresAt, capacity);
+        nextInBucket = Arrays.copyOf(nextInBucket, capacity);
+        previousInBucket = Arrays.copyOf(previousInBucket, capacity);
+    }
+
+    private void growTable() {
+        int[] oldTable = table;
+        table = new int[oldTable.length * 2];
+        Arrays.fill(table, NONE);
+
+        int mask = table.length - 1;
+        for (int entry : oldTable) {
+            if (entry == NONE) {
+                continue;
+            }
+
+            int slot = hash(mostSignificantBits[entry], leastSignificantBits[entry]) & mask;
+            while (table[slot] != NONE) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = entry;
+        }
+    }
+
+    private static int hash(long most, long least) {
+        long mixed = (most ^ (least * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L;
+        return (int) (mixed ^ (mixed >>> 31));
+    }
+}
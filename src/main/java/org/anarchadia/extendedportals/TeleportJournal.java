@@ -0,0 +1,411 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.entity.EntityType;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Append-only record of every gateway teleport, for moderation and analytics.
+ *
+ * <p>Teleports are offered to a {@link TeleportJournalRing} from whichever thread moves the entity
+ * and never touch the disk there; when the ring is full the entry is dropped and counted instead.
+ * A background task calls {@link #flush} to drain the ring in one batch, encode it as
+ * newline-delimited JSON and append it to {@code teleports.ndjson} with a single channel write.
+ * The file is rolled over by size or age into a timestamped gzip file, and only the newest rolled
+ * files are kept.</p>
+ */
+final class TeleportJournal {
+
+    static final String ACTIVE_FILE_NAME = "teleports.ndjson";
+
+    private static final String ROLLED_PREFIX = "teleports-";
+    private static final String ROLLED_SUFFIX = ".ndjson.gz";
+    private static final int MAX_BATCH_BYTES = 1 << 16;
+
+    private final File directory;
+    private final File activeFile;
+    private final TeleportJournalRing ring;
+    private final TeleportJournalRing.Entry entry = new TeleportJournalRing.Entry();
+    private final long maxFileBytes;
+    private final long rotateMillis;
+    private final int keepFiles;
+    private final PortalMetrics metrics;
+    private final StringBuilder line = new StringBuilder(192);
+    private final SimpleDateFormat rolledNameFormat = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.ROOT);
+    private ByteBuffer batch = ByteBuffer.allocate(MAX_BATCH_BYTES);
+    private FileChannel channel;
+    private long fileBytes;
+    private long openedAt;
+    private boolean closed;
+
+    TeleportJournal(File directory, int bufferEntries, long maxFileBytes, long rotateMillis, int keepFiles, PortalMetrics metrics) {
+        this.directory = directory;
+        this.activeFile = new File(directory, ACTIVE_FILE_NAME);
+        this.ring = new TeleportJournalRing(bufferEntries);
+        this.maxFileBytes = maxFileBytes;
+        this.rotateMillis = rotateMillis;
+        this.keepFiles = keepFiles;
+        this.metrics = metrics;
+        rolledNameFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Queues one teleport from any thread without blocking. Returns {@code false}, after counting
+     * the drop, if the writer has fallen a whole buffer behind.
+     *
+     * @param gatewayY the height of the gateway block the entity entered
+     * @param name     the player name, or {@code null} for other entities
+     */
+    boolean record(long time, String network, boolean returnTrip, int gatewayX, int gatewayY, int gatewayZ,
+                   UUID entityId, EntityType type, String name) {
+        if (ring.offer(time, network, returnTrip, gatewayX, gatewayY, gatewayZ, entityId, type, name)) {
+            return true;
+        }
+
+        metrics.journalDropped.increment();
+        return false;
+    }
+
+    /**
+     * Writes everything queued so far and rolls the file over if it is due. Runs off the main thread.
+     */
+    synchronized void flush(long now) throws IOException {
+        if (closed) {
+            return;
+        }
+
+        if (channel == null) {
+            open(now);
+        }
+
+        int written = 0;
+        batch.clear();
+        while (ring.poll(entry)) {
+            encode(entry);
+            byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            if (batch.remaining() < bytes.length) {
+                writeBatch();
+            }
+            if (batch.remaining() < bytes.length) {
+                batch = ByteBuffer.allocate(bytes.length);
+            }
+            batch.put(bytes);
+            written++;
+        }
+        writeBatch();
+        metrics.journalEntries.add(written);
+
+        if (fileBytes > 0L && (fileBytes >= maxFileBytes || (rotateMillis > 0L && now - openedAt >= rotateMillis))) {
+            rotate(now);
+        }
+    }
+
+    /**
+     * Writes what is still queued and closes the file. Later flushes do nothing.
+     */
+    synchronized void close() throws IOException {
+        try {
+            flush(System.currentTimeMillis());
+        } finally {
+            closed = true;
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the newest journal lines, oldest first, that the filter accepts. Everything queued is
+     * written first; the files are then streamed line by line without holding the writer's lock,
+     * so a long search never stalls the journal.
+     */
+    List<String> search(LineFilter filter, int limit) throws IOException {
+        flush(System.currentTimeMillis());
+
+        List<File> files = new ArrayList<File>(rolledFiles());
+        files.add(activeFile);
+        ArrayDeque<String> matches = new ArrayDeque<String>(limit);
+        for (File file : files) {
+            InputStream input;
+            try {
+                input = new FileInputStream(file);
+            } catch (IOException exception) {
+                // Rolled over or pruned since it was listed.
+                continue;
+            }
+
+            try {
+                if (file.getName().endsWith(".gz")) {
+                    input = new GZIPInputStream(input);
+                }
+                BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+                String candidate;
+                while ((candidate = reader.readLine()) != null) {
+                    if (filter.accepts(candidate)) {
+                        if (matches.size() == limit) {
+                            matches.removeFirst();
+                        }
+                        matches.addLast(candidate);
+                    }
+                }
+            } finally {
+                input.close();
+            }
+        }
+        return new ArrayList<String>(matches);
+    }
+
+    /**
+     * Accepts journal lines for {@link #search}.
+     */
+    interface LineFilter {
+
+        boolean accepts(String line);
+    }
+
+    static LineFilter entityFilter(UUID entityId) {
+        final String needle = "\"entity\":\"" + entityId + "\"";
+        return new LineFilter() {
+            @Override
+            public boolean accepts(String line) {
+                return line.contains(needle);
+            }
+        };
+    }
+
+    static LineFilter playerFilter(String name) {
+        final String needle = "\"name\":\"" + escape(name) + "\"";
+        return new LineFilter() {
+            @Override
+            public boolean accepts(String line) {
+                return line.contains(needle);
+            }
+        };
+    }
+
+    /**
+     * Accepts teleports through the portal whose gateway column is at the given block X/Z, in
+     * either direction.
+     */
+    static LineFilter gatewayFilter(int gatewayX, int gatewayZ) {
+        final String prefix = "\"gateway\":[" + gatewayX + ",";
+        final String suffix = "," + gatewayZ + "]";
+        return new LineFilter() {
+            @Override
+            public boolean accepts(String line) {
+                int start = line.indexOf(prefix);
+                if (start < 0) {
+                    return false;
+                }
+                int end = line.indexOf(']', start);
+                return end > 0 && line.startsWith(suffix, end + 1 - suffix.length());
+            }
+        };
+    }
+
+    /**
+     * Returns the value of a top-level field of a journal line as written, without quotes, or
+     * {@code null} if the line does not have it.
+     */
+    static String field(String line, String key) {
+        String marker = "\"" + key + "\":";
+        int start = line.indexOf(marker);
+        if (start < 0) {
+            return null;
+        }
+
+        start += marker.length();
+        if (start < line.length() && line.charAt(start) == '"') {
+            StringBuilder value = new StringBuilder();
+            for (int index = start + 1; index < line.length(); index++) {
+                char character = line.charAt(index);
+                if (character == '\\' && index + 1 < line.length()) {
+                    value.append(line.charAt(++index));
+                } else if (character == '"') {
+                    return value.toString();
+                } else {
+                    value.append(character);
+                }
+            }
+            return value.toString();
+        }
+
+        int end = start;
+        int depth = 0;
+        while (end < line.length()) {
+            char character = line.charAt(end);
+            if (character == '[') {
+                depth++;
+            } else if (character == ']') {
+                depth--;
+            } else if (depth == 0 && (character == ',' || character == '}')) {
+                break;
+            }
+            end++;
+        }
+        return line.substring(start, end);
+    }
+
+    /**
+     * Formats a journal line for chat, falling back to the raw line if it cannot be read.
+     */
+    static String describe(String line) {
+        String time = field(line, "time");
+        String gateway = field(line, "gateway");
+        if (time == null || gateway == null) {
+            return line;
+        }
+
+        String formattedTime;
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            formattedTime = format.format(new Date(Long.parseLong(time))) + " UTC";
+        } catch (NumberFormatException exception) {
+            formattedTime = time;
+        }
+
+        String name = field(line, "name");
+        return formattedTime + " " + field(line, "direction") + " " + field(line, "network")
+                + " gateway " + gateway.substring(1, gateway.length() - 1).replace(",", ", ")
+                + ": " + (name != null ? name : field(line, "type")) + " (" + field(line, "entity") + ")";
+    }
+
+    private void open(long now) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        channel = FileChannel.open(activeFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileBytes = channel.size();
+        openedAt = now;
+    }
+
+    private void encode(TeleportJournalRing.Entry teleport) {
+        line.setLength(0);
+        line.append("{\"time\":").append(teleport.time)
+                .append(",\"network\":\"").append(teleport.network)
+                .append("\",\"direction\":\"").append(teleport.returnTrip ? "return" : "out")
+                .append("\",\"gateway\":[").append(teleport.gatewayX).append(',').append(teleport.gatewayY).append(',').append(teleport.gatewayZ)
+                .append("],\"entity\":\"").append(teleport.entityId)
+                .append("\",\"type\":\"").append(teleport.type == null ? "UNKNOWN" : teleport.type.name()).append('"');
+        if (teleport.name != null) {
+            line.append(",\"name\":\"").append(escape(teleport.name)).append('"');
+        }
+        line.append("}\n");
+    }
+
+    private void writeBatch() throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) {
+            fileBytes += channel.write(batch);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Renames the active file out of the way, compresses it and prunes the oldest rolled files.
+     * Entries queued meanwhile wait in the ring and go to the next file.
+     */
+    private void rotate(long now) throws IOException {
+        channel.force(false);
+        channel.close();
+        channel = null;
+
+        String stamp = rolledNameFormat.format(new Date(now));
+        File rolled = new File(directory, ROLLED_PREFIX + stamp + ".ndjson");
+        Files.move(activeFile.toPath(), rolled.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        open(now);
+
+        File compressed = new File(directory, ROLLED_PREFIX + stamp + ROLLED_SUFFIX);
+        File temporary = new File(compressed.getPath() + ".tmp");
+        InputStream input = new FileInputStream(rolled);
+        try {
+            OutputStream output = new GZIPOutputStream(new FileOutputStream(temporary), MAX_BATCH_BYTES);
+            try {
+                byte[] buffer = new byte[MAX_BATCH_BYTES];
+                int read;
+                while ((read = input.read(buffer)) > 0) {
+                    output.write(buffer, 0, read);
+                }
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+        Files.move(temporary.toPath(), compressed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(rolled.toPath());
+
+        List<File> rolledFiles = rolledFiles();
+        for (int index = 0; index < rolledFiles.size() - keepFiles; index++) {
+            Files.deleteIfExists(rolledFiles.get(index).toPath());
+        }
+    }
+
+    /**
+     * Compressed rolled files, oldest first; their timestamped names sort by age.
+     */
+    private List<File> rolledFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new ArrayList<File>();
+        }
+
+        List<File> rolled = new ArrayList<File>();
+        for (File file : files) {
+            if (file.getName().startsWith(ROLLED_PREFIX) && file.getName().endsWith(ROLLED_SUFFIX)) {
+                rolled.add(file);
+            }
+        }
+        File[] sorted = rolled.toArray(new File[0]);
+        Arrays.sort(sorted);
+        return new ArrayList<File>(Arrays.asList(sorted));
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = null;
+        for (int index = 0; index < value.length(); index++) {
+            char character = value.charAt(index);
+            if (character == '"' || character == '\\' || character < 0x20) {
+                if (escaped == null) {
+                    escaped = new StringBuilder(value.length() + 8).append(value, 0, index);
+                }
+                if (character < 0x20) {
+                    escaped.append('?');
+                    continue;
+                }
+                escaped.append('\\');
+            }
+            if (escaped != null) {
+                escaped.append(character);
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+}
@@ -0,0 +1,140 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.entity.EntityType;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue of teleport journal entries: many producers, one consumer.
+ *
+ * <p>Entries are stored field by field in preallocated arrays, so offering one allocates nothing;
+ * the objects it refers to already belong to the entity and the network. Each slot carries a
+ * sequence number in the style of Dmitry Vyukov's bounded queue: producers claim a position with a
+ * compare-and-set on the tail and publish the slot by advancing its sequence, and the consumer frees
+ * it by advancing the sequence a full lap. A full queue rejects the entry instead of waiting.</p>
+ */
+final class TeleportJournalRing {
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final long[] times;
+    private final String[] networks;
+    private final boolean[] returning;
+    private final int[] positions;
+    private final UUID[] entityIds;
+    private final EntityType[] types;
+    private final String[] names;
+
+    /**
+     * Only touched by the consumer.
+     */
+    private long head;
+
+    TeleportJournalRing(int minimumCapacity) {
+        int capacity = 2;
+        while (capacity < minimumCapacity) {
+            capacity <<= 1;
+        }
+
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        for (int slot = 0; slot < capacity; slot++) {
+            sequences.set(slot, slot);
+        }
+        times = new long[capacity];
+        networks = new String[capacity];
+        returning = new boolean[capacity];
+        positions = new int[capacity * 3];
+        entityIds = new UUID[capacity];
+        types = new EntityType[capacity];
+        names = new String[capacity];
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Queues an entry from any thread, or returns {@code false} if the queue is full.
+     *
+     * @param name the player name, or {@code null} for other entities
+     */
+    boolean offer(long time, String network, boolean returnTrip, int gatewayX, int gatewayY, int gatewayZ,
+                  UUID entityId, EntityType type, String name) {
+        long position = tail.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long difference = sequences.get(slot) - position;
+            if (difference == 0L) {
+                if (tail.compareAndSet(position, position + 1L)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0L) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+
+        int slot = (int) position & mask;
+        times[slot] = time;
+        networks[slot] = network;
+        returning[slot] = returnTrip;
+        positions[slot * 3] = gatewayX;
+        positions[slot * 3 + 1] = gatewayY;
+        positions[slot * 3 + 2] = gatewayZ;
+        entityIds[slot] = entityId;
+        types[slot] = type;
+        names[slot] = name;
+        sequences.lazySet(slot, position + 1L);
+        return true;
+    }
+
+    /**
+     * Removes the oldest published entry into {@code entry}, or returns {@code false} if there is
+     * none. Only one thread may consume.
+     */
+    boolean poll(Entry entry) {
+        int slot = (int) head & mask;
+        if (sequences.get(slot) != head + 1L) {
+            return false;
+        }
+
+        entry.time = times[slot];
+        entry.network = networks[slot];
+        entry.returnTrip = returning[slot];
+        entry.gatewayX = positions[slot * 3];
+        entry.gatewayY = positions[slot * 3 + 1];
+        entry.gatewayZ = positions[slot * 3 + 2];
+        entry.entityId = entityIds[slot];
+        entry.type = types[slot];
+        entry.name = names[slot];
+        networks[slot] = null;
+        entityIds[slot] = null;
+        types[slot] = null;
+        names[slot] = null;
+        sequences.lazySet(slot, head + mask + 1L);
+        head++;
+        return true;
+    }
+
+    /**
+     * One entry, reused by the consumer for every poll.
+     */
+    static final class Entry {
+
+        long time;
+        String network;
+        boolean returnTrip;
+        int gatewayX;
+        int gatewayY;
+        int gatewayZ;
+        UUID entityId;
+        EntityType type;
+        String name;
+    }
+}
@@ -0,0 +1,98 @@
+package org.anarchadia.extendedportals;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.util.Vector;
+
+/**
+ * Velocities to give back to entities after their gateway teleport, applied by one task that
+ * drains the queue every tick instead of a scheduler task per entity.
+ *
+ * <p>The queue is a ring of parallel arrays that only grows. Each entry is stamped with the server
+ * tick it was queued in and applied by the first drain of a later tick, so an entity is pushed one
+ * tick after it arrives, as with the per-entity task this replaces, whether its teleport finished
+ * before or after that tick's drain. The queue is locked because teleports complete on callbacks;
+ * it is only used on single-threaded servers, where Folia's entity schedulers are not needed.</p>
+ */
+final class VelocityRestoreQueue {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Vector scratch = new Vector();
+    private Entity[] entities = new Entity[INITIAL_CAPACITY];
+    private double[] velocities = new double[INITIAL_CAPACITY * 3];
+    private int[] queuedTicks = new int[INITIAL_CAPACITY];
+    private int head;
+    private int size;
+
+    /**
+     * Queues a velocity for the entity during the given server tick. A zero velocity is not
+     * queued.
+     */
+    synchronized void add(Entity entity, double velocityX, double velocityY, double velocityZ, int currentTick) {
+        if (velocityX == 0.0D && velocityY == 0.0D && velocityZ == 0.0D) {
+            return;
+        }
+
+        if (size == entities.length) {
+            grow();
+        }
+
+        int slot = (head + size) & (entities.length - 1);
+        entities[slot] = entity;
+        velocities[slot * 3] = velocityX;
+        velocities[slot * 3 + 1] = velocityY;
+        velocities[slot * 3 + 2] = velocityZ;
+        queuedTicks[slot] = currentTick;
+        size++;
+    }
+
+    /**
+     * Applies the velocities queued in earlier ticks to the entities still valid. Called once per
+     * tick from the main thread; returns how many were applied.
+     */
+    synchronized int drain(int currentTick) {
+        int applied = 0;
+        int mask = entities.length - 1;
+        while (size > 0 && queuedTicks[head] != currentTick) {
+            Entity entity = entities[head];
+            entities[head] = null;
+            if (entity.isValid()) {
+                scratch.setX(velocities[head * 3]).setY(velocities[head * 3 + 1]).setZ(velocities[head * 3 + 2]);
+                entity.setVelocity(scratch);
+                applied++;
+            }
+            head = (head + 1) & mask;
+            size--;
+        }
+        return applied;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized void clear() {
+        for (int index = 0; index < size; index++) {
+            entities[(head + index) & (entities.length - 1)] = null;
+        }
+        head = 0;
+        size = 0;
+    }
+
+    private void grow() {
+        int capacity = entities.length;
+        Entity[] grownEntities = new Entity[capacity * 2];
+        double[] grownVelocities = new double[capacity * 2 * 3];
+        int[] grownQueuedTicks = new int[capacity * 2];
+        for (int index = 0; index < size; index++) {
+            int slot = (head + index) & (capacity - 1);
+            grownEntities[index] = entities[slot];
+            System.arraycopy(velocities, slot * 3, grownVelocities, index * 3, 3);
+            grownQueuedTicks[index] = queuedTicks[slot];
+        }
+        entities = grownEntities;
+        velocities = grownVelocities;
+        queuedTicks = grownQueuedTicks;
+        head = 0;
+    }
+}